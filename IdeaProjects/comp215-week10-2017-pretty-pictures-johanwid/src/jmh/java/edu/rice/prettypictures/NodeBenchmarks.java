@@ -0,0 +1,85 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What each kind of argFuncs node costs on its own, per pixel, evaluated by the tree itself and by a
+ * {@link Program}. Each node's children are just x, y, and a constant, so the node is nearly all of the work.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NodeBenchmarks {
+  static final int SIZE = 64;
+  static final int PIXELS = SIZE * SIZE;
+
+  @Param({"VAR_X", "VAR_Y", "VAR_T", "CONSTANT", "NEGATE", "SINE", "ROUND_DOWN", "ROUND_UP", "COSINE", "ARCTAN", "EXPON",
+      "LOGRM", "ABS_VAL", "CLIP", "WRAP", "RGB_TO_YCRCB", "YCRCB_TO_RGB", "ADD", "SUBTRACT", "MULTIPLY", "DIVIDE",
+      "DOT_PRODUCT", "EXTERNAL", "GS_PERLIN", "PERLIN", "DISSOLVE", "IMAGE_SAMPLE"})
+  public String opcode;
+
+  private argFuncs tree;
+  private Program program;
+  private Program.Workspace workspace;
+  private final double[] red = new double[PIXELS];
+  private final double[] green = new double[PIXELS];
+  private final double[] blue = new double[PIXELS];
+
+  // x, y, and a constant with a different value in each channel, handed out in that order
+  static argFuncs nodeOf(Opcode op) {
+    argFuncs x = argFuncs.VarX.make();
+    argFuncs y = argFuncs.VarY.make();
+    argFuncs constant = argFuncs.Constant.make(0.5, -0.25, 0.75);
+    if (op == Opcode.CONSTANT) {
+      return constant;
+    }
+
+    IList<argFuncs> children = List.of(x, y, constant).limit(op.getArity());
+    return Genomes.make(new Random(0), op, children);
+  }
+
+  @Setup
+  public void setup() {
+    tree = nodeOf(Opcode.valueOf(opcode));
+    program = Program.compile(tree);
+    workspace = program.newWorkspace();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS)
+  public double tree() {
+    double sum = 0;
+    for (int j = 0; j < SIZE; j++) {
+      for (int i = 0; i < SIZE; i++) {
+        sum += tree.evaluate(Renderer.origin(SIZE) + i * Renderer.step(SIZE),
+            Renderer.origin(SIZE) + j * Renderer.step(SIZE)).getRed();
+      }
+    }
+    return sum;
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS)
+  public double[] programRect() {
+    program.evaluateRect(Renderer.origin(SIZE), Renderer.origin(SIZE), Renderer.step(SIZE), Renderer.step(SIZE),
+        SIZE, SIZE, red, green, blue, workspace);
+    return red;
+  }
+}
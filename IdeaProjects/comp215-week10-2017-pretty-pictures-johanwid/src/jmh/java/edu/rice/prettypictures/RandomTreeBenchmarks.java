@@ -0,0 +1,116 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Random genomes of increasing depth, through each way we have of evaluating them, in nanoseconds per
+ * pixel per tree. The same trees every run, as in {@link PrettyPicturesBenchmarking}, which these replace
+ * for anything that needs error bars.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class RandomTreeBenchmarks {
+  static final int SIZE = 64;
+  static final int TREES = 10;
+  static final int PIXELS = SIZE * SIZE;
+
+  @Param({"2", "4", "6", "8", "10"})
+  public int depth;
+
+  private FunctionTree[] trees;
+  private FunctionTree[] programs;
+  private FunctionTree[] optimized;
+  private FunctionTree[] bytecode;
+  private final double[] red = new double[PIXELS];
+  private final double[] green = new double[PIXELS];
+  private final double[] blue = new double[PIXELS];
+
+  @Setup
+  public void setup() {
+    Random rng = new Random(depth);
+    IList<argFuncs> genomes = List.makeEmpty();
+    for (int i = 0; i < TREES; i++) {
+      genomes = genomes.add(Genomes.random(rng, depth));
+    }
+
+    trees = new FunctionTree[TREES];
+    programs = new FunctionTree[TREES];
+    optimized = new FunctionTree[TREES];
+    bytecode = new FunctionTree[TREES];
+    int i = 0;
+    for (IList<argFuncs> rest = genomes; !rest.empty(); rest = rest.tail(), i++) {
+      trees[i] = rest.head();
+      programs[i] = Program.compile(rest.head());
+      optimized[i] = Program.compile(Optimizer.optimize(rest.head()).getTree());
+      bytecode[i] = BytecodeCompiler.compile(Optimizer.optimize(rest.head()).getTree());
+    }
+  }
+
+  private void everyPixel(FunctionTree[] functions, Blackhole blackhole) {
+    for (FunctionTree function : functions) {
+      for (int j = 0; j < SIZE; j++) {
+        for (int i = 0; i < SIZE; i++) {
+          blackhole.consume(function.evaluate(Renderer.origin(SIZE) + i * Renderer.step(SIZE),
+              Renderer.origin(SIZE) + j * Renderer.step(SIZE)));
+        }
+      }
+    }
+  }
+
+  private void rects(FunctionTree[] functions, Blackhole blackhole) {
+    for (FunctionTree function : functions) {
+      function.evaluateRect(Renderer.origin(SIZE), Renderer.origin(SIZE), Renderer.step(SIZE), Renderer.step(SIZE),
+          SIZE, SIZE, red, green, blue);
+      blackhole.consume(red);
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS * TREES)
+  public void tree(Blackhole blackhole) {
+    everyPixel(trees, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS * TREES)
+  public void program(Blackhole blackhole) {
+    everyPixel(programs, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS * TREES)
+  public void programRect(Blackhole blackhole) {
+    rects(programs, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS * TREES)
+  public void optimizedRect(Blackhole blackhole) {
+    rects(optimized, blackhole);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(PIXELS * TREES)
+  public void bytecodeRect(Blackhole blackhole) {
+    rects(bytecode, blackhole);
+  }
+}
@@ -0,0 +1,72 @@
+package edu.rice.prettypictures;
+
+import edu.rice.image.Images;
+import edu.rice.image.PngEncoder;
+import edu.rice.list.IList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole images, the way the server makes them: rendering one image, rendering a whole generation at once,
+ * and encoding the result as a PNG, at the sizes the browser asks for (thumbnails, zoomed, and big).
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RenderBenchmarks {
+  @Param({"200", "800", "1600"})
+  public int size;
+
+  private final Renderer renderer = Renderer.make();
+  private final IList<argFuncs> generation = Genomes.TEST_GENERATION;
+
+  // the last and busiest image of the test generation, with sines, Perlin noise, and a dissolve
+  private argFuncs genome;
+  private Program program;
+  private BufferedImage image;
+
+  @Setup
+  public void setup() {
+    genome = generation.nth(generation.length() - 1).get();
+    program = Program.compile(Optimizer.optimize(genome).getTree());
+    image = renderer.render(program, size, size);
+  }
+
+  @Benchmark
+  public BufferedImage render() {
+    return renderer.render(program, size, size);
+  }
+
+  @Benchmark
+  public BufferedImage renderUnoptimized() {
+    return renderer.render(genome, size, size);
+  }
+
+  @Benchmark
+  public IList<BufferedImage> renderGeneration() {
+    return renderer.renderAll(generation, size, size);
+  }
+
+  @Benchmark
+  public byte[] encodeFast() {
+    return Images.imageToPng(image, PngEncoder.FAST).get();
+  }
+
+  @Benchmark
+  public byte[] encodeDefault() {
+    return Images.imageToPng(image).get();
+  }
+}
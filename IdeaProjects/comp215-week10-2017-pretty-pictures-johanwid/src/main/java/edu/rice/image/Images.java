@@ -12,12 +12,12 @@ package edu.rice.image;
 
 import edu.rice.io.Files;
 import edu.rice.util.Try;
-import org.apache.commons.imaging.ImageFormats;
 import org.apache.commons.imaging.Imaging;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.awt.image.BufferedImage;
+import java.io.OutputStream;
 
 
 /**
@@ -87,7 +87,40 @@ public class Images {
    * @return a Try.success of the raw PNG bytes, or a Try.failure indicating what went wrong
    */
   public static Try<byte[]> imageToPng(BufferedImage image) {
-    return Try.of(() -> Imaging.writeImageToBytes(image, ImageFormats.PNG, null))
+    return imageToPng(image, PngEncoder.DEFAULT);
+  }
+
+  /**
+   * Given a BufferedImage, convert it to PNG format, with the given encoder's compression level and filtering.
+   *
+   * @return a Try.success of the raw PNG bytes, or a Try.failure indicating what went wrong
+   * @see PngEncoder#make(int, PngEncoder.Filter, boolean)
+   */
+  public static Try<byte[]> imageToPng(BufferedImage image, PngEncoder encoder) {
+    return Try.of(() -> encoder.encode(image))
         .logIfFailure(TAG, err -> "failed to convert image to bytes");
   }
+
+  /**
+   * Given a BufferedImage, write it in PNG format to the given stream, a piece at a time, rather than making the
+   * whole thing in memory first. The stream is flushed, but not closed.
+   *
+   * @return an empty Try.success if everything goes well, or a Try.failure indicating what went wrong
+   */
+  public static Try<Void> writePng(BufferedImage image, OutputStream output, PngEncoder encoder) {
+    return writePng(image, (start, end) -> { }, output, encoder);
+  }
+
+  /**
+   * Given a BufferedImage that hasn't been drawn yet, write it in PNG format to the given stream, asking the row
+   * source to draw each horizontal strip of the image just before it's compressed. That way, the start of the
+   * image can be on its way while the rest is still being drawn. The stream is flushed, but not closed.
+   *
+   * @return an empty Try.success if everything goes well, or a Try.failure indicating what went wrong
+   */
+  public static Try<Void> writePng(BufferedImage image, PngEncoder.RowSource rows, OutputStream output,
+                                   PngEncoder encoder) {
+    return Try.ofRunnable(() -> encoder.write(image, rows, output))
+        .logIfFailure(TAG, err -> "failed to write image to stream");
+  }
 }
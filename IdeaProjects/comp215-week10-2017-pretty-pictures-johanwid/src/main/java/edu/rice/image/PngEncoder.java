@@ -0,0 +1,594 @@
+/*
+ * This code is part of Rice Comp215 and is made available for your use
+ * as a student in Comp215. You are specifically forbidden from posting
+ * this code online (e.g., on Github) or otherwise making it, or any derivative
+ * of it, available to future Comp215 students. Violations of this rule are
+ * considered Honor Code violations and will result in your being reported to
+ * the Honor Council, even after you've completed the class, and will result
+ * in retroactive reductions to your grade.
+ */
+
+package edu.rice.image;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * A PNG encoder specialized for 8-bit RGB and ARGB images. For the common {@link BufferedImage#TYPE_INT_RGB} and
+ * {@link BufferedImage#TYPE_INT_ARGB} images, it reads pixels straight out of the image's int[] raster, rather than
+ * going through a general-purpose image writer.
+ *
+ * <p>The image is cut into horizontal strips, each of which is filtered and compressed on its own, so the strips can
+ * be done in parallel. Each strip's compressor is primed with the tail of the strip before it, and all but the last
+ * strip end in a sync flush, so the strips concatenate into a single standard deflate stream, and compress nearly as
+ * well as they would have all in one piece. Each strip becomes one IDAT chunk, which also means that {@link
+ * #write(BufferedImage, OutputStream)} can send the first strip out while the later ones are still being compressed.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public final class PngEncoder {
+  /**
+   * PNG row filters. Each row of the image is transformed by one of these before compression; the filters don't
+   * change the image, but good ones make it a lot more compressible.
+   */
+  public enum Filter {
+    NONE, SUB, UP, AVERAGE, PAETH,
+
+    /**
+     * Tries every filter on every row, and keeps whichever one looks most compressible, using the usual "minimum
+     * sum of absolute differences" heuristic. Slower to filter, but usually the smallest output.
+     */
+    ADAPTIVE
+  }
+
+  /**
+   * The standard deflate level with adaptive filtering: small files, at some cost in speed.
+   */
+  public static final PngEncoder DEFAULT = make(Deflater.DEFAULT_COMPRESSION, Filter.ADAPTIVE, true);
+
+  /**
+   * Fastest compression and a cheap filter, for images that are made once and thrown away, like the ones
+   * our web servers render on demand.
+   */
+  public static final PngEncoder FAST = make(Deflater.BEST_SPEED, Filter.SUB, true);
+
+  /**
+   * Fills in rows [start, end) of the image being encoded, just before the encoder needs them. This lets the
+   * encoder start compressing the top of an image while the bottom is still being drawn. Calls for different
+   * ranges may happen concurrently, and in any order, but every row is filled before anything reads it.
+   */
+  @FunctionalInterface
+  public interface RowSource {
+    void fill(int start, int end);
+  }
+
+  // for images that are already complete
+  private static final RowSource READY = (start, end) -> { };
+
+  // the deflate window; each strip's compressor gets this much of the previous strip as its dictionary
+  private static final int WINDOW_SIZE = 32768;
+
+  // strips aren't made smaller than this (filtered bytes), so the per-strip overhead stays small
+  static final int DEFAULT_STRIP_BYTES = 256 * 1024;
+
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+  private final int level;
+  private final Filter filter;
+  private final boolean parallel;
+  private final int stripBytes;
+
+  private PngEncoder(int level, Filter filter, boolean parallel, int stripBytes) {
+    if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("deflate level must be -1 (default) or 0-9: " + level);
+    }
+    if (stripBytes < 1) {
+      throw new IllegalArgumentException("strip size must be positive: " + stripBytes);
+    }
+
+    this.level = level;
+    this.filter = filter;
+    this.parallel = parallel;
+    this.stripBytes = stripBytes;
+  }
+
+  /**
+   * Makes an encoder with the given deflate level (0-9, or {@link Deflater#DEFAULT_COMPRESSION}) and row filter.
+   * If parallel is true, the strips of each image are compressed on the common fork/join pool; otherwise,
+   * everything happens on the calling thread.
+   */
+  public static PngEncoder make(int level, Filter filter, boolean parallel) {
+    return new PngEncoder(level, filter, parallel, DEFAULT_STRIP_BYTES);
+  }
+
+  /**
+   * As {@link #make(int, Filter, boolean)}, but with a given minimum strip size, so tests can force small images
+   * to be cut into many strips.
+   */
+  static PngEncoder make(int level, Filter filter, boolean parallel, int stripBytes) {
+    return new PngEncoder(level, filter, parallel, stripBytes);
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  public Filter getFilter() {
+    return filter;
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  /**
+   * Encodes the image as PNG, in memory.
+   */
+  public byte[] encode(BufferedImage image) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      write(image, out);
+    } catch (IOException e) {
+      // ByteArrayOutputStream never actually throws
+      throw new IllegalStateException(e);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * Encodes the image as PNG, writing to the given stream as each strip is finished. The stream is flushed,
+   * but not closed.
+   */
+  public void write(BufferedImage image, OutputStream output) throws IOException {
+    write(image, READY, output);
+  }
+
+  /**
+   * Encodes the image as PNG, asking the row source to fill in each strip of the image just before it's
+   * compressed, and writing to the given stream as each strip is finished. The stream is flushed, but not closed.
+   *
+   * <p>Since the pixels aren't there yet when we start, an {@link BufferedImage#TYPE_INT_ARGB} image always gets
+   * an alpha channel this way, even if it turns out to be opaque.
+   */
+  public void write(BufferedImage image, RowSource rows, OutputStream output) throws IOException {
+    Pixels pixels = Pixels.of(image, rows == READY);
+    int rowBytes = 1 + pixels.width * pixels.bytesPerPixel; // filter type byte, then the pixels
+    int rowsPerStrip = Math.max(1, stripBytes / rowBytes);
+    int strips = (pixels.height + rowsPerStrip - 1) / rowsPerStrip;
+
+    // In parallel, we keep only a few strips in flight at once: enough to keep every core busy, and one more being
+    // written out. Strip s + window only starts once strip s is written, so however slow the stream we're writing
+    // to, we never hold more than window strips' worth of filtered and compressed data.
+    int window = parallel ? ForkJoinPool.getCommonPoolParallelism() + 1 : 0;
+    CompletableFuture<?>[] filled = new CompletableFuture<?>[strips];
+    @SuppressWarnings("unchecked")
+    CompletableFuture<Strip>[] futures = (CompletableFuture<Strip>[]) new CompletableFuture<?>[strips];
+    int submitted = 0;
+    for (; submitted < Math.min(window, strips); submitted++) {
+      submitStrip(submitted, pixels, rows, rowsPerStrip, filled, futures);
+    }
+
+    try {
+      DataOutputStream out = new DataOutputStream(output);
+      out.write(SIGNATURE);
+
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream headerOut = new DataOutputStream(header);
+      headerOut.writeInt(pixels.width);
+      headerOut.writeInt(pixels.height);
+      headerOut.writeByte(8); // bits per channel
+      headerOut.writeByte(pixels.bytesPerPixel == 4 ? 6 : 2); // RGBA or RGB
+      headerOut.writeByte(0); // deflate
+      headerOut.writeByte(0); // the usual five filters
+      headerOut.writeByte(0); // not interlaced
+      writeChunk(out, "IHDR", header.toByteArray(), 0, header.size());
+
+      Adler32 adler = new Adler32();
+      for (int s = 0; s < strips; s++) {
+        int start = s * rowsPerStrip;
+        int end = Math.min(start + rowsPerStrip, pixels.height);
+        Strip strip;
+        if (parallel) {
+          strip = futures[s].join();
+          futures[s] = null; // so we're not holding onto it once it's written
+        } else {
+          rows.fill(start, end);
+          strip = compressStrip(pixels, start, end);
+        }
+        adler.update(strip.filtered, strip.offset, strip.filtered.length - strip.offset);
+
+        // the zlib header goes before the first strip, and the checksum after the last
+        ByteArrayOutputStream idat = new ByteArrayOutputStream(strip.compressed.length + 6);
+        if (s == 0) {
+          idat.write(0x78);
+          idat.write(zlibFlags());
+        }
+        idat.write(strip.compressed, 0, strip.compressed.length);
+        if (s == strips - 1) {
+          long sum = adler.getValue();
+          idat.write((int) (sum >>> 24));
+          idat.write((int) (sum >>> 16));
+          idat.write((int) (sum >>> 8));
+          idat.write((int) sum);
+        }
+        writeChunk(out, "IDAT", idat.toByteArray(), 0, idat.size());
+
+        if (parallel && submitted < strips) {
+          submitStrip(submitted++, pixels, rows, rowsPerStrip, filled, futures);
+        }
+      }
+
+      writeChunk(out, "IEND", new byte[0], 0, 0);
+      out.flush();
+    } finally {
+      // If anything went wrong, most likely the client hanging up, there's nobody left to want the rest of the
+      // image, so we cancel whatever's still queued up. Any of them that haven't started yet never will. When all
+      // went well, everything's already done, and this does nothing.
+      for (int s = 0; s < submitted; s++) {
+        filled[s].cancel(false);
+        if (futures[s] != null) {
+          futures[s].cancel(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Starts filling strip s, and compressing it once it and the strips before it that it takes its dictionary from
+   * are filled. Those earlier strips must have been submitted already.
+   */
+  private void submitStrip(int s, Pixels pixels, RowSource rows, int rowsPerStrip,
+                           CompletableFuture<?>[] filled, CompletableFuture<Strip>[] futures) {
+    int rowBytes = 1 + pixels.width * pixels.bytesPerPixel;
+    int start = s * rowsPerStrip;
+    int end = Math.min(start + rowsPerStrip, pixels.height);
+    filled[s] = CompletableFuture.runAsync(() -> rows.fill(start, end));
+
+    // compression also reads the tail of the strips before, for its dictionary, so those have to be filled too
+    int firstNeeded = (start - dictionaryRows(rowBytes, start)) / rowsPerStrip;
+    futures[s] = CompletableFuture.allOf(Arrays.copyOfRange(filled, firstNeeded, s + 1))
+        .thenApplyAsync(ignored -> compressStrip(pixels, start, end));
+  }
+
+
+  /**
+   * The second byte of the zlib header: the compression level hint, with check bits so that the two header bytes,
+   * as a big-endian number, are a multiple of 31.
+   */
+  private int zlibFlags() {
+    if (level == Deflater.NO_COMPRESSION || level == Deflater.BEST_SPEED) {
+      return 0x01;
+    } else if (level == Deflater.DEFAULT_COMPRESSION || level == 6) {
+      return 0x9c;
+    } else if (level < 6) {
+      return 0x5e;
+    } else {
+      return 0xda;
+    }
+  }
+
+  private static void writeChunk(DataOutputStream out, String type, byte[] data, int offset, int length)
+      throws IOException {
+    byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data, offset, length);
+
+    out.writeInt(length);
+    out.write(typeBytes);
+    out.write(data, offset, length);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * Filters rows [start, end) and compresses them. The rows just before start are filtered too, but only to serve
+   * as the compressor's dictionary, since the decoder will have already seen them.
+   */
+  private Strip compressStrip(Pixels pixels, int start, int end) {
+    int rowBytes = 1 + pixels.width * pixels.bytesPerPixel;
+    int dictionaryRows = dictionaryRows(rowBytes, start);
+    int first = start - dictionaryRows;
+
+    byte[] filtered = new byte[(end - first) * rowBytes];
+    RowFilter rowFilter = new RowFilter(pixels, filter);
+    for (int row = first; row < end; row++) {
+      rowFilter.filterRow(row, filtered, (row - first) * rowBytes);
+    }
+
+    int offset = dictionaryRows * rowBytes;
+    Deflater deflater = new Deflater(level, true);
+    try {
+      // no Deflater.FILTERED here: Deflater applies a strategy change lazily, at the first deflate() call, and in doing
+      // so throws away the dictionary we're about to set
+      if (offset > 0) {
+        int dictionaryLength = Math.min(offset, WINDOW_SIZE);
+        deflater.setDictionary(filtered, offset - dictionaryLength, dictionaryLength);
+      }
+      deflater.setInput(filtered, offset, filtered.length - offset);
+
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, (filtered.length - offset) / 4));
+      byte[] buffer = new byte[16384];
+      if (end == pixels.height) {
+        deflater.finish();
+        while (!deflater.finished()) {
+          compressed.write(buffer, 0, deflater.deflate(buffer));
+        }
+      } else {
+        // a sync flush leaves the stream on a byte boundary, so the next strip can pick up right after it
+        int n;
+        do {
+          n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+          compressed.write(buffer, 0, n);
+        } while (n == buffer.length);
+      }
+
+      return new Strip(filtered, offset, compressed.toByteArray());
+    } finally {
+      deflater.end();
+    }
+  }
+
+  // how many rows before start it takes to fill the deflate window
+  private static int dictionaryRows(int rowBytes, int start) {
+    return Math.min(start, (WINDOW_SIZE + rowBytes - 1) / rowBytes);
+  }
+
+  private static final class Strip {
+    final byte[] filtered; // filtered rows, including the dictionary rows at the front
+    final int offset; // where this strip's own rows start
+    final byte[] compressed;
+
+    Strip(byte[] filtered, int offset, byte[] compressed) {
+      this.filtered = filtered;
+      this.offset = offset;
+      this.compressed = compressed;
+    }
+  }
+
+  /*
+   * Read-only view of the image's pixels, as ARGB ints. For int-packed images, this is the image's own
+   * raster; for anything else, rows are fetched one at a time with getRGB().
+   */
+  private static final class Pixels {
+    @Nullable
+    final int[] data;
+    final BufferedImage image;
+    final int offset;
+    final int stride;
+    final int width;
+    final int height;
+    final int bytesPerPixel;
+
+    private Pixels(BufferedImage image, @Nullable int[] data, int offset, int stride, boolean alpha) {
+      this.image = image;
+      this.data = data;
+      this.offset = offset;
+      this.stride = stride;
+      this.width = image.getWidth();
+      this.height = image.getHeight();
+      this.bytesPerPixel = alpha ? 4 : 3;
+    }
+
+    /**
+     * If the pixels are already there, we can look at them to see whether we need an alpha channel; otherwise,
+     * we have to go by the image type.
+     */
+    static Pixels of(BufferedImage image, boolean ready) {
+      int type = image.getType();
+      Raster raster = image.getRaster();
+      boolean alpha = image.getColorModel().hasAlpha();
+
+      int[] data = null;
+      int offset = 0;
+      int stride = 0;
+      if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+          && raster.getSampleModelTranslateX() == 0
+          && raster.getSampleModelTranslateY() == 0
+          && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        data = buffer.getData();
+        offset = buffer.getOffset();
+        stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+      }
+
+      Pixels opaque = new Pixels(image, data, offset, stride, false);
+      return (alpha && !(ready && opaque.isOpaque())) ? new Pixels(image, data, offset, stride, true) : opaque;
+    }
+
+    // we only bother writing an alpha channel when some pixel actually needs it
+    private boolean isOpaque() {
+      int[] row = new int[width];
+      for (int y = 0; y < height; y++) {
+        int[] src = row(y, row);
+        int start = (src == data) ? offset + y * stride : 0;
+        for (int i = start; i < start + width; i++) {
+          if ((src[i] >>> 24) != 0xff) {
+            return false;
+          }
+        }
+      }
+      return true;
+    }
+
+    // either the raster itself, or the scratch array filled in with row y
+    private int[] row(int y, int[] scratch) {
+      return (data != null) ? data : image.getRGB(0, y, width, 1, scratch, 0, width);
+    }
+
+    /**
+     * Unpacks one row into bytes, in PNG order: R, G, B, and then A if we have it. The scratch array needs room
+     * for one row of pixels.
+     */
+    void unpackRow(int y, int[] scratch, byte[] dest) {
+      int[] src = row(y, scratch);
+      int start = (src == data) ? offset + y * stride : 0;
+      int k = 0;
+      if (bytesPerPixel == 4) {
+        for (int i = start; i < start + width; i++) {
+          int p = src[i];
+          dest[k++] = (byte) (p >> 16);
+          dest[k++] = (byte) (p >> 8);
+          dest[k++] = (byte) p;
+          dest[k++] = (byte) (p >>> 24);
+        }
+      } else {
+        for (int i = start; i < start + width; i++) {
+          int p = src[i];
+          dest[k++] = (byte) (p >> 16);
+          dest[k++] = (byte) (p >> 8);
+          dest[k++] = (byte) p;
+        }
+      }
+    }
+  }
+
+  /*
+   * Filters one row at a time, remembering the previous row, since most filters need it. Each strip gets
+   * its own, so there's no sharing between threads.
+   */
+  private static final class RowFilter {
+    private final Pixels pixels;
+    private final Filter filter;
+    private final int bpp;
+    private byte[] current;
+    private byte[] previous;
+    private int previousRow = -2;
+    private final byte[] candidate;
+    private final int[] scratch;
+
+    RowFilter(Pixels pixels, Filter filter) {
+      this.pixels = pixels;
+      this.filter = filter;
+      this.bpp = pixels.bytesPerPixel;
+      this.current = new byte[pixels.width * bpp];
+      this.previous = new byte[pixels.width * bpp];
+      this.candidate = new byte[pixels.width * bpp];
+      this.scratch = new int[pixels.width];
+    }
+
+    /**
+     * Writes the filter type byte and the filtered bytes of the given row to dest, starting at offset.
+     */
+    void filterRow(int y, byte[] dest, int offset) {
+      if (y == 0) {
+        Arrays.fill(previous, (byte) 0);
+      } else if (previousRow == y - 1) {
+        byte[] tmp = previous;
+        previous = current;
+        current = tmp;
+      } else {
+        pixels.unpackRow(y - 1, scratch, previous);
+      }
+      pixels.unpackRow(y, scratch, current);
+      previousRow = y;
+
+      if (filter != Filter.ADAPTIVE) {
+        dest[offset] = (byte) filter.ordinal();
+        apply(filter, dest, offset + 1);
+        return;
+      }
+
+      long best = Long.MAX_VALUE;
+      for (Filter f : ADAPTIVE_CHOICES) {
+        apply(f, candidate, 0);
+        long cost = cost(candidate);
+        if (cost < best) {
+          best = cost;
+          dest[offset] = (byte) f.ordinal();
+          System.arraycopy(candidate, 0, dest, offset + 1, candidate.length);
+        }
+      }
+    }
+
+    private static final Filter[] ADAPTIVE_CHOICES = {
+        Filter.NONE, Filter.SUB, Filter.UP, Filter.AVERAGE, Filter.PAETH};
+
+    // treating the filtered bytes as signed, small magnitudes are the ones that compress well
+    private static long cost(byte[] bytes) {
+      long sum = 0;
+      for (byte b : bytes) {
+        sum += Math.abs((int) b);
+      }
+      return sum;
+    }
+
+    private void apply(Filter f, byte[] dest, int offset) {
+      byte[] cur = current;
+      byte[] prev = previous;
+      int n = cur.length;
+
+      switch (f) {
+        case NONE:
+          System.arraycopy(cur, 0, dest, offset, n);
+          return;
+
+        case SUB:
+          for (int i = 0; i < bpp; i++) {
+            dest[offset + i] = cur[i];
+          }
+          for (int i = bpp; i < n; i++) {
+            dest[offset + i] = (byte) (cur[i] - cur[i - bpp]);
+          }
+          return;
+
+        case UP:
+          for (int i = 0; i < n; i++) {
+            dest[offset + i] = (byte) (cur[i] - prev[i]);
+          }
+          return;
+
+        case AVERAGE:
+          for (int i = 0; i < bpp; i++) {
+            dest[offset + i] = (byte) (cur[i] - ((prev[i] & 0xff) >>> 1));
+          }
+          for (int i = bpp; i < n; i++) {
+            dest[offset + i] = (byte) (cur[i] - (((cur[i - bpp] & 0xff) + (prev[i] & 0xff)) >>> 1));
+          }
+          return;
+
+        case PAETH:
+          for (int i = 0; i < bpp; i++) {
+            dest[offset + i] = (byte) (cur[i] - prev[i]); // with no left neighbor, Paeth always picks "up"
+          }
+          for (int i = bpp; i < n; i++) {
+            dest[offset + i] = (byte) (cur[i] - paeth(cur[i - bpp] & 0xff, prev[i] & 0xff, prev[i - bpp] & 0xff));
+          }
+          return;
+
+        default:
+          throw new IllegalArgumentException("not a single filter: " + f);
+      }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+      int p = left + up - upLeft;
+      int pa = Math.abs(p - left);
+      int pb = Math.abs(p - up);
+      int pc = Math.abs(p - upLeft);
+      if (pa <= pb && pa <= pc) {
+        return left;
+      } else if (pb <= pc) {
+        return up;
+      } else {
+        return upLeft;
+      }
+    }
+  }
+}
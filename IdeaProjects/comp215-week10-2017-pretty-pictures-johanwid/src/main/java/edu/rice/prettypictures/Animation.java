@@ -0,0 +1,103 @@
+package edu.rice.prettypictures;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+
+/**
+ * A tree drawn as a loop of frames at one size, with time ({@link argFuncs.VarT}) going from -1 to 1 over
+ * the loop. Frame n of N is at t = -1 + 2n / N, so the frame after the last one would be the first one again.
+ *
+ * <p>Most of an animated tree usually doesn't depend on time: a VarT deep in one branch leaves every other
+ * branch the same from frame to frame. So the first frame keeps the results of every time-invariant subtree
+ * that feeds a time-dependent one, in a {@link Program.TimeCache} for each tile, and every frame after that
+ * only evaluates the nodes that see the time. That takes memory, three doubles per pixel for each of those
+ * subtrees, so past {@link #MAX_CACHE_BYTES}, each frame is evaluated from scratch instead.
+ *
+ * <p>A tree without a VarT is a still image, and {@link #isAnimated()} says so; all its frames are the same.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Animation {
+  public static final int DEFAULT_FRAMES = 48;
+  public static final long MAX_CACHE_BYTES = 64L << 20;
+
+  private final Renderer renderer;
+  private final Program program;
+  private final int width;
+  private final int height;
+  private final int frames;
+  @Nullable private final Program.TimeCache[] caches;
+
+  private Animation(Renderer renderer, Program program, int width, int height, int frames) {
+    if (width < 1 || height < 1 || frames < 1) {
+      throw new IllegalArgumentException(String.format("bad animation: %dx%d, %d frames", width, height, frames));
+    }
+    this.renderer = renderer;
+    this.program = program;
+    this.width = width;
+    this.height = height;
+    this.frames = frames;
+    this.caches = program.dependsOnTime() && program.timeCacheBytes(width * height) <= MAX_CACHE_BYTES
+        ? new Program.TimeCache[renderer.tileCount(width, height)]
+        : null;
+  }
+
+  /**
+   * A width x height animation of the tree, with {@link #DEFAULT_FRAMES} frames to the loop.
+   */
+  public static Animation make(Renderer renderer, FunctionTree tree, int width, int height) {
+    return make(renderer, tree, width, height, DEFAULT_FRAMES);
+  }
+
+  /**
+   * A width x height animation of the tree, with the given number of frames to the loop.
+   */
+  public static Animation make(Renderer renderer, FunctionTree tree, int width, int height, int frames) {
+    return new Animation(renderer, Program.compile(tree), width, height, frames);
+  }
+
+  /**
+   * Time at the given frame of a loop of the given number of frames.
+   */
+  public static double timeOf(int frame, int frames) {
+    return -1 + 2.0 * frame / frames;
+  }
+
+  public int getFrames() {
+    return frames;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Whether the frames are any different from each other.
+   */
+  public boolean isAnimated() {
+    return program.dependsOnTime();
+  }
+
+  /**
+   * Whether frames after the first only evaluate the nodes that depend on time.
+   */
+  public boolean isCached() {
+    return caches != null;
+  }
+
+  /**
+   * Draws frame n of the loop (taken modulo the number of frames) into a new image. It's exactly the image
+   * that rendering the tree at that frame's time, from scratch, would give.
+   */
+  public synchronized BufferedImage frame(int n) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    renderer.renderFrame(program, image, timeOf(Math.floorMod(n, frames), frames), caches);
+    return image;
+  }
+}
@@ -0,0 +1,262 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Makes new generations of genomes: random ones to start with, and children of the genomes the user
+ * picked after that. A child is a crossover of two parents (a random subtree of one, grafted in place of
+ * a random subtree of the other), which is then usually mutated a little.
+ *
+ * <p>The genomes of a generation are made in parallel, on the given executor, and each one is handed to
+ * a callback as soon as it exists, so that rendering it can start right away, while the rest are still
+ * being made. Making the whole generation finishes long before rendering it does, so the breeder can
+ * answer with the new generation straight away, and let the images show up as they're rendered.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Breeder {
+  public static final int MAX_DEPTH = 12;
+  static final int MIN_RANDOM_DEPTH = 3;
+  static final int MAX_RANDOM_DEPTH = 7;
+
+  // chance that a child is mutated at all, and then that it's mutated again, and again...
+  private static final double MUTATION_CHANCE = 0.8;
+  private static final double ANOTHER_MUTATION_CHANCE = 0.3;
+
+  private final Executor executor;
+
+  private Breeder(Executor executor) {
+    this.executor = executor;
+  }
+
+  /**
+   * A breeder that makes genomes on the given executor.
+   */
+  public static Breeder make(Executor executor) {
+    return new Breeder(executor);
+  }
+
+  /**
+   * A generation of count random genomes. Each genome goes to onEach as soon as it's made.
+   */
+  public IList<argFuncs> random(int count, Consumer<argFuncs> onEach) {
+    return generation(count, () -> {
+      Random rng = ThreadLocalRandom.current();
+      return Genomes.random(rng, MIN_RANDOM_DEPTH + rng.nextInt(MAX_RANDOM_DEPTH - MIN_RANDOM_DEPTH + 1));
+    }, onEach);
+  }
+
+  /**
+   * A generation of count genomes bred from the given parents. The parents themselves come first, so the
+   * user doesn't lose what they liked, and the rest are their children. Each genome goes to onEach as
+   * soon as it's made.
+   */
+  public IList<argFuncs> breed(IList<argFuncs> parents, int count, Consumer<argFuncs> onEach) {
+    if (parents.empty()) {
+      throw new IllegalArgumentException("can't breed without parents");
+    }
+
+    IList<argFuncs> kept = parents.limit(count);
+    IList<argFuncs> children = generation(count - kept.length(),
+        () -> child(ThreadLocalRandom.current(), parents), onEach);
+    kept.foreach(onEach);
+    return kept.concat(children);
+  }
+
+  private IList<argFuncs> generation(int count, Supplier<argFuncs> maker, Consumer<argFuncs> onEach) {
+    ArrayList<CompletableFuture<argFuncs>> futures = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      futures.add(CompletableFuture.supplyAsync(maker, executor).thenApply(genome -> {
+        onEach.accept(genome);
+        return genome;
+      }));
+    }
+
+    // built back to front, so the list comes out in order without recursing
+    IList<argFuncs> result = List.makeEmpty();
+    for (int i = count - 1; i >= 0; i--) {
+      result = result.add(futures.get(i).join());
+    }
+    return result;
+  }
+
+  /**
+   * One child of the given parents: a crossover of two of them (or a copy of the only one), usually
+   * with a mutation or two. Never deeper than {@link #MAX_DEPTH}.
+   */
+  public static argFuncs child(Random rng, IList<argFuncs> parents) {
+    int count = parents.length();
+    argFuncs mother = parents.nth(rng.nextInt(count)).get();
+    argFuncs father = parents.nth(rng.nextInt(count)).get();
+
+    argFuncs child = crossover(rng, mother, father);
+    if (rng.nextDouble() < MUTATION_CHANCE) {
+      do {
+        child = mutate(rng, child);
+      } while (rng.nextDouble() < ANOTHER_MUTATION_CHANCE);
+    }
+    return child;
+  }
+
+  /**
+   * A random subtree of the donor, grafted into the recipient in place of one of its random subtrees. If
+   * that would be too deep, the graft goes somewhere shallower.
+   */
+  public static argFuncs crossover(Random rng, argFuncs recipient, argFuncs donor) {
+    argFuncs graft = nthNode(donor, rng.nextInt(Genomes.size(donor)));
+    return replaceRandomNode(rng, recipient, graft);
+  }
+
+  /**
+   * The tree with one random node changed: replaced by a small random tree, swapped for a different
+   * node with the same children, wrapped in a new node, or if it's a constant, nudged to a nearby color.
+   */
+  public static argFuncs mutate(Random rng, argFuncs tree) {
+    int index = rng.nextInt(Genomes.size(tree));
+    argFuncs node = nthNode(tree, index);
+
+    argFuncs mutated;
+    switch (rng.nextInt(4)) {
+      case 0:
+        mutated = Genomes.random(rng, 1 + rng.nextInt(3));
+        break;
+      case 1:
+        mutated = node.opcode() == Opcode.CONSTANT ? nudge(rng, (argFuncs.Constant) node) : swap(rng, node);
+        break;
+      case 2:
+        mutated = swap(rng, node);
+        break;
+      default:
+        mutated = wrap(rng, node);
+        break;
+    }
+
+    return depthOf(tree, index) + Genomes.depth(mutated) > MAX_DEPTH
+        ? tree
+        : replaceNode(tree, index, mutated);
+  }
+
+  private static argFuncs nudge(Random rng, argFuncs.Constant constant) {
+    Coord value = constant.getValue();
+    return argFuncs.Constant.make(
+        Program.clip(value.getRed() + rng.nextGaussian() * 0.2),
+        Program.clip(value.getGreen() + rng.nextGaussian() * 0.2),
+        Program.clip(value.getBlue() + rng.nextGaussian() * 0.2));
+  }
+
+  // a different opcode with the same children; leaves become other leaves
+  private static argFuncs swap(Random rng, argFuncs node) {
+    if (node.opcode().getArity() == 0) {
+      return Genomes.random(rng, 1);
+    }
+
+    ArrayList<Opcode> sameArity = new ArrayList<>();
+    for (Opcode op : Opcode.values()) {
+      if (op.getArity() == node.opcode().getArity() && op != node.opcode()) {
+        sameArity.add(op);
+      }
+    }
+    // some opcodes are the only ones with their arity
+    return sameArity.isEmpty()
+        ? wrap(rng, node)
+        : Genomes.make(rng, sameArity.get(rng.nextInt(sameArity.size())), node.children());
+  }
+
+  // a new node on top of this one, with random trees for any other children it needs
+  private static argFuncs wrap(Random rng, argFuncs node) {
+    Opcode op;
+    do {
+      op = Opcode.values()[rng.nextInt(Opcode.values().length)];
+    } while (op.getArity() == 0);
+
+    IList<argFuncs> children = List.makeEmpty();
+    int position = rng.nextInt(op.getArity());
+    for (int i = op.getArity() - 1; i >= 0; i--) {
+      children = children.add(i == position ? node : Genomes.random(rng, 1 + rng.nextInt(2)));
+    }
+    return Genomes.make(rng, op, children);
+  }
+
+  private static argFuncs replaceRandomNode(Random rng, argFuncs tree, argFuncs replacement) {
+    int graftDepth = Genomes.depth(replacement);
+    int size = Genomes.size(tree);
+
+    // try a few random places, then settle for the root, which always fits if the graft does
+    for (int tries = 0; tries < 10; tries++) {
+      int index = rng.nextInt(size);
+      if (depthOf(tree, index) + graftDepth <= MAX_DEPTH) {
+        return replaceNode(tree, index, replacement);
+      }
+    }
+    return graftDepth <= MAX_DEPTH ? replacement : tree;
+  }
+
+  /*
+      nodes are numbered in preorder, counting a shared
+      subtree again every place it appears, as Genomes.size
+      does. depthOf is the number of nodes on the path from
+      the root down to the nth node, so the root's is 0.
+  */
+  static argFuncs nthNode(argFuncs tree, int n) {
+    if (n == 0) {
+      return tree;
+    }
+
+    int skipped = 1;
+    for (IList<argFuncs> rest = tree.children(); !rest.empty(); rest = rest.tail()) {
+      int size = Genomes.size(rest.head());
+      if (n < skipped + size) {
+        return nthNode(rest.head(), n - skipped);
+      }
+      skipped += size;
+    }
+    throw new IndexOutOfBoundsException("no node " + n);
+  }
+
+  static int depthOf(argFuncs tree, int n) {
+    if (n == 0) {
+      return 0;
+    }
+
+    int skipped = 1;
+    for (IList<argFuncs> rest = tree.children(); !rest.empty(); rest = rest.tail()) {
+      int size = Genomes.size(rest.head());
+      if (n < skipped + size) {
+        return 1 + depthOf(rest.head(), n - skipped);
+      }
+      skipped += size;
+    }
+    throw new IndexOutOfBoundsException("no node " + n);
+  }
+
+  static argFuncs replaceNode(argFuncs tree, int n, argFuncs replacement) {
+    if (n == 0) {
+      return replacement;
+    }
+
+    int skipped = 1;
+    IList<argFuncs> before = List.makeEmpty();
+    for (IList<argFuncs> rest = tree.children(); !rest.empty(); rest = rest.tail()) {
+      int size = Genomes.size(rest.head());
+      if (n < skipped + size) {
+        IList<argFuncs> children = before.reverse()
+            .concat(rest.tail().add(replaceNode(rest.head(), n - skipped, replacement)));
+        return Genomes.withChildren(tree, children);
+      }
+      before = before.add(rest.head());
+      skipped += size;
+    }
+    throw new IndexOutOfBoundsException("no node " + n);
+  }
+}
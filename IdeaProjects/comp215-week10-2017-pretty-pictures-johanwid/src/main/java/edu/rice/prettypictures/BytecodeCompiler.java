@@ -0,0 +1,785 @@
+package edu.rice.prettypictures;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns a tree into a class of its own, whose methods are the whole tree written out as straight-line
+ * arithmetic on doubles: every channel of every node is a local variable, constants are literals, and
+ * there are no registers, no arrays, and no switch. HotSpot then compiles each picture as one method body,
+ * with all of its usual optimizations, and the result is exactly what the tree computes, bit for bit.
+ *
+ * <p>Generating and loading a class takes a while, and so does getting HotSpot to compile it, so this only
+ * pays off for a tree that's going to be evaluated a lot, like a genome rendered at several sizes. Even
+ * then, it's a win for trees that are mostly arithmetic (two to four times faster than a Program's block
+ * evaluator, once warmed up), but not for trees that spend their time in Perlin noise, which the block
+ * evaluator does a whole block at a time, or in the trig functions, which cost the same either way; see
+ * {@link PrettyPicturesBenchmarking}. The tree is lowered to a {@link Program} first, so shared subtrees are
+ * still only computed once.
+ *
+ * <p>HotSpot won't compile methods bigger than 8000 bytes of bytecode, and would leave them running in
+ * the interpreter, which is much slower than a Program. So for trees too big to fit, {@link
+ * #compile(FunctionTree)} just gives back the Program. The same goes for trees that call into FunctionTrees
+ * other than argFuncs, which have nothing to inline, for animated trees (with a {@link argFuncs.VarT}),
+ * which are drawn through a Program's time cache instead (see {@link Animation}), and for trees that look
+ * things up in a picture (with an {@link argFuncs.ImageSample}), which the Program does a block at a time.
+ *
+ * <p>Each generated class has its own class loader, so it can be unloaded once nothing refers to it.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public final class BytecodeCompiler {
+  // HotSpot's HugeMethodLimit; bigger methods are never compiled
+  static final int MAX_METHOD_BYTES = 8000;
+
+  private static final String KERNEL = "edu/rice/prettypictures/BytecodeCompiler$Kernel";
+  private static final String SELF = "edu/rice/prettypictures/BytecodeCompiler";
+  private static final String NOISE = "edu/rice/prettypictures/ImprovedNoise";
+  private static final String MATH = "java/lang/Math";
+  private static final AtomicInteger classCount = new AtomicInteger();
+
+  // don't instantiate this class
+  private BytecodeCompiler() { }
+
+  /**
+   * What every generated class implements. It's only public because the generated classes live in class
+   * loaders of their own, and so in a different package as far as the JVM is concerned.
+   */
+  public interface Kernel {
+    /**
+     * Evaluates the tree at (x, y), and writes the red, green, and blue results to rgb[offset],
+     * rgb[offset + 1], and rgb[offset + 2].
+     */
+    void evaluate(double x, double y, double[] rgb, int offset);
+
+    /**
+     * Evaluates every stride-th pixel of a tile, just like {@link Program#evaluateRect(double, double, double,
+     * double, int, int, int, int, int, double[][], double[][], double[][], Program.Workspace)} does for its
+     * first output.
+     */
+    void evaluateRect(double x0, double y0, double dx, double dy, int left, int top, int stride,
+                      int width, int height, double[] red, double[] green, double[] blue);
+  }
+
+  /**
+   * A tree that's been turned into a class, along with the Program it was generated from.
+   */
+  static final class Compiled implements FunctionTree {
+    private final Program program;
+    private final Kernel kernel;
+
+    private Compiled(Program program, Kernel kernel) {
+      this.program = program;
+      this.kernel = kernel;
+    }
+
+    Program getProgram() {
+      return program;
+    }
+
+    Kernel getKernel() {
+      return kernel;
+    }
+
+    @Override
+    public Coord evaluate(double x, double y) {
+      double[] rgb = new double[3];
+      kernel.evaluate(x, y, rgb, 0);
+      return new Coord(rgb[0], rgb[1], rgb[2]);
+    }
+
+    @Override
+    public void evaluateRect(double x0, double y0, double dx, double dy, int width, int height,
+                             double[] red, double[] green, double[] blue) {
+      kernel.evaluateRect(x0, y0, dx, dy, 0, 0, 1, width, height, red, green, blue);
+    }
+  }
+
+  /**
+   * The tree as a generated class, or, if it's too big for that or isn't all argFuncs, as a {@link Program}.
+   * Either way, it evaluates to exactly what the tree does.
+   */
+  public static FunctionTree compile(FunctionTree tree) {
+    if (tree instanceof Compiled) {
+      return tree;
+    }
+
+    Program program = Program.compile(tree);
+    byte[] bytes;
+    String name = SELF + "$Generated" + classCount.incrementAndGet();
+    try {
+      bytes = generate(program, name);
+    } catch (TooBigException e) {
+      return program;
+    }
+
+    Class<?> generated = new Loader(BytecodeCompiler.class.getClassLoader()).define(name.replace('/', '.'), bytes);
+    try {
+      return new Compiled(program, (Kernel) generated.getConstructor().newInstance());
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("can't instantiate a generated class", e);
+    }
+  }
+
+  // Per-channel helpers for the generated code, which can only call public methods. HotSpot inlines them.
+
+  public static double clip(double n) {
+    return Program.clip(n);
+  }
+
+  public static double abs(double c) {
+    return Program.abs(c);
+  }
+
+  public static double wrap(double n) {
+    return Program.wrap(n);
+  }
+
+  public static double divide(double n, double d) {
+    return Program.divide(n, d);
+  }
+
+  public static double noiseToUnit(double n) {
+    return Program.noiseToUnit(n);
+  }
+
+  public static double dissolve(double a, double b, double c) {
+    return Program.dissolve(a, b, c);
+  }
+
+  /*
+      one class loader per generated class, so the class
+      goes away with the last tree that uses it.
+  */
+  private static final class Loader extends ClassLoader {
+    Loader(ClassLoader parent) {
+      super(parent);
+    }
+
+    Class<?> define(String name, byte[] bytes) {
+      return defineClass(name, bytes, 0, bytes.length);
+    }
+  }
+
+  private static final class TooBigException extends Exception {
+    TooBigException(String message) {
+      super(message);
+    }
+  }
+
+  /*
+      the class file: a public final class with a no-arg
+      constructor and the two Kernel methods. it's version
+      49 (Java 5), the last that doesn't need stack map
+      frames, since the rect loop branches and we'd rather
+      not compute frames by hand; the verifier works them
+      out for itself.
+  */
+  static byte[] generate(Program program, String name) throws TooBigException {
+    for (int pc = 0; pc < program.instructions().length; pc += Program.INSN_WIDTH) {
+      if (program.instructions()[pc] == Program.OP_CALL) {
+        throw new TooBigException("calls a FunctionTree that isn't an argFuncs");
+      }
+      if (program.instructions()[pc] == Program.OP_T) {
+        throw new TooBigException("depends on time, which a Kernel can't see");
+      }
+      if (program.instructions()[pc] == Program.OP_IMAGE_SAMPLE) {
+        throw new TooBigException("samples a picture, which lives outside the generated class");
+      }
+    }
+
+    ConstantPool pool = new ConstantPool();
+    int thisClass = pool.classRef(name);
+    int superClass = pool.classRef("java/lang/Object");
+    int kernel = pool.classRef(KERNEL);
+
+    Code init = new Code(pool);
+    init.op(0x2a); // aload_0
+    init.op(0xb7).u2(pool.methodRef("java/lang/Object", "<init>", "()V")); // invokespecial
+    init.op(0xb1); // return
+    init.maxLocals = 1;
+
+    Code evaluate = evaluateMethod(program, pool);
+    Code evaluateRect = evaluateRectMethod(program, pool);
+
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(0xcafebabe);
+      out.writeShort(0);
+      out.writeShort(49);
+
+      // the pool has to come first, but writing the methods adds their names to it
+      int initName = pool.utf8("<init>");
+      int initType = pool.utf8("()V");
+      int evaluateName = pool.utf8("evaluate");
+      int evaluateType = pool.utf8("(DD[DI)V");
+      int rectName = pool.utf8("evaluateRect");
+      int rectType = pool.utf8("(DDDDIIIII[D[D[D)V");
+      int codeName = pool.utf8("Code");
+      if (pool.size() > 0xffff) {
+        throw new TooBigException("too many constants");
+      }
+      pool.write(out);
+
+      out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(kernel);
+      out.writeShort(0); // fields
+
+      out.writeShort(3);
+      writeMethod(out, initName, initType, codeName, init);
+      writeMethod(out, evaluateName, evaluateType, codeName, evaluate);
+      writeMethod(out, rectName, rectType, codeName, evaluateRect);
+      out.writeShort(0); // class attributes
+      return bytes.toByteArray();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void writeMethod(DataOutputStream out, int name, int type, int codeName, Code code)
+      throws IOException {
+    out.writeShort(0x0001); // public
+    out.writeShort(name);
+    out.writeShort(type);
+    out.writeShort(1);
+    out.writeShort(codeName);
+    out.writeInt(12 + code.length);
+    out.writeShort(code.maxStack);
+    out.writeShort(code.maxLocals);
+    out.writeInt(code.length);
+    out.write(code.bytes, 0, code.length);
+    out.writeShort(0); // exception table
+    out.writeShort(0); // code attributes
+  }
+
+  // evaluate(double x, double y, double[] rgb, int offset): this is 0, x is 1, y is 3, rgb is 5, offset is 6
+  private static Code evaluateMethod(Program program, ConstantPool pool) throws TooBigException {
+    Code code = new Code(pool);
+    Body body = new Body(program, code, 1, 3, 7);
+    body.emit();
+
+    for (int ch = 0; ch < 3; ch++) {
+      code.op(0x19).u1(5); // aload rgb
+      code.op(0x15).u1(6); // iload offset
+      if (ch > 0) {
+        code.op(0x03 + ch); // iconst_ch
+        code.op(0x60); // iadd
+      }
+      body.loadResult(ch);
+      code.op(0x52); // dastore
+    }
+    code.op(0xb1); // return
+
+    code.maxLocals = body.nextSlot;
+    code.checkSize();
+    return code;
+  }
+
+  /*
+      evaluateRect(double x0, double y0, double dx, double dy,
+                   int left, int top, int stride, int width,
+                   int height, double[] red, double[] green,
+                   double[] blue)
+
+      x0 is slot 1, y0 3, dx 5, dy 7, left 9, top 10, stride
+      11, width 12, height 13, red 14, green 15, blue 16;
+      then our own i 17, j 18, k 19, x 20, y 22.
+
+          for (j = 0, k = 0; j < height; j++)
+            y = y0 + (top + j * stride) * dy
+            for (i = 0; i < width; i++, k++)
+              x = x0 + (left + i * stride) * dx
+              ...the body...
+              red[k] = ...; green[k] = ...; blue[k] = ...
+  */
+  private static Code evaluateRectMethod(Program program, ConstantPool pool) throws TooBigException {
+    Code code = new Code(pool);
+
+    code.op(0x03).op(0x36).u1(18); // j = 0
+    code.op(0x03).op(0x36).u1(19); // k = 0
+
+    int rowTest = code.length;
+    code.op(0x15).u1(18).op(0x15).u1(13); // iload j, iload height
+    int rowExit = code.branch(0xa2); // if_icmpge
+
+    code.op(0x18).u1(3); // dload y0
+    code.op(0x15).u1(10).op(0x15).u1(18).op(0x15).u1(11).op(0x68).op(0x60); // top + j * stride
+    code.op(0x87); // i2d
+    code.op(0x18).u1(7).op(0x6b).op(0x63); // * dy, +
+    code.op(0x39).u1(22); // dstore y
+
+    code.op(0x03).op(0x36).u1(17); // i = 0
+    int columnTest = code.length;
+    code.op(0x15).u1(17).op(0x15).u1(12); // iload i, iload width
+    int columnExit = code.branch(0xa2); // if_icmpge
+
+    code.op(0x18).u1(1); // dload x0
+    code.op(0x15).u1(9).op(0x15).u1(17).op(0x15).u1(11).op(0x68).op(0x60); // left + i * stride
+    code.op(0x87); // i2d
+    code.op(0x18).u1(5).op(0x6b).op(0x63); // * dx, +
+    code.op(0x39).u1(20); // dstore x
+
+    Body body = new Body(program, code, 20, 22, 24);
+    body.emit();
+
+    for (int ch = 0; ch < 3; ch++) {
+      code.op(0x19).u1(14 + ch); // aload red, green or blue
+      code.op(0x15).u1(19); // iload k
+      body.loadResult(ch);
+      code.op(0x52); // dastore
+    }
+
+    code.op(0x84).u1(19).u1(1); // k++
+    code.op(0x84).u1(17).u1(1); // i++
+    code.jump(0xa7, columnTest); // goto
+    code.land(columnExit);
+    code.op(0x84).u1(18).u1(1); // j++
+    code.jump(0xa7, rowTest); // goto
+    code.land(rowExit);
+    code.op(0xb1); // return
+
+    code.maxLocals = body.nextSlot;
+    code.checkSize();
+    return code;
+  }
+
+  /*
+      the program's instructions as straight-line code. each
+      channel of each register is either a double local or a
+      literal (for the constant registers). instructions
+      whose channels are all the same value (x, y, dot
+      product, grayscale perlin, external) store it once and
+      point all three channels at the one local.
+  */
+  private static final class Body {
+    private final Program program;
+    private final Code code;
+    private final int[] slots; // register * 3 + channel -> local, or -1 for a constant
+    int nextSlot;
+
+    Body(Program program, Code code, int xSlot, int ySlot, int firstFree) {
+      this.program = program;
+      this.code = code;
+      this.slots = new int[program.registerCount() * 3];
+      this.nextSlot = firstFree;
+      Arrays.fill(slots, -1);
+
+      // the x and y instructions just point at the method's own x and y
+      int[] insns = program.instructions();
+      for (int pc = 0; pc < insns.length; pc += Program.INSN_WIDTH) {
+        if (insns[pc] == Program.OP_X || insns[pc] == Program.OP_Y) {
+          int reg = insns[pc + 1] * 3;
+          Arrays.fill(slots, reg, reg + 3, insns[pc] == Program.OP_X ? xSlot : ySlot);
+        }
+      }
+    }
+
+    void loadResult(int ch) throws TooBigException {
+      load(program.result(), ch);
+    }
+
+    void emit() throws TooBigException {
+      int[] insns = program.instructions();
+      for (int pc = 0; pc < insns.length; pc += Program.INSN_WIDTH) {
+        int d = insns[pc + 1];
+        int a = insns[pc + 2];
+        int b = insns[pc + 3];
+        int c = insns[pc + 4];
+
+        switch (insns[pc]) {
+          case Program.OP_X:
+          case Program.OP_Y:
+            break;
+
+          case Program.OP_NEGATE:
+            for (int ch = 0; ch < 3; ch++) {
+              load(a, ch);
+              code.ldc(-1.0);
+              code.op(0x6b); // dmul
+              store(d, ch);
+            }
+            break;
+
+          case Program.OP_SINE:
+            unary(d, a, MATH, "sin", null);
+            break;
+
+          case Program.OP_ROUND_DOWN:
+            unary(d, a, MATH, "floor", null);
+            break;
+
+          case Program.OP_ROUND_UP:
+            unary(d, a, MATH, "ceil", null);
+            break;
+
+          case Program.OP_COSINE:
+            unary(d, a, MATH, "cos", null);
+            break;
+
+          case Program.OP_ARCTAN:
+            unary(d, a, MATH, "atan", null);
+            break;
+
+          case Program.OP_EXPON:
+            unary(d, a, MATH, "exp", "clip");
+            break;
+
+          case Program.OP_LOGRM:
+            unary(d, a, MATH, "log", null);
+            break;
+
+          case Program.OP_ABS_VAL:
+            for (int ch = 0; ch < 3; ch++) {
+              load(a, ch);
+              call(SELF, "abs", 1);
+              call(MATH, "log", 1);
+              store(d, ch);
+            }
+            break;
+
+          case Program.OP_CLIP:
+            unary(d, a, SELF, "clip", null);
+            break;
+
+          case Program.OP_WRAP:
+            unary(d, a, SELF, "wrap", null);
+            break;
+
+          case Program.OP_RGB_TO_YCRCB:
+            linear(d, a, new double[] {0.299, 0.587, 0.114, 0.500, -0.419, -0.081, -0.619, -0.331, 0.500}, false);
+            break;
+
+          case Program.OP_YCRCB_TO_RGB:
+            linear(d, a, new double[] {1.000, 1.400, 0.000, 1.000, -0.711, -0.343, 1.000, 0.000, 1.765}, true);
+            break;
+
+          case Program.OP_ADD:
+            binary(d, a, b, 0x63, null); // dadd
+            break;
+
+          case Program.OP_SUBTRACT:
+            binary(d, a, b, 0x67, null); // dsub
+            break;
+
+          case Program.OP_MULTIPLY:
+            binary(d, a, b, 0x6b, null); // dmul
+            break;
+
+          case Program.OP_DIVIDE:
+            binary(d, a, b, -1, "divide");
+            break;
+
+          case Program.OP_DOT_PRODUCT:
+            for (int ch = 0; ch < 3; ch++) {
+              load(a, ch);
+              load(b, ch);
+              code.op(0x6b); // dmul
+              if (ch > 0) {
+                code.op(0x63); // dadd
+              }
+            }
+            call(SELF, "clip", 1);
+            storeAll(d);
+            break;
+
+          case Program.OP_EXTERNAL:
+            Arrays.fill(slots, d * 3, d * 3 + 3, slots[a * 3 + 1]);
+            if (slots[a * 3 + 1] < 0) {
+              // the green channel of a constant; make it a local so the aliasing works
+              load(a, 1);
+              storeAll(d);
+            }
+            break;
+
+          case Program.OP_GS_PERLIN:
+            load(a, 0);
+            load(a, 1);
+            load(a, 2);
+            call(NOISE, "noise", 3);
+            call(SELF, "noiseToUnit", 1);
+            storeAll(d);
+            break;
+
+          case Program.OP_PERLIN: {
+            // noise(g1, b2, r2), noise(b1, r2, b2), noise(g1, r1, r1)
+            int[][] args = {{a, 1, b, 2, b, 0}, {a, 2, b, 0, b, 2}, {a, 1, a, 0, a, 0}};
+            for (int ch = 0; ch < 3; ch++) {
+              for (int arg = 0; arg < 6; arg += 2) {
+                load(args[ch][arg], args[ch][arg + 1]);
+              }
+              call(NOISE, "noise", 3);
+              call(SELF, "noiseToUnit", 1);
+              store(d, ch);
+            }
+            break;
+          }
+
+          case Program.OP_DISSOLVE:
+            for (int ch = 0; ch < 3; ch++) {
+              load(a, ch);
+              load(b, ch);
+              load(c, ch);
+              call(SELF, "clip", 1);
+              call(SELF, "dissolve", 3);
+              store(d, ch);
+            }
+            break;
+
+          default:
+            throw new TooBigException("can't generate code for opcode " + insns[pc]);
+        }
+      }
+    }
+
+    private void unary(int d, int a, String owner, String name, String then) throws TooBigException {
+      for (int ch = 0; ch < 3; ch++) {
+        load(a, ch);
+        call(owner, name, 1);
+        if (then != null) {
+          call(SELF, then, 1);
+        }
+        store(d, ch);
+      }
+    }
+
+    // clip(a op b), where op is a bytecode, or a helper if op is -1
+    private void binary(int d, int a, int b, int op, String helper) throws TooBigException {
+      for (int ch = 0; ch < 3; ch++) {
+        load(a, ch);
+        load(b, ch);
+        if (op >= 0) {
+          code.op(op);
+        } else {
+          call(SELF, helper, 2);
+        }
+        call(SELF, "clip", 1);
+        store(d, ch);
+      }
+    }
+
+    /*
+        the color space conversions, with the same products
+        in the same order as argFuncs, so the rounding comes
+        out the same. RGB to YCrCb mixes all three inputs
+        into each output; YCrCb to RGB (as argFuncs has it)
+        scales each input by three weights of its own.
+    */
+    private void linear(int d, int a, double[] weights, boolean ownChannel) throws TooBigException {
+      for (int ch = 0; ch < 3; ch++) {
+        for (int term = 0; term < 3; term++) {
+          load(a, ownChannel ? ch : term);
+          code.ldc(weights[ch * 3 + term]);
+          code.op(0x6b); // dmul
+          if (term > 0) {
+            code.op(0x63); // dadd
+          }
+        }
+        store(d, ch);
+      }
+    }
+
+    private void load(int reg, int ch) throws TooBigException {
+      int slot = slots[reg * 3 + ch];
+      if (slot >= 0) {
+        code.local(0x18, slot); // dload
+      } else {
+        code.ldc(program.initialRegisters()[reg * 3 + ch]);
+      }
+    }
+
+    private void store(int reg, int ch) throws TooBigException {
+      int slot = newSlot();
+      code.local(0x39, slot); // dstore
+      slots[reg * 3 + ch] = slot;
+    }
+
+    private void storeAll(int reg) throws TooBigException {
+      int slot = newSlot();
+      code.local(0x39, slot); // dstore
+      Arrays.fill(slots, reg * 3, reg * 3 + 3, slot);
+    }
+
+    private int newSlot() throws TooBigException {
+      int slot = nextSlot;
+      nextSlot += 2;
+      if (nextSlot > 0xffff) {
+        throw new TooBigException("too many locals");
+      }
+      return slot;
+    }
+
+    private void call(String owner, String name, int doubles) {
+      StringBuilder descriptor = new StringBuilder("(");
+      for (int i = 0; i < doubles; i++) {
+        descriptor.append('D');
+      }
+      code.op(0xb8).u2(code.pool.methodRef(owner, name, descriptor.append(")D").toString())); // invokestatic
+    }
+  }
+
+  /*
+      a method body being written. everything we push is a
+      double, an int or an array, and no expression nests
+      deeper than a three-argument call plus an array store,
+      so 16 words of stack is always enough.
+  */
+  private static final class Code {
+    final ConstantPool pool;
+    byte[] bytes = new byte[256];
+    int length = 0;
+    int maxStack = 16;
+    int maxLocals = 0;
+
+    Code(ConstantPool pool) {
+      this.pool = pool;
+    }
+
+    Code op(int op) {
+      return u1(op);
+    }
+
+    Code u1(int value) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[length++] = (byte) value;
+      return this;
+    }
+
+    Code u2(int value) {
+      return u1(value >>> 8).u1(value);
+    }
+
+    // dload or dstore, with the wide prefix if the slot needs it
+    void local(int op, int slot) throws TooBigException {
+      if (slot < 256) {
+        op(op).u1(slot);
+      } else {
+        op(0xc4).op(op).u2(slot);
+      }
+      checkSize();
+    }
+
+    void ldc(double value) {
+      op(0x14).u2(pool.doubleConstant(value)); // ldc2_w
+    }
+
+    // a forward branch, to be pointed somewhere by land()
+    int branch(int op) {
+      int at = length;
+      op(op).u2(0);
+      return at;
+    }
+
+    void land(int branch) {
+      int offset = length - branch;
+      bytes[branch + 1] = (byte) (offset >>> 8);
+      bytes[branch + 2] = (byte) offset;
+    }
+
+    // a backward branch
+    void jump(int op, int target) {
+      int offset = target - length;
+      op(op).u2(offset & 0xffff);
+    }
+
+    void checkSize() throws TooBigException {
+      if (length > MAX_METHOD_BYTES) {
+        throw new TooBigException("too big for HotSpot to compile");
+      }
+    }
+  }
+
+  /*
+      the class file's constant pool, with each entry only
+      written once. doubles take two slots, as the class
+      file format says they must.
+  */
+  private static final class ConstantPool {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+    private final Map<String, Integer> entries = new HashMap<>();
+    private int next = 1;
+
+    int size() {
+      return next;
+    }
+
+    int utf8(String value) {
+      return entry("U" + value, () -> {
+        out.writeByte(1);
+        out.writeUTF(value);
+      }, 1);
+    }
+
+    int classRef(String name) {
+      int nameIndex = utf8(name);
+      return entry("C" + name, () -> {
+        out.writeByte(7);
+        out.writeShort(nameIndex);
+      }, 1);
+    }
+
+    int doubleConstant(double value) {
+      long bits = Double.doubleToRawLongBits(value);
+      return entry("D" + bits, () -> {
+        out.writeByte(6);
+        out.writeLong(bits);
+      }, 2);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+      int ownerIndex = classRef(owner);
+      int nameIndex = utf8(name);
+      int descriptorIndex = utf8(descriptor);
+      int nameAndType = entry("N" + name + ":" + descriptor, () -> {
+        out.writeByte(12);
+        out.writeShort(nameIndex);
+        out.writeShort(descriptorIndex);
+      }, 1);
+      return entry("M" + owner + "." + name + ":" + descriptor, () -> {
+        out.writeByte(10);
+        out.writeShort(ownerIndex);
+        out.writeShort(nameAndType);
+      }, 1);
+    }
+
+    void write(DataOutputStream to) throws IOException {
+      to.writeShort(next);
+      bytes.writeTo(to);
+    }
+
+    private interface Writer {
+      void write() throws IOException;
+    }
+
+    private int entry(String key, Writer writer, int slots) {
+      Integer existing = entries.get(key);
+      if (existing != null) {
+        return existing;
+      }
+
+      try {
+        writer.write();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      int index = next;
+      next += slots;
+      entries.put(key, index);
+      return index;
+    }
+  }
+}
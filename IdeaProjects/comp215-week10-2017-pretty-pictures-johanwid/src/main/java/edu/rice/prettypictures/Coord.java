@@ -1,5 +1,4 @@
 package edu.rice.prettypictures;
-import java.awt.Color;
 
 /*
 	* foreach coordinate (x, y), this creates
@@ -29,10 +28,30 @@ class Coord {
   }
 
   public int getRGB() {
-    int hr = (int) Math.ceil(127.5 * (r + 1));
-    int hg = (int) Math.ceil(127.5 * (g + 1));
-    int hb = (int) Math.ceil(127.5 * (b + 1));
-    return new Color(hr, hg, hb).getRGB();
+    return toRGB(r, g, b);
+  }
+
+  /*
+      same as getRGB, for callers that have the three
+      channels in hand but no coord. packs the channels
+      straight into an int, with no Color in between, so
+      the renderer can call it for every pixel without
+      making any garbage.
+  */
+  static int toRGB(double r, double g, double b) {
+    return 0xff000000 | (toChannel(r) << 16) | (toChannel(g) << 8) | toChannel(b);
+  }
+
+  /*
+      ceil(127.5 * (c + 1)), as the Color constructor used
+      to get it, for any c in [-1, 1]. where Color would
+      have thrown, we clamp instead: anything brighter than
+      1 is 255, and anything darker than -1 is 0. NaN casts
+      to 0, as it always has.
+  */
+  static int toChannel(double c) {
+    int channel = (int) Math.ceil(127.5 * (c + 1));
+    return Math.min(Math.max(channel, 0), 255);
   }
 
   // public Coord do(Function<Double, Double> holdF) {
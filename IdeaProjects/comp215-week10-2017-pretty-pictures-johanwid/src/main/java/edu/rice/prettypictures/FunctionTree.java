@@ -2,5 +2,28 @@ package edu.rice.prettypictures;
 
 public interface FunctionTree {
   Coord evaluate(double x, double y);
-}
 
+  /*
+      evaluates the frame of an animation at time t, which
+      runs from -1 to 1 over one loop, like x and y across
+      the image. only VarT nodes see t; evaluate(x, y) is
+      the same as evaluating at t = 0. argFuncs and Program
+      both override this; anything else doesn't depend on
+      time, so every frame is the same.
+  */
+  default Coord evaluate(double x, double y, double t) {
+    return evaluate(x, y);
+  }
+
+  /*
+      evaluates a whole width x height rectangle at once.
+      pixel (i, j) is at x = x0 + i * dx, y = y0 + j * dy,
+      and its channels go in red, green and blue at index
+      j * width + i. gives exactly the same numbers as
+      calling evaluate on every pixel, just faster.
+  */
+  default void evaluateRect(double x0, double y0, double dx, double dy, int width, int height,
+                            double[] red, double[] green, double[] blue) {
+    Program.compile(this).evaluateRect(x0, y0, dx, dy, width, height, red, green, blue);
+  }
+}
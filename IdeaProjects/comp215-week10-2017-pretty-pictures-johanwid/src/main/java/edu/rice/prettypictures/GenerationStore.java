@@ -0,0 +1,336 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import edu.rice.util.Option;
+import edu.rice.util.Try;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static edu.rice.util.Option.none;
+import static edu.rice.util.Option.some;
+
+/**
+ * Every generation the breeder has made, on disk, so they survive a restart. The store is a directory
+ * with two append-only files:
+ *
+ * <ul>
+ * <li>genomes.dat has one record per generation: a table of (images + 1) int offsets, relative to the
+ * start of the record, followed by each image's genome in the binary form of {@link GenomeSerializer}.
+ * <li>generations.idx has one fixed-size entry per generation: where its record starts, how long it is,
+ * how many images it has, and which entry is generation 0 of the run it belongs to.
+ * </ul>
+ *
+ * <p>Nothing is ever overwritten. Starting a new run ({@link #reset(IList)}) just appends a generation
+ * that's the start of its own run, so opening a store only has to look at the last index entry, no
+ * matter how long the history is. Looking up one image of one generation reads its 20-byte index entry,
+ * and memory-maps just that generation's record, so it touches only that image's bytes, however big the
+ * files get. The last few records mapped are kept around, since the images of a generation tend to be
+ * asked for together.
+ *
+ * <p>A genome's record is written and forced to disk before its index entry, so if the server dies
+ * halfway through an append, the store comes back up without the generation it was writing, and the
+ * next append writes over the leftovers.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class GenerationStore implements Closeable {
+  static final String DATA_FILE = "genomes.dat";
+  static final String INDEX_FILE = "generations.idx";
+
+  // offset (long), length (int), images (int), first entry of this run (int)
+  private static final int ENTRY_SIZE = 20;
+
+  // how many generations' records stay mapped
+  static final int MAPPED_RECORDS = 8;
+
+  private final FileChannel data;
+  private final FileChannel index;
+
+  // everything below is only changed while holding the lock, and read without it. the number of index
+  // entries and the entry where the current run starts share one long, so readers always see a matching pair
+  private volatile long entriesAndRunStart;
+  private long dataEnd;
+
+  // records are never changed once they're written, so a mapping of one is good forever; keyed by where the
+  // record starts, since a run made by addAfter shares its records with the run it came from
+  private final Map<Long, MappedByteBuffer> records = new LinkedHashMap<Long, MappedByteBuffer>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+      return size() > MAPPED_RECORDS;
+    }
+  };
+
+  private GenerationStore(FileChannel data, FileChannel index) throws IOException {
+    this.data = data;
+    this.index = index;
+
+    // a partly written entry at the end doesn't count
+    int entries = (int) (index.size() / ENTRY_SIZE);
+    if (entries > 0) {
+      ByteBuffer last = ByteBuffer.allocate(ENTRY_SIZE);
+      index.read(last, (long) (entries - 1) * ENTRY_SIZE);
+      this.dataEnd = last.getLong(0) + last.getInt(8);
+      this.entriesAndRunStart = pack(entries, last.getInt(16));
+    } else {
+      this.dataEnd = 0;
+      this.entriesAndRunStart = pack(0, 0);
+    }
+  }
+
+  private static long pack(int entries, int runStart) {
+    return ((long) entries << 32) | (runStart & 0xffffffffL);
+  }
+
+  private static int entries(long packed) {
+    return (int) (packed >>> 32);
+  }
+
+  private static int runStart(long packed) {
+    return (int) packed;
+  }
+
+  /**
+   * Opens the store in the given directory, creating the directory and its files if they aren't there.
+   */
+  public static Try<GenerationStore> open(Path directory) {
+    return Try.of(() -> {
+      Files.createDirectories(directory);
+      FileChannel data = FileChannel.open(directory.resolve(DATA_FILE),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      FileChannel index = FileChannel.open(directory.resolve(INDEX_FILE),
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      return new GenerationStore(data, index);
+    });
+  }
+
+  /**
+   * Number of generations in the current run.
+   */
+  public int numGenerations() {
+    long packed = entriesAndRunStart;
+    return entries(packed) - runStart(packed);
+  }
+
+  /**
+   * Number of images in the given generation of the current run, or zero if there's no such generation.
+   */
+  public int numImages(int gen) {
+    return entry(gen).match(() -> 0, entry -> readEntry(entry).getInt(12));
+  }
+
+  /**
+   * Starts a new run, with the given generation as its generation 0. Earlier runs stay in the files, but
+   * can't be read any more.
+   */
+  public synchronized void reset(IList<argFuncs> firstGeneration) throws IOException {
+    int entries = entries(entriesAndRunStart);
+    write(firstGeneration, entries, entries);
+  }
+
+  /**
+   * Adds a generation to the end of the current run, and returns its number.
+   */
+  public synchronized int add(IList<argFuncs> generation) throws IOException {
+    long packed = entriesAndRunStart;
+    write(generation, entries(packed), runStart(packed));
+    return numGenerations() - 1;
+  }
+
+  /**
+   * Adds a generation right after the given one, and returns its number. Any generations that came after
+   * the given one are dropped: if there are some, this starts a new run whose index entries point at the
+   * same records as the old run's, up to and including the given generation, so no genomes are copied.
+   */
+  public synchronized int addAfter(int gen, IList<argFuncs> generation) throws IOException {
+    long packed = entriesAndRunStart;
+    int oldStart = runStart(packed);
+    int entries = entries(packed);
+    if (gen < 0 || gen >= entries - oldStart) {
+      throw new IllegalArgumentException("no generation " + gen);
+    }
+    if (gen == entries - oldStart - 1) {
+      return add(generation);
+    }
+
+    ByteBuffer copied = ByteBuffer.allocate((gen + 1) * ENTRY_SIZE);
+    ByteBuffer oldEntries = readEntries((long) oldStart * ENTRY_SIZE, gen + 1);
+    for (int i = 0; i <= gen; i++) {
+      int entry = i * ENTRY_SIZE;
+      copied.putLong(oldEntries.getLong(entry)).putInt(oldEntries.getInt(entry + 8))
+          .putInt(oldEntries.getInt(entry + 12)).putInt(entries);
+    }
+    copied.flip();
+
+    // readers don't see the copies until the new generation is written after them. if we die in between,
+    // the copies are a complete run of their own, so the store comes back as if breeding had never happened
+    // but the later generations were already dropped
+    writeFully(index, copied, (long) entries * ENTRY_SIZE);
+    write(generation, entries + gen + 1, entries);
+    return gen + 1;
+  }
+
+  /**
+   * All the images of the given generation of the current run.
+   */
+  public Option<IList<argFuncs>> generation(int gen) {
+    int count = numImages(gen);
+    if (count == 0) {
+      return entry(gen).match(Option::none, entry -> some(List.makeEmpty()));
+    }
+
+    // built back to front, so the list comes out in order without recursing
+    IList<argFuncs> result = List.makeEmpty();
+    for (int img = count - 1; img >= 0; img--) {
+      Option<argFuncs> genome = image(gen, img);
+      if (genome.isNone()) {
+        return none();
+      }
+      result = result.add(genome.get());
+    }
+    return some(result);
+  }
+
+  /**
+   * One image of one generation of the current run. Only that image's genome is read.
+   */
+  public Option<argFuncs> image(int gen, int img) {
+    Option<Long> oentry = entry(gen);
+    if (oentry.isNone()) {
+      return none();
+    }
+
+    long entry = oentry.get();
+    ByteBuffer indexEntry = readEntry(entry);
+    int count = indexEntry.getInt(12);
+    if (img < 0 || img >= count) {
+      return none();
+    }
+
+    ByteBuffer record = record(indexEntry.getLong(0), indexEntry.getInt(8));
+    int start = record.getInt(4 * img);
+    int end = record.getInt(4 * (img + 1));
+
+    byte[] bytes = new byte[end - start];
+    ByteBuffer slice = record.duplicate();
+    slice.position(start);
+    slice.get(bytes);
+    return GenomeSerializer.fromBytes(bytes).toOption().flatmap(IList::ohead);
+  }
+
+  @Override
+  public void close() throws IOException {
+    data.close();
+    index.close();
+  }
+
+  /*
+      the byte offset of this generation's entry in the
+      index file, if the current run has one.
+  */
+  private Option<Long> entry(int gen) {
+    long packed = entriesAndRunStart;
+    int start = runStart(packed);
+    if (gen < 0 || gen >= entries(packed) - start) {
+      return none();
+    }
+    return some((long) (start + gen) * ENTRY_SIZE);
+  }
+
+  private void write(IList<argFuncs> generation, int entries, int newRunStart) throws IOException {
+    int count = generation.length();
+    byte[][] genomes = new byte[count][];
+    int i = 0;
+    for (IList<argFuncs> rest = generation; !rest.empty(); rest = rest.tail()) {
+      genomes[i++] = GenomeSerializer.toBytes(List.of(rest.head()));
+    }
+
+    int length = 4 * (count + 1);
+    for (byte[] genome : genomes) {
+      length += genome.length;
+    }
+
+    ByteBuffer record = ByteBuffer.allocate(length);
+    int position = 4 * (count + 1);
+    for (i = 0; i < count; i++) {
+      record.putInt(position);
+      position += genomes[i].length;
+    }
+    record.putInt(position);
+    for (byte[] genome : genomes) {
+      record.put(genome);
+    }
+    record.flip();
+
+    long offset = dataEnd;
+    writeFully(data, record, offset);
+    data.force(false);
+
+    ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+    entry.putLong(offset).putInt(length).putInt(count).putInt(newRunStart);
+    entry.flip();
+    writeFully(index, entry, (long) entries * ENTRY_SIZE);
+    index.force(false);
+
+    dataEnd = offset + length;
+    entriesAndRunStart = pack(entries + 1, newRunStart);
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /*
+      the index entry at the given byte offset. entries
+      are never changed once they're written, and we only
+      ask for ones that are.
+  */
+  private ByteBuffer readEntry(long entry) {
+    return readEntries(entry, 1);
+  }
+
+  private ByteBuffer readEntries(long first, int count) {
+    ByteBuffer buffer = ByteBuffer.allocate(count * ENTRY_SIZE);
+    try {
+      while (buffer.hasRemaining()) {
+        if (index.read(buffer, first + buffer.position()) < 0) {
+          throw new IllegalStateException("generation index ends early, at entry offset " + first);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("can't read the generation index", e);
+    }
+    return buffer;
+  }
+
+  /*
+      a generation's record, mapped on its own, so no
+      mapping is ever bigger than one generation, however
+      long the data file gets.
+  */
+  private synchronized ByteBuffer record(long offset, int length) {
+    MappedByteBuffer record = records.get(offset);
+    if (record == null) {
+      try {
+        record = data.map(FileChannel.MapMode.READ_ONLY, offset, length);
+      } catch (IOException e) {
+        throw new IllegalStateException("can't map the generation store", e);
+      }
+      records.put(offset, record);
+    }
+    return record;
+  }
+}
@@ -0,0 +1,373 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import edu.rice.sexpr.Parser;
+import edu.rice.sexpr.Value;
+import edu.rice.util.Option;
+import edu.rice.util.Try;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+import static edu.rice.util.Option.none;
+import static edu.rice.util.Option.some;
+
+/**
+ * Saves argFuncs genomes, and reads them back, in two forms. Both are lossless: every constant comes
+ * back with exactly the same bits it went out with.
+ *
+ * <p>The binary form ({@link #toBytes(IList)}) is for storing or sending whole generations. Each node
+ * starts with a varint tag. For a new node, the tag is its opcode's ordinal shifted left by one, and it's
+ * followed by its children, or for a constant, three big-endian IEEE doubles. An image sample has its picture's
+ * name (a varint length, then ASCII) and its blur (a double) before its children. A node object that has already
+ * been written, in this genome or an earlier one, is written again as a reference back to it instead: a tag with
+ * its low bit set, and how many nodes ago it was in the rest. Reading it back builds that node once, and shares
+ * it, just as it was shared when it was written. Since the low bit alone tells references from opcodes, adding
+ * an opcode doesn't change how anything else is written. Generations in a {@link Population} are already interned, so every
+ * repeated subtree in them is one shared object; run other lists through {@link Interner#internAll(IList)}
+ * first to get the same effect.
+ *
+ * <p>The text form ({@link #toSexpr(argFuncs)}) is an S-expression like "( ADD x ( SINE y ) )", read
+ * back with {@link Parser#parseSexpr(String)}. The S-expression scanner only knows about words made of
+ * letters, digits, and underscores, so constants are written as the hex of their bits:
+ * "( CONSTANT 3fe0000000000000 0 bff0000000000000 )" is (0.5, 0, -1). An image sample's picture and blur come
+ * before its children: "( IMAGE_SAMPLE PIA02879 3fe0000000000000 x y )".
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class GenomeSerializer {
+  private static final Opcode[] OPCODES = Opcode.values();
+
+  // "PPG" and a version number
+  private static final byte[] MAGIC = {'P', 'P', 'G', 4};
+
+  // the low bit of a tag: set for a reference back to an earlier node, clear for a new node's opcode
+  private static final int REFERENCE = 1;
+
+  // don't instantiate this class
+  private GenomeSerializer() { }
+
+  /**
+   * The genomes, in the binary form.
+   */
+  public static byte[] toBytes(IList<argFuncs> genomes) {
+    Writer writer = new Writer();
+    for (byte b : MAGIC) {
+      writer.writeByte(b);
+    }
+    writer.writeVarint(genomes.length());
+    for (IList<argFuncs> rest = genomes; !rest.empty(); rest = rest.tail()) {
+      writer.write(rest.head());
+    }
+    return writer.toByteArray();
+  }
+
+  /**
+   * Reads back genomes written by {@link #toBytes(IList)}, or fails if the bytes aren't in that form.
+   */
+  public static Try<IList<argFuncs>> fromBytes(byte[] bytes) {
+    return Try.of(() -> {
+      Reader reader = new Reader(bytes);
+      for (int i = 0; i < MAGIC.length - 1; i++) {
+        if (reader.readByte() != MAGIC[i]) {
+          throw new IllegalArgumentException("not a genome file");
+        }
+      }
+      int version = reader.readByte();
+      if (version != MAGIC[MAGIC.length - 1]) {
+        throw new IllegalArgumentException("unknown genome file version " + version);
+      }
+
+      // every genome takes at least a byte, so a bigger count than that is corrupt, and mustn't be allocated
+      int count = reader.readVarint();
+      if (count > bytes.length - reader.position) {
+        throw new IllegalArgumentException("genome data ends too soon");
+      }
+      argFuncs[] genomes = new argFuncs[count];
+      for (int i = 0; i < count; i++) {
+        genomes[i] = reader.read();
+      }
+      if (reader.position != bytes.length) {
+        throw new IllegalArgumentException("extra bytes after the last genome");
+      }
+      // built back to front, since List.fromArray recurses once per element
+      IList<argFuncs> result = List.makeEmpty();
+      for (int i = count - 1; i >= 0; i--) {
+        result = result.add(genomes[i]);
+      }
+      return result;
+    });
+  }
+
+  /**
+   * The genome as an S-expression.
+   */
+  public static Value toValue(argFuncs genome) {
+    switch (genome.opcode()) {
+      case VAR_X:
+        return Value.word("x");
+      case VAR_Y:
+        return Value.word("y");
+      case VAR_T:
+        return Value.word("t");
+      case CONSTANT: {
+        Coord value = ((argFuncs.Constant) genome).getValue();
+        return Value.sexpr(Value.word(Opcode.CONSTANT.name()),
+            Value.word(Long.toHexString(Double.doubleToRawLongBits(value.getRed()))),
+            Value.word(Long.toHexString(Double.doubleToRawLongBits(value.getGreen()))),
+            Value.word(Long.toHexString(Double.doubleToRawLongBits(value.getBlue()))));
+      }
+      case IMAGE_SAMPLE: {
+        argFuncs.ImageSample sample = (argFuncs.ImageSample) genome;
+        return Value.sexpr(genome.children().map(GenomeSerializer::toValue)
+            .add(Value.word(Long.toHexString(Double.doubleToRawLongBits(sample.getBlur()))))
+            .add(Value.word(sample.getPicture()))
+            .add(Value.word(Opcode.IMAGE_SAMPLE.name())));
+      }
+      default:
+        return Value.sexpr(genome.children().map(GenomeSerializer::toValue).add(Value.word(genome.opcode().name())));
+    }
+  }
+
+  /**
+   * The genome as the text of an S-expression.
+   */
+  public static String toSexpr(argFuncs genome) {
+    return toValue(genome).toString();
+  }
+
+  /**
+   * Reads back a genome written by {@link #toValue(argFuncs)}, if it's in that form.
+   */
+  public static Option<argFuncs> fromValue(Value value) {
+    return value.match(
+        word -> word.get().equals("x") ? some(argFuncs.VarX.make())
+            : word.get().equals("y") ? some(argFuncs.VarY.make())
+            : word.get().equals("t") ? some(argFuncs.VarT.make())
+            : none(),
+        sexpr -> sexpr.nth(0)
+            .flatmap(head -> head.match(word -> opcode(word.get()), list -> none()))
+            .flatmap(opcode -> fromSexprParts(opcode, sexpr.getList().tail())));
+  }
+
+  /**
+   * Reads back a genome written by {@link #toSexpr(argFuncs)}, if it's in that form.
+   */
+  public static Option<argFuncs> fromSexpr(String input) {
+    return Parser.parseSexpr(input).flatmap(GenomeSerializer::fromValue);
+  }
+
+  private static Option<Opcode> opcode(String name) {
+    for (Opcode opcode : OPCODES) {
+      if (opcode.getArity() > 0 || opcode == Opcode.CONSTANT) {
+        if (opcode.name().equals(name)) {
+          return some(opcode);
+        }
+      }
+    }
+    return none();
+  }
+
+  private static Option<argFuncs> fromSexprParts(Opcode opcode, IList<Value> args) {
+    if (args.length() != (opcode == Opcode.CONSTANT ? 3 : opcode == Opcode.IMAGE_SAMPLE ? 4 : opcode.getArity())) {
+      return none();
+    }
+
+    if (opcode == Opcode.CONSTANT) {
+      IList<Option<Double>> channels = args.map(arg -> arg.match(word -> bitsToDouble(word.get()), list -> none()));
+      if (!channels.filter(Option::isNone).empty()) {
+        return none();
+      }
+      return some(argFuncs.Constant.make(
+          channels.head().get(), channels.tail().head().get(), channels.tail().tail().head().get()));
+    }
+
+    if (opcode == Opcode.IMAGE_SAMPLE) {
+      Option<String> picture = args.head().match(word -> some(word.get()), list -> none());
+      Option<Double> blur = args.tail().head().match(word -> bitsToDouble(word.get()), list -> none());
+      Option<argFuncs> u = fromValue(args.tail().tail().head());
+      Option<argFuncs> v = fromValue(args.tail().tail().tail().head());
+      if (picture.isNone() || !ReferenceImages.isName(picture.get()) || blur.isNone() || u.isNone() || v.isNone()) {
+        return none();
+      }
+      return some(argFuncs.ImageSample.make(picture.get(), blur.get(), u.get(), v.get()));
+    }
+
+    IList<Option<argFuncs>> children = args.map(GenomeSerializer::fromValue);
+    if (!children.filter(Option::isNone).empty()) {
+      return none();
+    }
+    return some(Genomes.make(opcode, children.map(Option::get)));
+  }
+
+  private static Option<Double> bitsToDouble(String hex) {
+    return Try.of(() -> Double.longBitsToDouble(Long.parseUnsignedLong(hex, 16))).toOption();
+  }
+
+  /*
+      the binary form, one node at a time. every node gets
+      a number in the order it's finished (children before
+      parents), and both sides count the same way.
+  */
+  private static final class Writer {
+    final IdentityHashMap<argFuncs, Integer> written = new IdentityHashMap<>();
+    byte[] bytes = new byte[4096];
+    int length = 0;
+    int count = 0;
+
+    void write(argFuncs node) {
+      Opcode opcode = node.opcode();
+
+      // x, y, and t are only one byte anyway, so they're never worth a reference
+      if (opcode == Opcode.VAR_X || opcode == Opcode.VAR_Y || opcode == Opcode.VAR_T) {
+        writeVarint(opcode.ordinal() << 1);
+        count++;
+        return;
+      }
+
+      Integer seen = written.get(node);
+      if (seen != null) {
+        writeVarint((count - 1 - seen) << 1 | REFERENCE);
+        return;
+      }
+
+      writeVarint(opcode.ordinal() << 1);
+      if (opcode == Opcode.CONSTANT) {
+        Coord value = ((argFuncs.Constant) node).getValue();
+        writeLong(Double.doubleToRawLongBits(value.getRed()));
+        writeLong(Double.doubleToRawLongBits(value.getGreen()));
+        writeLong(Double.doubleToRawLongBits(value.getBlue()));
+      } else {
+        if (opcode == Opcode.IMAGE_SAMPLE) {
+          argFuncs.ImageSample sample = (argFuncs.ImageSample) node;
+          byte[] picture = sample.getPicture().getBytes(StandardCharsets.US_ASCII);
+          writeVarint(picture.length);
+          for (byte b : picture) {
+            writeByte(b);
+          }
+          writeLong(Double.doubleToRawLongBits(sample.getBlur()));
+        }
+        for (IList<argFuncs> rest = node.children(); !rest.empty(); rest = rest.tail()) {
+          write(rest.head());
+        }
+      }
+
+      written.put(node, count++);
+    }
+
+    void writeByte(int b) {
+      if (length == bytes.length) {
+        bytes = Arrays.copyOf(bytes, bytes.length * 2);
+      }
+      bytes[length++] = (byte) b;
+    }
+
+    void writeVarint(int value) {
+      while ((value & ~0x7f) != 0) {
+        writeByte((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      writeByte(value);
+    }
+
+    void writeLong(long value) {
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        writeByte((int) (value >>> shift));
+      }
+    }
+
+    byte[] toByteArray() {
+      return Arrays.copyOf(bytes, length);
+    }
+  }
+
+  private static final class Reader {
+    final byte[] bytes;
+    final ArrayList<argFuncs> nodes = new ArrayList<>();
+    int position = 0;
+
+    Reader(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    argFuncs read() {
+      int tag = readVarint();
+      if ((tag & REFERENCE) != 0) {
+        int index = nodes.size() - 1 - (tag >>> 1);
+        if (index < 0) {
+          throw new IllegalArgumentException("reference to a node that hasn't been read yet");
+        }
+        return nodes.get(index);
+      }
+      if ((tag >>> 1) >= OPCODES.length) {
+        throw new IllegalArgumentException("unknown opcode " + (tag >>> 1));
+      }
+
+      Opcode opcode = OPCODES[tag >>> 1];
+      argFuncs node;
+      if (opcode == Opcode.CONSTANT) {
+        node = argFuncs.Constant.make(
+            Double.longBitsToDouble(readLong()),
+            Double.longBitsToDouble(readLong()),
+            Double.longBitsToDouble(readLong()));
+      } else if (opcode == Opcode.IMAGE_SAMPLE) {
+        int length = readVarint();
+        if (length > bytes.length - position) {
+          throw new IllegalArgumentException("genome data ends too soon");
+        }
+        byte[] picture = new byte[length];
+        for (int i = 0; i < picture.length; i++) {
+          picture[i] = readByte();
+        }
+        double blur = Double.longBitsToDouble(readLong());
+        argFuncs u = read();
+        argFuncs v = read();
+        node = argFuncs.ImageSample.make(new String(picture, StandardCharsets.US_ASCII), blur, u, v);
+      } else {
+        argFuncs[] children = new argFuncs[opcode.getArity()];
+        for (int i = 0; i < children.length; i++) {
+          children[i] = read();
+        }
+        node = Genomes.make(opcode, List.fromArray(children));
+      }
+
+      nodes.add(node);
+      return node;
+    }
+
+    byte readByte() {
+      if (position >= bytes.length) {
+        throw new IllegalArgumentException("genome data ends too soon");
+      }
+      return bytes[position++];
+    }
+
+    int readVarint() {
+      int result = 0;
+      for (int shift = 0; shift < 32; shift += 7) {
+        byte b = readByte();
+        result |= (b & 0x7f) << shift;
+        if ((b & 0x80) == 0) {
+          if (result < 0) {
+            throw new IllegalArgumentException("varint out of range");
+          }
+          return result;
+        }
+      }
+      throw new IllegalArgumentException("varint too long");
+    }
+
+    long readLong() {
+      long result = 0;
+      for (int i = 0; i < 8; i++) {
+        result = (result << 8) | (readByte() & 0xff);
+      }
+      return result;
+    }
+  }
+}
@@ -0,0 +1,279 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+
+/**
+ * Helpers for building and measuring argFuncs trees ("genomes") without caring which node class is
+ * which: everything here goes through {@link argFuncs#opcode()} and {@link argFuncs#children()}.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Genomes {
+  private static final Opcode[] LEAVES = { Opcode.VAR_X, Opcode.VAR_Y, Opcode.CONSTANT };
+
+  // t is 0 in every still image, thumbnails included, so a t leaf is just a black constant there; it only comes
+  // alive in an animation. Random leaves are t this rarely, so it doesn't flatten many stills.
+  static final double TIME_LEAF_CHANCE = 1.0 / 16;
+  private static final Opcode[] INTERIOR = interiorOpcodes();
+
+  // a random ImageSample is blurred by up to this many mip levels
+  static final double MAX_RANDOM_BLUR = 3;
+
+  // The standard test generation, which the server shows for the [ ? ] button, and the benchmarks render.
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+  static final IList<argFuncs> TEST_GENERATION = List.of(
+      X,
+      Y,
+      argFuncs.Constant.make(0.2, -0.6, 0.9),
+      argFuncs.Sine.make(argFuncs.Multiply.make(X, argFuncs.Constant.make(1, 0.5, -1))),
+      argFuncs.Cosine.make(argFuncs.Add.make(X, Y)),
+      argFuncs.Arctan.make(argFuncs.Multiply.make(X, Y)),
+      argFuncs.Clip.make(argFuncs.RGBtoYCrCb.make(argFuncs.Subtract.make(X, Y))),
+      argFuncs.Wrap.make(argFuncs.Multiply.make(argFuncs.Constant.make(1, 1, 1), argFuncs.DotProduct.make(X, Y))),
+      argFuncs.GSPerlin.make(argFuncs.Multiply.make(X, Y), X),
+      argFuncs.Perlin.make(argFuncs.Sine.make(X), argFuncs.Cosine.make(Y)),
+      argFuncs.Clip.make(argFuncs.Dissolve.make(
+          argFuncs.Sine.make(argFuncs.Multiply.make(X, Y)),
+          argFuncs.Perlin.make(X, argFuncs.Cosine.make(Y)),
+          argFuncs.Expon.make(Y))));
+
+  // don't instantiate this class
+  private Genomes() { }
+
+  /**
+   * Makes a node of the given kind with the given children. Constants carry a value rather than
+   * children, so make those with {@link argFuncs.Constant#make(double, double, double)} instead; image
+   * samples carry a picture and a blur as well as their children, so make those with {@link
+   * #make(Random, Opcode, IList)} or {@link #withChildren(argFuncs, IList)}.
+   */
+  public static argFuncs make(Opcode opcode, IList<argFuncs> children) {
+    if (children.length() != opcode.getArity()) {
+      throw new IllegalArgumentException(
+          opcode + " takes " + opcode.getArity() + " children, not " + children.length());
+    }
+
+    switch (opcode) {
+      case VAR_X: return argFuncs.VarX.make();
+      case VAR_Y: return argFuncs.VarY.make();
+      case VAR_T: return argFuncs.VarT.make();
+      case NEGATE: return argFuncs.Negate.make(children.head());
+      case SINE: return argFuncs.Sine.make(children.head());
+      case ROUND_DOWN: return argFuncs.RoundDown.make(children.head());
+      case ROUND_UP: return argFuncs.RoundUp.make(children.head());
+      case COSINE: return argFuncs.Cosine.make(children.head());
+      case ARCTAN: return argFuncs.Arctan.make(children.head());
+      case EXPON: return argFuncs.Expon.make(children.head());
+      case LOGRM: return argFuncs.Logrm.make(children.head());
+      case ABS_VAL: return argFuncs.AbsVal.make(children.head());
+      case CLIP: return argFuncs.Clip.make(children.head());
+      case WRAP: return argFuncs.Wrap.make(children.head());
+      case RGB_TO_YCRCB: return argFuncs.RGBtoYCrCb.make(children.head());
+      case YCRCB_TO_RGB: return argFuncs.YCrCbtoRGB.make(children.head());
+      case ADD: return argFuncs.Add.make(children.head(), second(children));
+      case SUBTRACT: return argFuncs.Subtract.make(children.head(), second(children));
+      case MULTIPLY: return argFuncs.Multiply.make(children.head(), second(children));
+      case DIVIDE: return argFuncs.Divide.make(children.head(), second(children));
+      case DOT_PRODUCT: return argFuncs.DotProduct.make(children.head(), second(children));
+      case EXTERNAL: return argFuncs.External.make(children.head(), second(children));
+      case GS_PERLIN: return argFuncs.GSPerlin.make(children.head(), second(children));
+      case PERLIN: return argFuncs.Perlin.make(children.head(), second(children));
+      case DISSOLVE: return argFuncs.Dissolve.make(children.head(), second(children), children.tail().tail().head());
+      default:
+        throw new IllegalArgumentException("can't make " + opcode + " from children");
+    }
+  }
+
+  /**
+   * Makes a node of the given kind with the given children, like {@link #make(Opcode, IList)}, except that
+   * an image sample gets a random picture and blur.
+   */
+  public static argFuncs make(Random rng, Opcode opcode, IList<argFuncs> children) {
+    if (opcode != Opcode.IMAGE_SAMPLE) {
+      return make(opcode, children);
+    }
+
+    IList<String> pictures = ReferenceImages.names();
+    String picture = pictures.nth(rng.nextInt(pictures.length())).get();
+    return argFuncs.ImageSample.make(picture, rng.nextDouble() * MAX_RANDOM_BLUR, children.head(), second(children));
+  }
+
+  /**
+   * A node of the same kind as the given one, with the same value, picture, or blur, if it has any, but with
+   * the given children instead of its own.
+   */
+  public static argFuncs withChildren(argFuncs node, IList<argFuncs> children) {
+    if (node.opcode() != Opcode.IMAGE_SAMPLE) {
+      return make(node.opcode(), children);
+    }
+
+    argFuncs.ImageSample sample = (argFuncs.ImageSample) node;
+    if (children.length() != 2) {
+      throw new IllegalArgumentException("IMAGE_SAMPLE takes 2 children, not " + children.length());
+    }
+    return argFuncs.ImageSample.make(sample.getPicture(), sample.getBlur(), children.head(), second(children));
+  }
+
+  private static argFuncs second(IList<argFuncs> children) {
+    return children.tail().head();
+  }
+
+  /**
+   * Makes a random tree no deeper than maxDepth. Leaves are x, y, or a random constant, and once in a while
+   * (see {@link #TIME_LEAF_CHANCE}) t; every other node is picked uniformly from the remaining opcodes, and
+   * image samples look at a random picture.
+   */
+  public static argFuncs random(Random rng, int maxDepth) {
+    if (maxDepth <= 1) {
+      if (rng.nextDouble() < TIME_LEAF_CHANCE) {
+        return argFuncs.VarT.make();
+      }
+      Opcode leaf = LEAVES[rng.nextInt(LEAVES.length)];
+      return (leaf == Opcode.CONSTANT)
+          ? argFuncs.Constant.make(randomUnit(rng), randomUnit(rng), randomUnit(rng))
+          : make(leaf, List.makeEmpty());
+    }
+
+    Opcode opcode = INTERIOR[rng.nextInt(INTERIOR.length)];
+    IList<argFuncs> children = List.makeEmpty();
+    for (int i = 0; i < opcode.getArity(); i++) {
+      children = children.add(random(rng, maxDepth - 1));
+    }
+    return make(rng, opcode, children);
+  }
+
+  private static double randomUnit(Random rng) {
+    return rng.nextDouble() * 2 - 1;
+  }
+
+  /**
+   * Number of nodes in the tree, counting a shared subtree once for every place it appears.
+   */
+  public static int size(argFuncs tree) {
+    return tree.children().foldl(1, (sum, child) -> sum + size(child));
+  }
+
+  /**
+   * Number of nodes on the longest path from the root down to a leaf, so a leaf's depth is 1, matching
+   * the maxDepth of {@link #random(Random, int)}.
+   */
+  public static int depth(argFuncs tree) {
+    return 1 + tree.children().foldl(0, (deepest, child) -> Math.max(deepest, depth(child)));
+  }
+
+  /**
+   * A 64-bit hash of the tree's structure: two trees that compute the same thing node for node (same
+   * opcodes, same constants, same shape) hash the same, even if they're made of different objects.
+   */
+  public static long structuralHash(argFuncs tree) {
+    long hash = mix(tree.opcode().ordinal() + 1);
+
+    if (tree.opcode() == Opcode.CONSTANT) {
+      Coord value = ((argFuncs.Constant) tree).getValue();
+      hash = mix(hash ^ Double.doubleToLongBits(value.getRed()));
+      hash = mix(hash ^ Double.doubleToLongBits(value.getGreen()));
+      hash = mix(hash ^ Double.doubleToLongBits(value.getBlue()));
+    } else if (tree.opcode() == Opcode.IMAGE_SAMPLE) {
+      argFuncs.ImageSample sample = (argFuncs.ImageSample) tree;
+      hash = mix(hash ^ sample.getPicture().hashCode());
+      hash = mix(hash ^ Double.doubleToLongBits(sample.getBlur()));
+    }
+
+    return tree.children().foldl(hash, (h, child) -> mix(h * 31 + structuralHash(child)));
+  }
+
+  /**
+   * Whether the two trees compute the same thing node for node: the same opcodes, constants, pictures, and blurs,
+   * in the same shape, even if they're made of different objects. Trees that are equal this way have the same
+   * {@link #structuralHash(argFuncs)}, but not the other way around, so anything that identifies genomes by their
+   * hash should check with this before trusting it.
+   */
+  public static boolean structurallyEqual(argFuncs a, argFuncs b) {
+    if (a == b) {
+      return true;
+    }
+    if (a.opcode() != b.opcode()) {
+      return false;
+    }
+
+    if (a.opcode() == Opcode.CONSTANT) {
+      Coord va = ((argFuncs.Constant) a).getValue();
+      Coord vb = ((argFuncs.Constant) b).getValue();
+      return Double.doubleToLongBits(va.getRed()) == Double.doubleToLongBits(vb.getRed())
+          && Double.doubleToLongBits(va.getGreen()) == Double.doubleToLongBits(vb.getGreen())
+          && Double.doubleToLongBits(va.getBlue()) == Double.doubleToLongBits(vb.getBlue());
+    } else if (a.opcode() == Opcode.IMAGE_SAMPLE) {
+      argFuncs.ImageSample sa = (argFuncs.ImageSample) a;
+      argFuncs.ImageSample sb = (argFuncs.ImageSample) b;
+      if (!sa.getPicture().equals(sb.getPicture())
+          || Double.doubleToLongBits(sa.getBlur()) != Double.doubleToLongBits(sb.getBlur())) {
+        return false;
+      }
+    }
+
+    IList<argFuncs> restA = a.children();
+    IList<argFuncs> restB = b.children();
+    for (; !restA.empty(); restA = restA.tail(), restB = restB.tail()) {
+      if (!structurallyEqual(restA.head(), restB.head())) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // the finalizer from SplitMix64; scrambles every input bit into every output bit
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  /**
+   * A readable, Lisp-ish description of the tree, e.g. "(Add x (Sine y))", or "(ImageSample PIA02879 0.5000 x y)"
+   * for a picture blurred by half a mip level.
+   */
+  public static String toString(argFuncs tree) {
+    switch (tree.opcode()) {
+      case VAR_X:
+        return "x";
+      case VAR_Y:
+        return "y";
+      case VAR_T:
+        return "t";
+      case CONSTANT: {
+        Coord value = ((argFuncs.Constant) tree).getValue();
+        return String.format("(Constant %.4f %.4f %.4f)", value.getRed(), value.getGreen(), value.getBlue());
+      }
+      case IMAGE_SAMPLE: {
+        argFuncs.ImageSample sample = (argFuncs.ImageSample) tree;
+        return String.format("(ImageSample %s %.4f %s)", sample.getPicture(), sample.getBlur(),
+            tree.children().map(Genomes::toString).join(" "));
+      }
+      default:
+        return "(" + tree.getClass().getSimpleName() + " " + tree.children().map(Genomes::toString).join(" ") + ")";
+    }
+  }
+
+  private static Opcode[] interiorOpcodes() {
+    int count = 0;
+    for (Opcode op : Opcode.values()) {
+      if (op.getArity() > 0) {
+        count++;
+      }
+    }
+
+    Opcode[] result = new Opcode[count];
+    int i = 0;
+    for (Opcode op : Opcode.values()) {
+      if (op.getArity() > 0) {
+        result[i++] = op;
+      }
+    }
+    return result;
+  }
+}
@@ -43,6 +43,75 @@ public final class ImprovedNoise {
                 grad(p[bb + 1], x - 1, y - 1, z - 1))));
   }
 
+  /**
+   * Computes Perlin noise for a run of points at once: out[k] = noise(xs[k], ys[k], zs[k]) for every k
+   * below len, bit for bit. Neighboring points along a scanline usually land in the same unit cube, so
+   * the cube's corner hashes are only looked up again when a point leaves the cube the last one was in.
+   * It's fine for out to be one of the input arrays.
+   */
+  public static void noise(double[] xs, double[] ys, double[] zs, double[] out, int len) {
+    // hashes of the eight corners of the current cube; the impossible -1 means there isn't one yet
+    int lastX = -1;
+    int lastY = -1;
+    int lastZ = -1;
+    int h000 = 0;
+    int h100 = 0;
+    int h010 = 0;
+    int h110 = 0;
+    int h001 = 0;
+    int h101 = 0;
+    int h011 = 0;
+    int h111 = 0;
+
+    for (int k = 0; k < len; k++) {
+      double x = xs[k];
+      double y = ys[k];
+      double z = zs[k];
+      final double floorX = Math.floor(x);
+      final double floorY = Math.floor(y);
+      final double floorZ = Math.floor(z);
+      final int cubeX = (int) floorX & 255;
+      final int cubeY = (int) floorY & 255;
+      final int cubeZ = (int) floorZ & 255;
+
+      if (cubeX != lastX || cubeY != lastY || cubeZ != lastZ) {
+        int a = p[cubeX] + cubeY;
+        int aa = p[a] + cubeZ;
+        int ab = p[a + 1] + cubeZ;
+        int b = p[cubeX + 1] + cubeY;
+        int ba = p[b] + cubeZ;
+        int bb = p[b + 1] + cubeZ;
+        h000 = p[aa];
+        h100 = p[ba];
+        h010 = p[ab];
+        h110 = p[bb];
+        h001 = p[aa + 1];
+        h101 = p[ba + 1];
+        h011 = p[ab + 1];
+        h111 = p[bb + 1];
+        lastX = cubeX;
+        lastY = cubeY;
+        lastZ = cubeZ;
+      }
+
+      x -= floorX;
+      y -= floorY;
+      z -= floorZ;
+      double u = fade(x);
+      double v = fade(y);
+      double w = fade(z);
+
+      out[k] = lerp(w, lerp(v, lerp(u, grad(h000, x, y, z),
+          grad(h100, x - 1, y, z)),
+          lerp(u, grad(h010, x, y - 1, z),
+              grad(h110, x - 1, y - 1, z))),
+          lerp(v, lerp(u, grad(h001, x, y, z - 1),
+              grad(h101, x - 1, y, z - 1)),
+              lerp(u, grad(h011, x, y - 1, z - 1),
+                  grad(h111, x - 1, y - 1, z - 1))));
+    }
+  }
+
   static double fade(double t) {
     return t * t * t * (t * (t * 6 - 15) + 10);
   }
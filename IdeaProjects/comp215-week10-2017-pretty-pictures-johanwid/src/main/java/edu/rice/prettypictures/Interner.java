@@ -0,0 +1,150 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Hash-consing for argFuncs trees: every subtree that goes through the same Interner comes out as one
+ * canonical object per distinct structure (same opcode, same constant, same children). Breeding copies
+ * the same subtrees into lots of genomes; interning a generation turns all of those copies back into
+ * one, which saves memory, and makes the sharing visible to anything that works by object identity.
+ *
+ * <p>Trees are interned bottom-up, so a node is looked up by its opcode, its constant value, and the
+ * identities of its (already canonical) children, which takes constant time per node.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Interner {
+  private final Map<Key, argFuncs> canonical = new HashMap<>();
+  private final IdentityHashMap<argFuncs, argFuncs> seen = new IdentityHashMap<>();
+
+  private Interner() { }
+
+  public static Interner make() {
+    return new Interner();
+  }
+
+  /**
+   * Interns every tree in the list with one fresh Interner, so they all share their common subtrees.
+   */
+  public static IList<argFuncs> internAll(IList<argFuncs> trees) {
+    // a loop rather than trees.map(), which recurses once per element, and generations can be long
+    Interner interner = make();
+    ArrayList<argFuncs> interned = new ArrayList<>();
+    for (IList<argFuncs> rest = trees; !rest.empty(); rest = rest.tail()) {
+      interned.add(interner.intern(rest.head()));
+    }
+
+    IList<argFuncs> result = List.makeEmpty();
+    for (int i = interned.size() - 1; i >= 0; i--) {
+      result = result.add(interned.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Returns the canonical version of this tree: structurally the same, but built out of the same node
+   * objects as every other tree this Interner has seen.
+   */
+  public argFuncs intern(argFuncs tree) {
+    argFuncs known = seen.get(tree);
+    if (known != null) {
+      return known;
+    }
+
+    IList<argFuncs> children = tree.children().map(this::intern);
+    Key key = new Key(tree, children);
+    argFuncs result = canonical.get(key);
+    if (result == null) {
+      result = children.equals(tree.children()) ? tree : Genomes.withChildren(tree, children);
+      canonical.put(key, result);
+    }
+
+    seen.put(tree, result);
+    return result;
+  }
+
+  /**
+   * Number of distinct nodes seen so far.
+   */
+  public int size() {
+    return canonical.size();
+  }
+
+  /*
+      a node's opcode, constant value or picture and blur
+      (if any), plus the identities of its already-canonical
+      children.
+  */
+  private static final class Key {
+    private final Opcode opcode;
+    private final long[] constant;
+    private final String picture;
+    private final argFuncs[] children;
+    private final int hash;
+
+    Key(argFuncs node, IList<argFuncs> canonicalChildren) {
+      this.opcode = node.opcode();
+      if (opcode == Opcode.CONSTANT) {
+        Coord value = ((argFuncs.Constant) node).getValue();
+        this.constant = new long[] {
+            Double.doubleToLongBits(value.getRed()),
+            Double.doubleToLongBits(value.getGreen()),
+            Double.doubleToLongBits(value.getBlue())};
+        this.picture = "";
+      } else if (opcode == Opcode.IMAGE_SAMPLE) {
+        argFuncs.ImageSample sample = (argFuncs.ImageSample) node;
+        this.constant = new long[] {Double.doubleToLongBits(sample.getBlur())};
+        this.picture = sample.getPicture();
+      } else {
+        this.constant = new long[0];
+        this.picture = "";
+      }
+
+      this.children = new argFuncs[canonicalChildren.length()];
+      int i = 0;
+      for (IList<argFuncs> rest = canonicalChildren; !rest.empty(); rest = rest.tail()) {
+        children[i++] = rest.head();
+      }
+
+      int h = (opcode.hashCode() * 31 + Arrays.hashCode(constant)) * 31 + picture.hashCode();
+      for (argFuncs child : children) {
+        h = h * 31 + System.identityHashCode(child);
+      }
+      this.hash = h;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+      if (opcode != other.opcode || !Arrays.equals(constant, other.constant) || !picture.equals(other.picture)
+          || children.length != other.children.length) {
+        return false;
+      }
+
+      for (int i = 0; i < children.length; i++) {
+        if (children[i] != other.children[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package edu.rice.prettypictures;
+
+/*
+    one entry per kind of argFuncs node, along with
+    how many children that node takes. passes that
+    walk a tree (see Program) switch on these rather
+    than on the node classes themselves.
+*/
+public enum Opcode {
+  VAR_X(0),
+  VAR_Y(0),
+  CONSTANT(0),
+
+  NEGATE(1),
+  SINE(1),
+  ROUND_DOWN(1),
+  ROUND_UP(1),
+  COSINE(1),
+  ARCTAN(1),
+  EXPON(1),
+  LOGRM(1),
+  ABS_VAL(1),
+  CLIP(1),
+  WRAP(1),
+  RGB_TO_YCRCB(1),
+  YCRCB_TO_RGB(1),
+
+  ADD(2),
+  SUBTRACT(2),
+  MULTIPLY(2),
+  DIVIDE(2),
+  DOT_PRODUCT(2),
+  EXTERNAL(2),
+  GS_PERLIN(2),
+  PERLIN(2),
+
+  DISSOLVE(3),
+
+  // saved genomes store opcodes by number, so new ones go at the end
+  VAR_T(0),
+  IMAGE_SAMPLE(2);
+
+  private final int arity;
+
+  Opcode(int arity) {
+    this.arity = arity;
+  }
+
+  /*
+      number of children a node of this kind has.
+  */
+  public int getArity() {
+    return arity;
+  }
+}
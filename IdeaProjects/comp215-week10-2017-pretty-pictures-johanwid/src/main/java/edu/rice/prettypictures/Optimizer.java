@@ -0,0 +1,356 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.IdentityHashMap;
+
+/**
+ * Rewrites an argFuncs tree into a smaller one that computes the same colors. Subtrees with no x or y
+ * in them are folded into a single {@link argFuncs.Constant}, and a handful of identities are applied,
+ * like Negate(Negate(a)) = a, Clip(Sine(a)) = Sine(a), and Add(a, 0) = Clip(a).
+ *
+ * <p>Every rewrite has to hold for every input, including the NaNs and infinities that Logrm and AbsVal
+ * can produce, so the optimizer keeps track of which subtrees are sure to be finite, and which are sure
+ * to stay in [-1, 1]. Multiplying by zero, for example, only disappears when the other side can't be
+ * infinite, since infinity times zero is NaN. The one thing that isn't preserved is the sign of a zero:
+ * an optimized tree may say 0 where the original said -0, which draws the same pixel.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Optimizer {
+  // facts about the values a subtree can produce, in every channel, at every pixel
+  private static final int UNIT = 1; // in [-1, 1], or NaN
+  private static final int FINITE = 2; // never NaN or infinite
+
+  private static final argFuncs ZERO = argFuncs.Constant.make(0, 0, 0);
+
+  // shared subtrees are only optimized once, and stay shared
+  private final IdentityHashMap<argFuncs, argFuncs> optimized = new IdentityHashMap<>();
+  private final IdentityHashMap<argFuncs, Integer> facts = new IdentityHashMap<>();
+
+  private Optimizer() { }
+
+  /**
+   * Optimizes the tree, returning the smaller tree along with how much smaller it is.
+   */
+  public static Result optimize(argFuncs tree) {
+    return new Result(tree, new Optimizer().visit(tree));
+  }
+
+  /**
+   * What {@link #optimize(argFuncs)} made, and how many nodes it saved, counted as in {@link Genomes#size(argFuncs)}.
+   */
+  public static final class Result {
+    private final argFuncs tree;
+    private final int sizeBefore;
+    private final int sizeAfter;
+
+    private Result(argFuncs original, argFuncs tree) {
+      this.tree = tree;
+      this.sizeBefore = Genomes.size(original);
+      this.sizeAfter = Genomes.size(tree);
+    }
+
+    public argFuncs getTree() {
+      return tree;
+    }
+
+    public int getSizeBefore() {
+      return sizeBefore;
+    }
+
+    public int getSizeAfter() {
+      return sizeAfter;
+    }
+
+    public int getNodesRemoved() {
+      return sizeBefore - sizeAfter;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Optimized(%d -> %d nodes)", sizeBefore, sizeAfter);
+    }
+  }
+
+  private argFuncs visit(argFuncs tree) {
+    argFuncs done = optimized.get(tree);
+    if (done != null) {
+      return done;
+    }
+
+    IList<argFuncs> children = tree.children().map(this::visit);
+
+    // IList equality compares the children with equals(), which for argFuncs is identity
+    argFuncs rebuilt = children.equals(tree.children()) ? tree : Genomes.withChildren(tree, children);
+    argFuncs result = simplify(rebuilt);
+    optimized.put(tree, result);
+    return result;
+  }
+
+  /*
+      one node, whose children are already as simple
+      as they get. anything new that a rule builds gets
+      simplified again, since it might simplify further.
+  */
+  private argFuncs simplify(argFuncs node) {
+    Opcode op = node.opcode();
+    if (op.getArity() == 0) {
+      return node;
+    }
+
+    // External and GSPerlin never look at their second child, so it doesn't have to be constant
+    IList<argFuncs> children = node.children();
+    IList<argFuncs> used = (op == Opcode.EXTERNAL || op == Opcode.GS_PERLIN) ? children.limit(1) : children;
+    if (used.filter(child -> child.opcode() != Opcode.CONSTANT).empty()) {
+      Coord value = node.evaluate(0, 0);
+      return argFuncs.Constant.make(value.getRed(), value.getGreen(), value.getBlue());
+    }
+
+    argFuncs a = children.head();
+    argFuncs b = children.tail().ohead().getOrElse(a);
+
+    switch (op) {
+      case NEGATE:
+        if (a.opcode() == Opcode.NEGATE) {
+          return a.children().head();
+        }
+        break;
+
+      case CLIP:
+        if (has(a, UNIT)) {
+          return a;
+        }
+        break;
+
+      case ROUND_DOWN:
+      case ROUND_UP:
+        // already a whole number
+        if (a.opcode() == Opcode.ROUND_DOWN || a.opcode() == Opcode.ROUND_UP) {
+          return a;
+        }
+        break;
+
+      case ADD:
+        if (isAll(b, 0)) {
+          return simplify(argFuncs.Clip.make(a));
+        }
+        if (isAll(a, 0)) {
+          return simplify(argFuncs.Clip.make(b));
+        }
+        break;
+
+      case SUBTRACT:
+        if (isAll(b, 0)) {
+          return simplify(argFuncs.Clip.make(a));
+        }
+        if (isAll(a, 0) && has(b, UNIT)) {
+          return simplify(argFuncs.Negate.make(b));
+        }
+        if (has(a, FINITE) && same(a, b)) {
+          return ZERO;
+        }
+        break;
+
+      case MULTIPLY:
+        for (int i = 0; i < 2; i++) {
+          argFuncs constant = (i == 0) ? b : a;
+          argFuncs other = (i == 0) ? a : b;
+          if (isAll(constant, 1)) {
+            return simplify(argFuncs.Clip.make(other));
+          }
+          if (isAll(constant, -1) && has(other, UNIT)) {
+            return simplify(argFuncs.Negate.make(other));
+          }
+          if (isAll(constant, 0) && has(other, FINITE)) {
+            return ZERO;
+          }
+        }
+        break;
+
+      case DIVIDE:
+        // dividing by zero is defined to be zero
+        if (isAll(b, 0)) {
+          return ZERO;
+        }
+        if (isAll(b, 1)) {
+          return simplify(argFuncs.Clip.make(a));
+        }
+        if (isAll(b, -1) && has(a, UNIT)) {
+          return simplify(argFuncs.Negate.make(a));
+        }
+        if (isAll(a, 0) && has(b, FINITE)) {
+          return ZERO;
+        }
+        break;
+
+      case DOT_PRODUCT:
+        if ((isAll(a, 0) && has(b, FINITE)) || (isAll(b, 0) && has(a, FINITE))) {
+          return ZERO;
+        }
+        break;
+
+      case EXTERNAL:
+      case GS_PERLIN:
+        // only the first child is ever evaluated, so the second might as well be as small as possible
+        if (b.opcode().getArity() > 0) {
+          return Genomes.make(op, List.of(a, argFuncs.VarX.make()));
+        }
+        break;
+
+      case DISSOLVE: {
+        // (1 - c) * a + c * b, with c clipped to [-1, 1]
+        argFuncs c = children.tail().tail().head();
+        if (isAllClipped(c, 0) && has(b, FINITE)) {
+          return a;
+        }
+        if (isAllClipped(c, 1) && has(a, FINITE)) {
+          return b;
+        }
+        break;
+      }
+
+      default:
+        break;
+    }
+
+    return node;
+  }
+
+  private static boolean isAll(argFuncs tree, double value) {
+    if (tree.opcode() != Opcode.CONSTANT) {
+      return false;
+    }
+
+    Coord c = ((argFuncs.Constant) tree).getValue();
+    return c.getRed() == value && c.getGreen() == value && c.getBlue() == value;
+  }
+
+  private static boolean isAllClipped(argFuncs tree, double value) {
+    if (tree.opcode() != Opcode.CONSTANT) {
+      return false;
+    }
+
+    Coord c = ((argFuncs.Constant) tree).getValue();
+    return Program.clip(c.getRed()) == value && Program.clip(c.getGreen()) == value
+        && Program.clip(c.getBlue()) == value;
+  }
+
+  /**
+   * Whether two trees compute the same thing node for node, even if they're different objects.
+   */
+  private static boolean same(argFuncs a, argFuncs b) {
+    if (a == b) {
+      return true;
+    }
+    if (a.opcode() != b.opcode()) {
+      return false;
+    }
+    if (a.opcode() == Opcode.CONSTANT) {
+      Coord ca = ((argFuncs.Constant) a).getValue();
+      Coord cb = ((argFuncs.Constant) b).getValue();
+      return Double.doubleToLongBits(ca.getRed()) == Double.doubleToLongBits(cb.getRed())
+          && Double.doubleToLongBits(ca.getGreen()) == Double.doubleToLongBits(cb.getGreen())
+          && Double.doubleToLongBits(ca.getBlue()) == Double.doubleToLongBits(cb.getBlue());
+    }
+    if (a.opcode() == Opcode.IMAGE_SAMPLE) {
+      argFuncs.ImageSample sa = (argFuncs.ImageSample) a;
+      argFuncs.ImageSample sb = (argFuncs.ImageSample) b;
+      if (!sa.getPicture().equals(sb.getPicture())
+          || Double.doubleToLongBits(sa.getBlur()) != Double.doubleToLongBits(sb.getBlur())) {
+        return false;
+      }
+    }
+
+    return a.children().zip(b.children(), Optimizer::same).filter(x -> !x).empty();
+  }
+
+  private boolean has(argFuncs tree, int fact) {
+    return (facts(tree) & fact) == fact;
+  }
+
+  private boolean all(IList<argFuncs> trees, int fact) {
+    return trees.filter(tree -> !has(tree, fact)).empty();
+  }
+
+  private int facts(argFuncs tree) {
+    Integer known = facts.get(tree);
+    if (known != null) {
+      return known;
+    }
+
+    IList<argFuncs> children = tree.children();
+    int result;
+    switch (tree.opcode()) {
+      case VAR_X:
+      case VAR_Y:
+      case VAR_T:
+      case GS_PERLIN: // noise is rounded to an int, and ints are never NaN
+      case PERLIN:
+      case IMAGE_SAMPLE: // an average of pixels, which are all in [-1, 1], whatever the coordinates
+        result = UNIT | FINITE;
+        break;
+
+      case CONSTANT: {
+        Coord c = ((argFuncs.Constant) tree).getValue();
+        result = constantFacts(c.getRed()) & constantFacts(c.getGreen()) & constantFacts(c.getBlue());
+        break;
+      }
+
+      case NEGATE:
+      case EXTERNAL:
+      case ROUND_DOWN: // rounding [-1, 1] gives -1, 0, or 1
+      case ROUND_UP:
+        result = facts(children.head());
+        break;
+
+      case SINE:
+      case COSINE:
+        result = UNIT | (all(children, FINITE) ? FINITE : 0);
+        break;
+
+      case ARCTAN:
+      case WRAP:
+        result = all(children, FINITE) ? FINITE : 0;
+        break;
+
+      // these all clip their output, and an overflow just clips to 1
+      case EXPON:
+      case CLIP:
+      case ADD:
+      case SUBTRACT:
+      case MULTIPLY:
+      case DIVIDE:
+        result = UNIT | (all(children, FINITE) ? FINITE : 0);
+        break;
+
+      // sums of products, which could overflow to infinity minus infinity if the inputs were huge
+      case DOT_PRODUCT:
+        result = UNIT | (all(children, FINITE | UNIT) ? FINITE : 0);
+        break;
+
+      case RGB_TO_YCRCB:
+      case YCRCB_TO_RGB:
+      case DISSOLVE:
+        result = all(children, FINITE | UNIT) ? FINITE : 0;
+        break;
+
+      case LOGRM: // log of a negative number or zero
+      case ABS_VAL:
+      default:
+        result = 0;
+        break;
+    }
+
+    facts.put(tree, result);
+    return result;
+  }
+
+  private static int constantFacts(double value) {
+    return (Double.isNaN(value) || Math.abs(value) <= 1 ? UNIT : 0)
+        | (Double.isNaN(value) || Double.isInfinite(value) ? 0 : FINITE);
+  }
+}
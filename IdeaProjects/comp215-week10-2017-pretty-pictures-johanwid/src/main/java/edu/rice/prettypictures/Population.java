@@ -0,0 +1,143 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import edu.rice.util.Option;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import static edu.rice.util.Option.none;
+import static edu.rice.util.Option.some;
+
+/**
+ * Every generation of genomes the breeder has seen so far, numbered from zero. Generations are
+ * immutable lists; the population as a whole can grow or be reset, and is safe to share between
+ * the server's request threads.
+ *
+ * <p>Each generation is run through an {@link Interner} on the way in, so the subtrees its genomes
+ * inherited from the same parents are the same objects again.
+ *
+ * <p>A population can keep its generations in memory, or in a {@link GenerationStore}, where they
+ * survive a restart. A stored population doesn't read anything until it's asked for, and then reads
+ * only the genomes it's asked for.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Population {
+  // newest generation first, so adding one is a cons; unused when there's a store
+  private volatile IList<IList<argFuncs>> generationsNewestFirst = List.makeEmpty();
+  private final Option<GenerationStore> store;
+
+  /**
+   * A population that lives only in memory.
+   */
+  public Population() {
+    this(none());
+  }
+
+  private Population(Option<GenerationStore> store) {
+    this.store = store;
+  }
+
+  /**
+   * A population kept in the given store, starting with whatever run was in it the last time.
+   */
+  public static Population make(GenerationStore store) {
+    return new Population(some(store));
+  }
+
+  /**
+   * Throws away every generation and starts over with the one given, which becomes generation 0.
+   */
+  public synchronized void reset(IList<argFuncs> firstGeneration) {
+    IList<argFuncs> interned = Interner.internAll(firstGeneration);
+    if (store.isSome()) {
+      try {
+        store.get().reset(interned);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    } else {
+      generationsNewestFirst = List.of(interned);
+    }
+  }
+
+  /**
+   * Adds a new generation after the newest one, and returns its number.
+   */
+  public synchronized int add(IList<argFuncs> generation) {
+    IList<argFuncs> interned = Interner.internAll(generation);
+    if (store.isSome()) {
+      try {
+        return store.get().add(interned);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    generationsNewestFirst = generationsNewestFirst.add(interned);
+    return generationsNewestFirst.length() - 1;
+  }
+
+  /**
+   * Adds a new generation right after the given one, and returns its number. Any generations that came
+   * after the given one are thrown away, as when the user goes back and breeds from an older generation.
+   */
+  public synchronized int addAfter(int gen, IList<argFuncs> generation) {
+    IList<argFuncs> interned = Interner.internAll(generation);
+    if (store.isSome()) {
+      try {
+        return store.get().addAfter(gen, interned);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    int count = generationsNewestFirst.length();
+    if (gen < 0 || gen >= count) {
+      throw new IllegalArgumentException("no generation " + gen);
+    }
+    generationsNewestFirst = generationsNewestFirst.skipN(count - 1 - gen).add(interned);
+    return gen + 1;
+  }
+
+  public int numGenerations() {
+    return store.match(() -> generationsNewestFirst.length(), GenerationStore::numGenerations);
+  }
+
+  /**
+   * Number of images in the newest generation, or zero if there aren't any generations.
+   */
+  public int numImages() {
+    return numImagesIn(numGenerations() - 1);
+  }
+
+  /**
+   * Number of images in the given generation, or zero if there's no such generation.
+   */
+  public int numImagesIn(int gen) {
+    return store.match(
+        () -> generation(gen).match(() -> 0, IList::length),
+        s -> s.numImages(gen));
+  }
+
+  public Option<IList<argFuncs>> generation(int gen) {
+    if (store.isSome()) {
+      return store.get().generation(gen);
+    }
+
+    IList<IList<argFuncs>> snapshot = generationsNewestFirst;
+    return snapshot.nth(snapshot.length() - 1 - gen);
+  }
+
+  public Option<argFuncs> image(int gen, int img) {
+    if (store.isSome()) {
+      return store.get().image(gen, img);
+    }
+
+    return generation(gen).flatmap(generation -> generation.nth(img));
+  }
+}
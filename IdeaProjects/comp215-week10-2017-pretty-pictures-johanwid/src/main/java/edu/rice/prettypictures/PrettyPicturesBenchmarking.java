@@ -0,0 +1,161 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import edu.rice.util.Log;
+import edu.rice.util.Performance;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+import java.util.function.Function;
+
+import static edu.rice.list.LazyList.rangeInt;
+
+/**
+ * Runs random genomes of increasing depth through each way we have of evaluating a FunctionTree,
+ * and prints CSV of nanoseconds per pixel per node. If evaluating a tree is linear in its size,
+ * each row of numbers should stay roughly flat as the depth grows.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class PrettyPicturesBenchmarking {
+  private static final String TAG = "PrettyPicturesBenchmarking";
+
+  // report the best of this many trials
+  static final int BEST_OF_N = 5;
+
+  // every trial evaluates a square image of this size
+  static final int IMAGE_SIZE = 128;
+
+  // random trees of every depth from 1 up to this
+  static final int MAX_DEPTH = 10;
+
+  // how many different random trees to average over at each depth
+  static final int TREES_PER_DEPTH = 10;
+
+  static final IList<Integer> DEPTHS = rangeInt(1, MAX_DEPTH);
+
+  // the expressions week11test checks every kind of node with: white, black, then each node applied to x, and
+  // again to y
+  private static final Opcode[] WEEK11_OPCODES = {
+      Opcode.NEGATE, Opcode.SINE, Opcode.COSINE, Opcode.ARCTAN, Opcode.ROUND_DOWN, Opcode.ROUND_UP, Opcode.EXPON,
+      Opcode.LOGRM, Opcode.ABS_VAL, Opcode.CLIP, Opcode.WRAP, Opcode.RGB_TO_YCRCB, Opcode.ADD, Opcode.SUBTRACT,
+      Opcode.MULTIPLY, Opcode.DIVIDE, Opcode.DOT_PRODUCT, Opcode.GS_PERLIN, Opcode.PERLIN, Opcode.DISSOLVE };
+  static final IList<argFuncs> WEEK11_EXPRESSIONS = week11Expressions();
+
+  static IList<argFuncs> treesOfDepth(int depth) {
+    Random rng = new Random(depth); // same trees every run
+    return rangeInt(1, TREES_PER_DEPTH).map(i -> Genomes.random(rng, depth)).force();
+  }
+
+  private static IList<argFuncs> week11Expressions() {
+    // built back to front
+    IList<argFuncs> result = List.makeEmpty();
+    for (argFuncs variable : new argFuncs[] {argFuncs.VarY.make(), argFuncs.VarX.make()}) {
+      for (int i = WEEK11_OPCODES.length - 1; i >= 0; i--) {
+        Opcode opcode = WEEK11_OPCODES[i];
+        result = result.add(Genomes.make(opcode, rangeInt(1, opcode.getArity()).map(n -> variable)));
+      }
+    }
+    return result.add(argFuncs.Constant.make(-1, -1, -1)).add(argFuncs.Constant.make(1, 1, 1));
+  }
+
+  // renders one IMAGE_SIZE x IMAGE_SIZE image by calling evaluate() on every pixel
+  static Runnable perPixel(FunctionTree tree) {
+    return () -> {
+      double sum = 0;
+      for (int i = 0; i < IMAGE_SIZE; i++) {
+        for (int j = 0; j < IMAGE_SIZE; j++) {
+          sum += tree.evaluate(i * 2.0 / IMAGE_SIZE - 1, j * 2.0 / IMAGE_SIZE - 1).getRed();
+        }
+      }
+      // keep the JIT from deciding none of this matters
+      if (sum == Double.MIN_VALUE) {
+        Log.i(TAG, "unlikely sum");
+      }
+    };
+  }
+
+  // renders the same image with a single call to evaluateRect()
+  static Runnable wholeImage(FunctionTree tree) {
+    double[] red = new double[IMAGE_SIZE * IMAGE_SIZE];
+    double[] green = new double[IMAGE_SIZE * IMAGE_SIZE];
+    double[] blue = new double[IMAGE_SIZE * IMAGE_SIZE];
+    double delta = 2.0 / IMAGE_SIZE;
+    return () -> tree.evaluateRect(-1, -1, delta, delta, IMAGE_SIZE, IMAGE_SIZE, red, green, blue);
+  }
+
+  static double nanoSecsPerPixelNode(Runnable render, int nodes) {
+    return Performance.nanoBenchmark(render) / ((double) IMAGE_SIZE * IMAGE_SIZE * nodes);
+  }
+
+  static double perfForDepth(Function<argFuncs, Runnable> renderer, int depth) {
+    return treesOfDepth(depth)
+        .map(tree -> {
+          Runnable render = renderer.apply(tree);
+          return rangeInt(1, BEST_OF_N)
+              .map(n -> nanoSecsPerPixelNode(render, Genomes.size(tree)))
+              .foldl(Double.MAX_VALUE, (a, b) -> a < b ? a : b);
+        })
+        .foldl(0.0, (a, b) -> a + b) / TREES_PER_DEPTH;
+  }
+
+  // nanoseconds per pixel for each of a list of trees, like the week 11 test expressions, which are one node
+  // each, or the server's test generation, which combines a few
+  static String expressionsRow(String name, IList<argFuncs> trees, Function<argFuncs, Runnable> renderer) {
+    Log.i(TAG, () -> "starting " + name + " on " + trees.length() + " expressions");
+    return name + "," + trees.map(tree -> {
+      Runnable render = renderer.apply(tree);
+      return String.format("%.3f", rangeInt(1, BEST_OF_N)
+          .map(n -> Performance.nanoBenchmark(render) / ((double) IMAGE_SIZE * IMAGE_SIZE))
+          .foldl(Double.MAX_VALUE, (a, b) -> a < b ? a : b));
+    }).join(",");
+  }
+
+  static String row(String name, Function<argFuncs, Runnable> renderer) {
+    Log.i(TAG, () -> "starting " + name);
+    return name + "," + DEPTHS.map(depth -> String.format("%.4f", perfForDepth(renderer, depth))).join(",");
+  }
+
+  // the tree interpreter against the compiled forms, in nanoseconds per pixel, one column per tree
+  static void expressionsTable(String title, IList<?> headings, IList<argFuncs> trees) {
+    System.out.println(title + "," + headings.join(","));
+    System.out.println(expressionsRow("tree", trees, PrettyPicturesBenchmarking::perPixel));
+    System.out.println(expressionsRow("program rect", trees, tree -> wholeImage(Program.compile(tree))));
+    System.out.println(expressionsRow("bytecode", trees, tree -> perPixel(BytecodeCompiler.compile(tree))));
+    System.out.println(expressionsRow("bytecode rect", trees, tree -> wholeImage(BytecodeCompiler.compile(tree))));
+  }
+
+  /**
+   * Runs the benchmark suite, prints CSV suitable for reading into a spreadsheet.
+   */
+  public static void main(String[] args) {
+    Log.i(TAG, "Pretty pictures evaluation benchmarks");
+
+    System.out.println("Depth," + DEPTHS.join(","));
+    System.out.println("Mean nodes," + DEPTHS.map(depth ->
+        String.format("%.1f", treesOfDepth(depth).foldl(0.0, (a, t) -> a + Genomes.size(t)) / TREES_PER_DEPTH))
+        .join(","));
+    System.out.println("Mean optimized nodes," + DEPTHS.map(depth ->
+        String.format("%.1f", treesOfDepth(depth).foldl(0.0, (a, t) -> a + Optimizer.optimize(t).getSizeAfter())
+            / TREES_PER_DEPTH))
+        .join(","));
+
+    final long runTime = Performance.nanoBenchmark(() -> {
+      System.out.println(row("tree", PrettyPicturesBenchmarking::perPixel));
+      System.out.println(row("program", tree -> perPixel(Program.compile(tree))));
+      System.out.println(row("program rect", tree -> wholeImage(Program.compile(tree))));
+      System.out.println(row("optimized rect",
+          tree -> wholeImage(Program.compile(Optimizer.optimize(tree).getTree()))));
+      System.out.println(row("bytecode rect",
+          tree -> wholeImage(BytecodeCompiler.compile(Optimizer.optimize(tree).getTree()))));
+
+      expressionsTable("Week 11 test", WEEK11_EXPRESSIONS.map(Genomes::toString), WEEK11_EXPRESSIONS);
+      expressionsTable("Test image", rangeInt(0, Genomes.TEST_GENERATION.length() - 1),
+          Genomes.TEST_GENERATION);
+    });
+
+    System.out.println(String.format("Total runtime: %.3fs", 1e-9 * runTime));
+  }
+}
@@ -11,14 +11,29 @@
 package edu.rice.prettypictures;
 
 import edu.rice.image.Images;
+import edu.rice.image.PngEncoder;
+import edu.rice.list.IList;
+import edu.rice.list.List;
 import edu.rice.util.Log;
+import edu.rice.util.Option;
+import edu.rice.util.Try;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
-
 import java.awt.image.BufferedImage;
-import java.nio.Buffer;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import static edu.rice.json.Builders.*;
 import static edu.rice.util.Performance.nanoBenchmarkVal;
 import static edu.rice.util.Strings.stringToTryInteger;
 import static edu.rice.web.Utils.*;
@@ -34,20 +49,55 @@ import static spark.Spark.*;
 public class PrettyPicturesServer {
   private static final String TAG = "PrettyPicturesServer";
 
+  // Every generation so far, the images we've already encoded, and the renderer that makes new ones.
+  // main() swaps in a population kept on disk, under STORE_DIRECTORY unless the prettypictures.store
+  // system property says otherwise, so a restarted server picks up where the last one left off.
+  private static final String STORE_DIRECTORY = "prettyPicturesStore";
+  private static Population population = new Population();
+  private static final RenderCache cache = RenderCache.make();
+  private static final Renderer renderer = Renderer.make();
+
+  // When the browser asks for one image of a generation we haven't drawn yet at that size, draw the
+  // whole generation at once, so the subtrees the images have in common are only evaluated once. The
+  // browser is about to ask for the rest anyway. Requests that arrive while that's going on wait for it.
+  private static final boolean RENDER_WHOLE_GENERATIONS = true;
+  private static final ConcurrentHashMap<String, CompletableFuture<Void>> generationsInProgress =
+      new ConcurrentHashMap<>();
+
+  // Images that have been asked for as previews, and are still being refined. Once one is complete, it
+  // moves to the cache, like any other image.
+  private static final ConcurrentHashMap<RenderCache.Key, ProgressiveImage> previews = new ConcurrentHashMap<>();
+
+  // /reset/ and /breed/ make a generation's genomes in parallel, and each one is queued to be drawn at the
+  // browser's thumbnail size as soon as it exists, as a preview, so by the time the browser asks for the
+  // new thumbnails, they're drawn or being drawn. Making genomes and drawing them have separate pools, so
+  // a new generation's genomes never wait behind the last generation's images. Only the genomes wait in the
+  // queue; each preview's image and program are made when its turn comes. Both pools are bounded, so there are
+  // never more images being drawn ahead at once than there are cores, no matter how often the user breeds.
+  static final int THUMBNAIL_SIZE = 200;
+  static final int MAX_IMAGES = 1000;
+  private static final ExecutorService breedingPool = daemonPool("breeder");
+  private static final ExecutorService thumbnailPool = daemonPool("thumbnails");
+  private static final Breeder breeder = Breeder.make(breedingPool);
+
+  // /animation/ streams a loop of frames, ANIMATION_LOOPS times over, at FRAMES_PER_SECOND, as a multipart
+  // response whose parts are PNGs separated by FRAME_BOUNDARY. Every frame is kept in memory for the later
+  // loops, so animations can't be bigger than MAX_ANIMATION_SIZE across.
+  static final int MAX_ANIMATION_SIZE = 400;
+  private static final int ANIMATION_LOOPS = 5;
+  private static final int FRAMES_PER_SECOND = 24;
+  private static final String FRAME_BOUNDARY = "prettypictureframe";
+
   /**
    * Main entry point for the PrettyPictures web server. Args are ignored.
    */
   public static void main(String[] args) {
+    population = openPopulation();
+
     staticFileLocation("/WebPublic/");
     jsonSparkExceptionHandler(TAG);
     setupDefaultHandlers();
 
-    // Perform setup here, if necessary.
-
-    /* ********************************************
-     * * Write these handlers for the first half. *
-     * ********************************************/
-
     /*
      * POST /test/
      * This handler is used to load the standard test generation.
@@ -59,15 +109,8 @@ public class PrettyPicturesServer {
     post("/test/", (request, response) -> {
       logSparkRequest(TAG, request);
 
-      // HINT: If we got here, that means the user/tester pressed the [ ? ] button.
-
-      // This is when you should set up some state that you'll be using to handle the
-      // subsequent image requests. Build whatever data structure you're going to have to
-      // represent your generations, then return the specific JSON structure defined above,
-      // which you'll be returning in many instances.
-
-      Log.e(TAG, "/test/ route not implemented yet");
-      return "";
+      population.reset(Genomes.TEST_GENERATION);
+      return generationsResponse(0);
     });
 
     /*
@@ -75,53 +118,214 @@ public class PrettyPicturesServer {
      * This handler is used to request a specific image from a specific generation.
      * Return image number :img from generation number :gen as a :width by :height png.
      *
-     * Hint: Remember that Images.imageToPng returns a Try<byte[]>, and so you will
-     *   need to get() the byte[] out of the Try<>. Remember also to set the response
-     *   type to "image/png".
-     *
-     * For part 1, you only need to support "generation 0". For part 2, you will be supporting
-     * crossbreeding and thus multiple generations.
+     * Encoded images are cached by genome and size, so flipping back and forth between generations
+     * doesn't render anything twice. Images that aren't cached yet are streamed to the browser a strip
+     * at a time, as they're rendered and compressed, with a copy kept on the side for the cache.
+     */
+    get("/image/gen/:gen/img/:img/height/:height/width/:width/", (request, response) -> {
+      final int gen = stringToTryInteger(request.params().get(":gen")).getOrElse(-1);
+      final int img = stringToTryInteger(request.params().get(":img")).getOrElse(-1);
+      final int widthParam = stringToTryInteger(request.params().get(":width")).getOrElse(1);
+      final int heightParam = stringToTryInteger(request.params().get(":height")).getOrElse(1);
+
+      final int width = (widthParam < 1) ? 1 : widthParam;
+      final int height = (heightParam < 1) ? 1 : heightParam;
+
+      Option<argFuncs> genome = population.image(gen, img);
+      if (genome.isNone()) {
+        response.status(404);
+        return String.format("no image %d in generation %d", img, gen);
+      }
+
+      // anything bigger than a thumbnail is a zoomed-in view of one image, where aliasing shows, so it's drawn
+      // by itself, antialiased
+      final boolean antialiased = isAntialiased(width, height);
+      Option<byte[]> cached = cache.oget(genome.get(), width, height);
+      if (cached.isNone() && !antialiased) {
+        // if it's already being drawn as a preview, don't start over; wait for that to finish
+        ProgressiveImage preview = previews.get(new RenderCache.Key(genome.get(), width, height));
+        if (preview != null) {
+          // it may only be queued to be drawn ahead, so make sure it's actually being drawn
+          preview.start();
+          BufferedImage finished = preview.finished().join();
+          cached = cache.oget(genome.get(), width, height)
+              .orElse(() -> Images.imageToPng(finished, PngEncoder.FAST).toOption());
+        }
+      }
+      if (cached.isNone() && !antialiased && RENDER_WHOLE_GENERATIONS && population.numImagesIn(gen) > 1) {
+        renderGeneration(gen, width, height).join();
+        cached = cache.oget(genome.get(), width, height);
+      }
+      if (cached.isSome()) {
+        response.type("image/png");
+        return cached.get();
+      }
+
+      // either we're drawing one image at a time, or the cache has already let go of this one
+
+      final Optimizer.Result optimized = Optimizer.optimize(genome.get());
+      final Program program = Program.compile(optimized.getTree());
+      final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+      final OutputStream output = new TeeOutputStream(pngResponseStream(response), copy);
+
+      return nanoBenchmarkVal(
+          () -> Images.writePng(image, (top, bottom) -> {
+            if (antialiased) {
+              renderer.renderAntialiased(program, image, top, bottom, Renderer.DEFAULT_CONTRAST);
+            } else {
+              renderer.render(program, image, top, bottom);
+            }
+          }, output, PngEncoder.FAST))
+          .match((time, result) -> {
+            Log.i(TAG, () -> String.format("gen %d img %d: %dx%d image in %.3fms, %s, %s",
+                gen, img, width, height, 1e-6 * time, optimized, cache));
+            // Engineering note: by the time writing fails, the headers and some of the PNG are probably already
+            // on their way, so it's too late to change the status. All we can do is stop, and not cache the image.
+            if (result.isSuccess()) {
+              cache.put(genome.get(), width, height, copy.toByteArray());
+            } else {
+              Log.e(TAG, () -> String.format("gen %d img %d: failed streaming a %dx%d image", gen, img, width, height));
+            }
+            return "";
+          });
+    });
+
+    /*
+     * GET /preview/gen/:gen/img/:img/height/:height/width/:width/
+     * The same image as /image/, but as much of it as is ready right now, which is never less than a
+     * coarse version at 1/8th the resolution. The first request starts refining the image in the
+     * background, so the browser can show the preview straight away, and then ask /image/ for the real
+     * thing. A finished preview of a thumbnail is the real thing, so it goes in the cache; bigger ones
+     * aren't antialiased, as /image/ would draw them, so they don't.
+     */
+    get("/preview/gen/:gen/img/:img/height/:height/width/:width/", (request, response) -> {
+      final int gen = stringToTryInteger(request.params().get(":gen")).getOrElse(-1);
+      final int img = stringToTryInteger(request.params().get(":img")).getOrElse(-1);
+      final int width = Math.max(1, stringToTryInteger(request.params().get(":width")).getOrElse(1));
+      final int height = Math.max(1, stringToTryInteger(request.params().get(":height")).getOrElse(1));
+
+      Option<argFuncs> genome = population.image(gen, img);
+      if (genome.isNone()) {
+        response.status(404);
+        return String.format("no image %d in generation %d", img, gen);
+      }
+
+      Option<byte[]> cached = cache.oget(genome.get(), width, height);
+      if (cached.isSome()) {
+        response.type("image/png");
+        return cached.get();
+      }
+
+      final ProgressiveImage preview = preview(genome.get(), width, height);
+      return nanoBenchmarkVal(() -> {
+        preview.start();
+        return Images.imageToPng(preview.snapshot(), PngEncoder.FAST);
+      }).match((time, result) -> {
+        Log.i(TAG, () -> String.format("gen %d img %d: %dx%d preview, refined to 1/%d resolution so far, in %.3fms",
+            gen, img, width, height, preview.getStride(), 1e-6 * time));
+        if (result.isFailure()) {
+          response.status(500);
+          return "";
+        }
+        response.type("image/png");
+        return result.get();
+      });
+    });
+
+    /*
+     * GET /animation/gen/:gen/img/:img/height/:height/width/:width/
+     * The same image as /image/, animated: time (the t in the genome) goes from -1 to 1 and wraps around,
+     * over a loop of frames. The frames are streamed as "multipart/x-mixed-replace", one PNG per part, the
+     * way webcams stream MJPEG, so an <img> shows each frame as it arrives. The loop plays a few times, then
+     * the response ends on its last frame. Only the first loop is drawn, and only the parts of the genome that
+     * depend on time are evaluated again for each frame after the first (see Animation). A genome without a
+     * t is sent as a single frame.
      */
+    get("/animation/gen/:gen/img/:img/height/:height/width/:width/", (request, response) -> {
+      final int gen = stringToTryInteger(request.params().get(":gen")).getOrElse(-1);
+      final int img = stringToTryInteger(request.params().get(":img")).getOrElse(-1);
+      final int width = Math.min(MAX_ANIMATION_SIZE,
+          Math.max(1, stringToTryInteger(request.params().get(":width")).getOrElse(1)));
+      final int height = Math.min(MAX_ANIMATION_SIZE,
+          Math.max(1, stringToTryInteger(request.params().get(":height")).getOrElse(1)));
 
-//    get("/image/gen/:gen/img/:img/height/:height/width/:width/", (request, response) -> {
-//
-//      final int widthParam = stringToTryInteger(request.params().get(":width")).getOrElse(1);
-//      final int heightParam = stringToTryInteger(request.params().get(":height")).getOrElse(1);
-//
-//      final int width = (widthParam < 1) ? 1 : widthParam;
-//      final int height = (heightParam < 1) ? 1 : heightParam;
-//
-//      // making the squares
-//
-//
-//
-//      return nanoBenchmarkVal(
-//          () -> {
-//
-//          })
-//          .match((time, result) -> {
-//            Log.i(TAG, String.format("checkers: made %dx%d image in %.3fms", width, height, 1e-6 * time));
-//            response.type("image/png");
-//            return result;
-//          });
-//    });
-
-    /* *********************************************
-     * * Write these handlers for the second half. *
-     * *********************************************/
+      Option<argFuncs> genome = population.image(gen, img);
+      if (genome.isNone()) {
+        response.status(404);
+        return String.format("no image %d in generation %d", img, gen);
+      }
+
+      final Animation animation = Animation.make(renderer, Optimizer.optimize(genome.get()).getTree(), width, height);
+      final int frames = animation.isAnimated() ? animation.getFrames() : 1;
+      final int parts = animation.isAnimated() ? frames * ANIMATION_LOOPS : 1;
+      final byte[][] encoded = new byte[frames][];
+      response.type("multipart/x-mixed-replace; boundary=" + FRAME_BOUNDARY);
+      final OutputStream output = response.raw().getOutputStream();
+
+      return nanoBenchmarkVal(() -> Try.ofRunnable(() -> {
+        long due = System.nanoTime();
+        for (int part = 0; part < parts; part++) {
+          int frame = part % frames;
+          if (encoded[frame] == null) {
+            encoded[frame] = Images.imageToPng(animation.frame(frame), PngEncoder.FAST).getOrElseThrow();
+          }
+
+          long wait = due - System.nanoTime();
+          if (wait > 0) {
+            Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+          }
+          writeFrame(output, encoded[frame]);
+          due += 1_000_000_000L / FRAMES_PER_SECOND;
+        }
+      })).match((time, result) -> {
+        // the browser hanging up partway through is how most animations end
+        Log.i(TAG, () -> String.format("gen %d img %d: %dx%d animation, %d frames, %s, %s, in %.3fms",
+            gen, img, width, height, frames, animation.isCached() ? "cached" : "not cached",
+            result.isSuccess() ? "played to the end" : "stopped early: " + result.getException(), 1e-6 * time));
+        return "";
+      });
+    });
 
     /*
      * GET /string/gen/:gen/img/:img/
      * This handler is used to print the internal structure of your image functions.
      * Return a string representation of image number :image from generation number :gen.
      */
+    get("/string/gen/:gen/img/:img/", (request, response) -> {
+      final int gen = stringToTryInteger(request.params().get(":gen")).getOrElse(-1);
+      final int img = stringToTryInteger(request.params().get(":img")).getOrElse(-1);
+
+      return population.image(gen, img).match(
+          () -> {
+            response.status(404);
+            return String.format("no image %d in generation %d", img, gen);
+          },
+          Genomes::toString);
+    });
 
     /*
      * GET /client-init/
      * This handler is used to initialize the breeder client with information about the server.
      * Return a JSON response as in POST /test/.
      */
+    get("/client-init/", (request, response) -> {
+      logSparkRequest(TAG, request);
+
+      return generationsResponse(population.numGenerations() - 1);
+    });
 
+    /*
+     * GET /cache/
+     * Hit and miss counts for the image cache, so we can see whether it's earning its keep.
+     */
+    get("/cache/", (request, response) ->
+        jobject(jpair("response", jobject(
+            jpair("hits", cache.getHits()),
+            jpair("misses", cache.getMisses()),
+            jpair("entries", cache.size()),
+            jpair("bytes", cache.getTotalBytes()),
+            jpair("maxBytes", cache.getMaxBytes())))).toString());
 
     /*
      * POST /reset/:count/
@@ -129,17 +333,224 @@ public class PrettyPicturesServer {
      * Reset the stored generations to a new, randomly generated first generation with :count images.
      * Return a JSON response as in POST /test/.
      */
+    post("/reset/:count/", (request, response) -> {
+      logSparkRequest(TAG, request);
+
+      final int count = stringToTryInteger(request.params().get(":count")).getOrElse(0);
+      if (count < 1 || count > MAX_IMAGES) {
+        response.status(400);
+        return String.format("can't make a generation of %d images", count);
+      }
+
+      return nanoBenchmarkVal(() -> breeder.random(count, PrettyPicturesServer::drawAhead))
+          .match((time, generation) -> {
+            population.reset(generation);
+            Log.i(TAG, () -> String.format("reset: %d random images in %.3fms", count, 1e-6 * time));
+            return generationsResponse(0);
+          });
+    });
 
     /*
      * POST /breed/oldgen/:oldgen/img/*
      * This handler is used to breed a new generation from a previous one.
      * Create a new generation bred from generation :olggen using the images in *.
      * Return a JSON response as in POST /test/.
+     *
+     * The new generation has as many images as the old one: the parents first, then their children. Any
+     * generations that came after :oldgen are dropped.
      */
+    post("/breed/oldgen/:oldgen/img/*", (request, response) -> {
+      logSparkRequest(TAG, request);
+
+      final int oldgen = stringToTryInteger(request.params().get(":oldgen")).getOrElse(-1);
+      final String[] splat = request.splat();
+      final String[] imgs = (splat.length > 0) ? splat[0].split("/") : new String[0];
+
+      // built back to front, so the parents stay in the order they were picked
+      IList<argFuncs> parents = List.makeEmpty();
+      for (int i = imgs.length - 1; i >= 0; i--) {
+        int img = stringToTryInteger(imgs[i]).getOrElse(-1);
+        Option<argFuncs> parent = population.image(oldgen, img);
+        if (parent.isSome()) {
+          parents = parents.add(parent.get());
+        }
+      }
+
+      if (parents.length() < 2) {
+        response.status(400);
+        return String.format("need at least two images from generation %d to breed", oldgen);
+      }
+
+      final int count = population.numImagesIn(oldgen);
+      final IList<argFuncs> finalParents = parents;
+      return nanoBenchmarkVal(() -> breeder.breed(finalParents, count, PrettyPicturesServer::drawAhead))
+          .match((time, generation) -> {
+            int newgen = population.addAfter(oldgen, generation);
+            Log.i(TAG, () -> String.format("gen %d: bred %d images from %d parents in gen %d in %.3fms",
+                newgen, count, finalParents.length(), oldgen, 1e-6 * time));
+            return generationsResponse(newgen);
+          });
+    });
 
     launchBrowser("http://localhost:4567/prettyPictures/");
   }
 
+  /**
+   * Renders every image of the generation at the given size in one pass, with {@link
+   * Renderer#renderAll(IList, int, int)}, and puts their encodings in the cache. Concurrent requests for
+   * the same generation and size share one render.
+   */
+  private static CompletableFuture<Void> renderGeneration(int gen, int width, int height) {
+    String key = gen + ":" + width + "x" + height;
+    CompletableFuture<Void> future = new CompletableFuture<>();
+    CompletableFuture<Void> inProgress = generationsInProgress.putIfAbsent(key, future);
+    if (inProgress != null) {
+      return inProgress;
+    }
+
+    IList<argFuncs> genomes = population.generation(gen).getOrElse(List.makeEmpty());
+    try {
+      nanoBenchmarkVal(() -> {
+        IList<Optimizer.Result> optimized = genomes.map(Optimizer::optimize);
+        IList<BufferedImage> images = renderer.renderAll(optimized.map(Optimizer.Result::getTree), width, height);
+        IList<BufferedImage> imagesLeft = images;
+        for (IList<argFuncs> rest = genomes; !rest.empty(); rest = rest.tail(), imagesLeft = imagesLeft.tail()) {
+          argFuncs genome = rest.head();
+          Images.imageToPng(imagesLeft.head(), PngEncoder.FAST)
+              .logIfFailure(TAG, err -> "failed to encode an image: " + err)
+              .andThen(bytes -> cache.put(genome, width, height, bytes));
+        }
+        return optimized;
+      }).match((time, optimized) -> {
+        Log.i(TAG, () -> String.format("gen %d: %d %dx%d images in %.3fms, %d -> %d nodes, %s",
+            gen, genomes.length(), width, height, 1e-6 * time,
+            optimized.foldl(0, (sum, result) -> sum + result.getSizeBefore()),
+            optimized.foldl(0, (sum, result) -> sum + result.getSizeAfter()), cache));
+        return optimized;
+      });
+    } finally {
+      // if anything went wrong, the waiting requests fall back to drawing their own images
+      generationsInProgress.remove(key);
+      future.complete(null);
+    }
+
+    return future;
+  }
+
+  /**
+   * Queues the genome to be drawn at thumbnail size. Its preview isn't made until its turn comes, so the
+   * queue only holds genomes, not images. By then, a request may already have started the preview, or even
+   * put the finished image in the cache, and then there's nothing left to do.
+   */
+  private static void drawAhead(argFuncs genome) {
+    thumbnailPool.execute(() -> Try.ofRunnable(() -> {
+      if (!cache.contains(genome, THUMBNAIL_SIZE, THUMBNAIL_SIZE)) {
+        preview(genome, THUMBNAIL_SIZE, THUMBNAIL_SIZE).start(Runnable::run);
+      }
+    }).logIfFailure(TAG, err -> "failed to draw an image ahead: " + err));
+  }
+
+  /**
+   * Sends one frame of an animation as the next part of a multipart/x-mixed-replace response.
+   */
+  private static void writeFrame(OutputStream output, byte[] png) throws IOException {
+    output.write(String.format("--%s\r\nContent-Type: image/png\r\nContent-Length: %d\r\n\r\n",
+        FRAME_BOUNDARY, png.length).getBytes(StandardCharsets.US_ASCII));
+    output.write(png);
+    output.write("\r\n".getBytes(StandardCharsets.US_ASCII));
+    output.flush();
+  }
+
+  private static ExecutorService daemonPool(String name) {
+    return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  private static Population openPopulation() {
+    Path directory = Paths.get(System.getProperty("prettypictures.store", STORE_DIRECTORY));
+    return GenerationStore.open(directory)
+        .logIfFailure(TAG, err -> "can't open " + directory + ", so nothing will be saved: " + err)
+        .match(err -> new Population(), store -> {
+          Log.i(TAG, () -> String.format("generations are in %s, which has %d of them",
+              directory.toAbsolutePath(), store.numGenerations()));
+          return Population.make(store);
+        });
+  }
+
+  /**
+   * Whether /image/ draws an image of this size antialiased, which is whenever it's bigger than a thumbnail.
+   * The cache only ever has what /image/ would draw at each size, so a preview, which isn't antialiased, is
+   * only cached, or waited for in place of the real thing, when it's no bigger than a thumbnail.
+   */
+  private static boolean isAntialiased(int width, int height) {
+    return width > THUMBNAIL_SIZE || height > THUMBNAIL_SIZE;
+  }
+
+  /**
+   * The progressive image for this genome at this size, making a new one if it isn't already being drawn.
+   * When it's finished, it goes out of the map of previews, and into the cache, unless it's {@link
+   * #isAntialiased(int, int) too big} to be what /image/ would draw.
+   */
+  private static ProgressiveImage preview(argFuncs genome, int width, int height) {
+    return previews.computeIfAbsent(new RenderCache.Key(genome, width, height), k -> {
+      Program program = Program.compile(Optimizer.optimize(genome).getTree());
+      ProgressiveImage preview = ProgressiveImage.make(renderer, program, width, height);
+      preview.finished().whenComplete((image, err) -> {
+        if (image != null && !isAntialiased(width, height)) {
+          Images.imageToPng(image, PngEncoder.FAST)
+              .logIfFailure(TAG, e -> "failed to encode an image: " + e)
+              .andThen(bytes -> cache.put(genome, width, height, bytes));
+        }
+        previews.remove(k);
+      });
+      return preview;
+    });
+  }
+
+  /**
+   * Writes everything to two streams at once: the browser, and a copy for the cache.
+   */
+  private static final class TeeOutputStream extends FilterOutputStream {
+    private final OutputStream copy;
+
+    TeeOutputStream(OutputStream out, OutputStream copy) {
+      super(out);
+      this.copy = copy;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      copy.write(b);
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+      out.write(bytes, offset, length);
+      copy.write(bytes, offset, length);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+      copy.flush();
+    }
+  }
+
+  /**
+   * The JSON structure that /test/, /client-init/, /reset/, and /breed/ all return, describing the
+   * generations we have and which one the client should show.
+   */
+  private static String generationsResponse(int currentGeneration) {
+    return jobject(jpair("response", jobject(
+        jpair("numGenerations", population.numGenerations()),
+        jpair("currentGeneration", Math.max(currentGeneration, 0)),
+        jpair("numImages", population.numImages())))).toString();
+  }
+
   /**
    * You shouldn't need to worry about these handlers. When our JavaScript, running in the browser,
    * wants to log something, it will call these handlers, so the log data shows up in your Java log.
@@ -0,0 +1,1273 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A FunctionTree lowered into a flat list of instructions over primitive double registers. Every
+ * node of the tree becomes one instruction, reading the registers of its children and writing its
+ * own, so evaluating a pixel is a single loop over an int array with no virtual calls and no
+ * allocation. The arithmetic for each opcode is exactly the arithmetic in the matching argFuncs
+ * class, so a Program gives the same Coord, bit for bit, as the tree it came from.
+ *
+ * <p>Each register holds three doubles (red, green, blue), stored next to each other in a
+ * double[] that the caller gets from {@link #newRegisters()} and reuses from pixel to pixel.
+ *
+ * <p>Nodes that compute the same thing (same opcode, same constant, same children) share one
+ * instruction, whether or not they're the same object, so a subtree that shows up in several places
+ * is only evaluated once per pixel. A program can also have several outputs, one for each of a list of
+ * trees (see {@link #compileAll(IList)}), so that a whole generation of images evaluates the subtrees
+ * they have in common only once.
+ *
+ * <p>A tree with {@link argFuncs.VarT} in it is an animation, and its program takes the time of the frame as a
+ * third input. Most of an animated tree usually doesn't depend on time, so the program keeps track of which
+ * instructions do: drawing a series of frames with a {@link TimeCache} evaluates everything else once, for
+ * the first frame, and from then on only runs the instructions that see the time.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public final class Program implements FunctionTree {
+  // instruction set; every instruction is INSN_WIDTH ints: opcode, destination, then up to three sources
+  static final int OP_X = 0;
+  static final int OP_Y = 1;
+  static final int OP_CALL = 2;
+  static final int OP_NEGATE = 3;
+  static final int OP_SINE = 4;
+  static final int OP_ROUND_DOWN = 5;
+  static final int OP_ROUND_UP = 6;
+  static final int OP_COSINE = 7;
+  static final int OP_ARCTAN = 8;
+  static final int OP_EXPON = 9;
+  static final int OP_LOGRM = 10;
+  static final int OP_ABS_VAL = 11;
+  static final int OP_CLIP = 12;
+  static final int OP_WRAP = 13;
+  static final int OP_RGB_TO_YCRCB = 14;
+  static final int OP_YCRCB_TO_RGB = 15;
+  static final int OP_ADD = 16;
+  static final int OP_SUBTRACT = 17;
+  static final int OP_MULTIPLY = 18;
+  static final int OP_DIVIDE = 19;
+  static final int OP_DOT_PRODUCT = 20;
+  static final int OP_EXTERNAL = 21;
+  static final int OP_GS_PERLIN = 22;
+  static final int OP_PERLIN = 23;
+  static final int OP_DISSOLVE = 24;
+  static final int OP_T = 25;
+  static final int OP_IMAGE_SAMPLE = 26;
+
+  static final int INSN_WIDTH = 5;
+
+  private final int[] code;
+  private final double[] initialRegisters;
+  private final FunctionTree[] calls;
+  private final int[] results;
+  private final int result; // results[0], which is what evaluate() returns
+
+  // the instructions split in two, in the same order: those that see the time, directly or through their
+  // arguments, and those that don't. cachedRegisters are the time-invariant registers the first kind reads
+  // (or the program outputs), which are all a TimeCache has to hold on to from frame to frame
+  private final int[] invariantCode;
+  private final int[] timeCode;
+  private final int[] cachedRegisters;
+  private final boolean dependsOnTime;
+
+  private Program(int[] code, double[] initialRegisters, FunctionTree[] calls, int[] results) {
+    this.code = code;
+    this.initialRegisters = initialRegisters;
+    this.calls = calls;
+    this.results = results;
+    this.result = results[0];
+
+    boolean[] timed = new boolean[initialRegisters.length / 3];
+    boolean[] needed = new boolean[timed.length];
+    int timedLength = 0;
+    for (int pc = 0; pc < code.length; pc += INSN_WIDTH) {
+      boolean sees = code[pc] == OP_T;
+      for (int i = 0; i < argumentCount(code[pc]); i++) {
+        sees |= timed[code[pc + 2 + i]];
+      }
+      if (sees) {
+        timed[code[pc + 1]] = true;
+        timedLength += INSN_WIDTH;
+        for (int i = 0; i < argumentCount(code[pc]); i++) {
+          needed[code[pc + 2 + i]] = true;
+        }
+      }
+    }
+    for (int r : results) {
+      needed[r] = true;
+    }
+
+    // constants are never written, so the Workspace already has them, and there's nothing to cache
+    boolean[] written = new boolean[timed.length];
+    for (int pc = 0; pc < code.length; pc += INSN_WIDTH) {
+      written[code[pc + 1]] = true;
+    }
+
+    this.invariantCode = new int[code.length - timedLength];
+    this.timeCode = new int[timedLength];
+    int invariantLength = 0;
+    timedLength = 0;
+    for (int pc = 0; pc < code.length; pc += INSN_WIDTH) {
+      if (timed[code[pc + 1]]) {
+        System.arraycopy(code, pc, timeCode, timedLength, INSN_WIDTH);
+        timedLength += INSN_WIDTH;
+      } else {
+        System.arraycopy(code, pc, invariantCode, invariantLength, INSN_WIDTH);
+        invariantLength += INSN_WIDTH;
+      }
+    }
+
+    int cached = 0;
+    for (int reg = 0; reg < timed.length; reg++) {
+      if (needed[reg] && written[reg] && !timed[reg]) {
+        cached++;
+      }
+    }
+    this.cachedRegisters = new int[cached];
+    cached = 0;
+    for (int reg = 0; reg < timed.length; reg++) {
+      if (needed[reg] && written[reg] && !timed[reg]) {
+        cachedRegisters[cached++] = reg;
+      }
+    }
+
+    boolean anyTimed = false;
+    for (int r : results) {
+      anyTimed |= timed[r];
+    }
+    this.dependsOnTime = anyTimed;
+  }
+
+  // how many of an instruction's source registers it actually reads
+  private static int argumentCount(int op) {
+    switch (op) {
+      case OP_X:
+      case OP_Y:
+      case OP_T:
+      case OP_CALL:
+        return 0;
+      case OP_ADD:
+      case OP_SUBTRACT:
+      case OP_MULTIPLY:
+      case OP_DIVIDE:
+      case OP_DOT_PRODUCT:
+      case OP_PERLIN:
+      case OP_IMAGE_SAMPLE:
+        return 2;
+      case OP_DISSOLVE:
+        return 3;
+      default:
+        return 1;
+    }
+  }
+
+  /**
+   * Lowers the given tree into a Program. Any argFuncs tree can be compiled completely; any other
+   * kind of FunctionTree becomes a single instruction that calls back into its evaluate method.
+   * If the same node object appears more than once in the tree, it's only evaluated once.
+   */
+  public static Program compile(FunctionTree tree) {
+    if (tree instanceof Program) {
+      return (Program) tree;
+    }
+    if (tree instanceof BytecodeCompiler.Compiled) {
+      return ((BytecodeCompiler.Compiled) tree).getProgram();
+    }
+
+    Builder builder = new Builder();
+    int result = builder.lower(tree);
+    return builder.build(new int[] {result});
+  }
+
+  /**
+   * Lowers a whole list of trees into one Program, with one output per tree, in order. Anything the
+   * trees have in common is computed once, for all of them. {@link #evaluate(double, double)} gives the
+   * first tree's output; use {@link #evaluateRect(double, double, double, double, int, int, int, int,
+   * double[][], double[][], double[][], Workspace)} to get all of them.
+   */
+  public static Program compileAll(IList<? extends FunctionTree> trees) {
+    if (trees.empty()) {
+      throw new IllegalArgumentException("nothing to compile");
+    }
+
+    Builder builder = new Builder();
+    int[] results = new int[trees.length()];
+    int i = 0;
+    for (IList<? extends FunctionTree> rest = trees; !rest.empty(); rest = rest.tail()) {
+      results[i++] = builder.lower(rest.head());
+    }
+    return builder.build(results);
+  }
+
+  /**
+   * Lowers a list of trees into several Programs, like {@link #compileAll(IList)}, but starting a new program
+   * whenever the current one reaches maxRegisters registers. Subtrees are only shared between trees in the same
+   * program. The programs' outputs, taken in order, are one per tree, in the same order as the trees.
+   *
+   * <p>A {@link Workspace} takes a whole block of doubles for every channel of every register, so this is how to
+   * keep the workspace for a big generation from growing without bound: a program only goes over maxRegisters by
+   * however many registers its last tree added, and a single tree bigger than that gets a program of its own.
+   */
+  public static IList<Program> compileBatches(IList<? extends FunctionTree> trees, int maxRegisters) {
+    if (maxRegisters < 1) {
+      throw new IllegalArgumentException("need at least one register per program: " + maxRegisters);
+    }
+
+    ArrayList<Program> programs = new ArrayList<>();
+    Builder builder = new Builder();
+    int[] results = new int[trees.length()];
+    int count = 0;
+    for (IList<? extends FunctionTree> rest = trees; !rest.empty(); rest = rest.tail()) {
+      results[count++] = builder.lower(rest.head());
+      if (builder.registerCount >= maxRegisters || rest.tail().empty()) {
+        programs.add(builder.build(Arrays.copyOf(results, count)));
+        builder = new Builder();
+        count = 0;
+      }
+    }
+
+    // built back to front, so the list comes out in order without recursing
+    IList<Program> result = List.makeEmpty();
+    for (int i = programs.size() - 1; i >= 0; i--) {
+      result = result.add(programs.get(i));
+    }
+    return result;
+  }
+
+  /**
+   * Makes a fresh set of registers for this program, with the constants already loaded. Give each
+   * thread its own set, and reuse it for every pixel that thread evaluates.
+   */
+  public double[] newRegisters() {
+    return initialRegisters.clone();
+  }
+
+  /**
+   * Number of instructions in the program.
+   */
+  public int size() {
+    return code.length / INSN_WIDTH;
+  }
+
+  /**
+   * Number of outputs: one for each tree given to {@link #compileAll(IList)}, or just one.
+   */
+  public int outputCount() {
+    return results.length;
+  }
+
+  /**
+   * Number of registers the program uses.
+   */
+  public int registerCount() {
+    return initialRegisters.length / 3;
+  }
+
+  /**
+   * Whether any output changes with time, which is to say whether the tree is an animation.
+   */
+  public boolean dependsOnTime() {
+    return dependsOnTime;
+  }
+
+  /**
+   * Number of instructions that have to run again for every frame of an animation, when the rest come from a
+   * {@link TimeCache}.
+   */
+  public int timeDependentSize() {
+    return timeCode.length / INSN_WIDTH;
+  }
+
+  // for BytecodeCompiler, which turns the same instructions into a class of their own; not to be modified
+  int[] instructions() {
+    return code;
+  }
+
+  double[] initialRegisters() {
+    return initialRegisters;
+  }
+
+  int result() {
+    return result;
+  }
+
+  /**
+   * Evaluates the program at (x, y) using the given registers (from {@link #newRegisters()}), then
+   * copies the red, green, and blue results into rgb[offset], rgb[offset + 1], and rgb[offset + 2].
+   */
+  public void evaluate(double x, double y, double[] regs, double[] rgb, int offset) {
+    run(x, y, 0, regs);
+    int r = result * 3;
+    rgb[offset] = regs[r];
+    rgb[offset + 1] = regs[r + 1];
+    rgb[offset + 2] = regs[r + 2];
+  }
+
+  /**
+   * Evaluates the program at (x, y), same as {@link #evaluate(double, double, double[], double[], int)},
+   * and packs the result into an RGB int, just like {@link Coord#getRGB()}.
+   */
+  public int evaluateRGB(double x, double y, double[] regs) {
+    run(x, y, 0, regs);
+    int r = result * 3;
+    return Coord.toRGB(regs[r], regs[r + 1], regs[r + 2]);
+  }
+
+  @Override
+  public Coord evaluate(double x, double y) {
+    return evaluate(x, y, 0);
+  }
+
+  @Override
+  public Coord evaluate(double x, double y, double t) {
+    double[] regs = newRegisters();
+    run(x, y, t, regs);
+    int r = result * 3;
+    return new Coord(regs[r], regs[r + 1], regs[r + 2]);
+  }
+
+  private void run(double x, double y, double t, double[] regs) {
+    final int[] code = this.code;
+
+    for (int pc = 0; pc < code.length; pc += INSN_WIDTH) {
+      final int d = code[pc + 1] * 3;
+      final int a = code[pc + 2] * 3;
+      final int b = code[pc + 3] * 3;
+
+      switch (code[pc]) {
+        case OP_X:
+          regs[d] = x;
+          regs[d + 1] = x;
+          regs[d + 2] = x;
+          break;
+
+        case OP_Y:
+          regs[d] = y;
+          regs[d + 1] = y;
+          regs[d + 2] = y;
+          break;
+
+        case OP_T:
+          regs[d] = t;
+          regs[d + 1] = t;
+          regs[d + 2] = t;
+          break;
+
+        case OP_CALL: {
+          Coord c = calls[code[pc + 2]].evaluate(x, y);
+          regs[d] = c.getRed();
+          regs[d + 1] = c.getGreen();
+          regs[d + 2] = c.getBlue();
+          break;
+        }
+
+        case OP_NEGATE:
+          regs[d] = regs[a] * -1;
+          regs[d + 1] = regs[a + 1] * -1;
+          regs[d + 2] = regs[a + 2] * -1;
+          break;
+
+        case OP_SINE:
+          regs[d] = Math.sin(regs[a]);
+          regs[d + 1] = Math.sin(regs[a + 1]);
+          regs[d + 2] = Math.sin(regs[a + 2]);
+          break;
+
+        case OP_ROUND_DOWN:
+          regs[d] = Math.floor(regs[a]);
+          regs[d + 1] = Math.floor(regs[a + 1]);
+          regs[d + 2] = Math.floor(regs[a + 2]);
+          break;
+
+        case OP_ROUND_UP:
+          regs[d] = Math.ceil(regs[a]);
+          regs[d + 1] = Math.ceil(regs[a + 1]);
+          regs[d + 2] = Math.ceil(regs[a + 2]);
+          break;
+
+        case OP_COSINE:
+          regs[d] = Math.cos(regs[a]);
+          regs[d + 1] = Math.cos(regs[a + 1]);
+          regs[d + 2] = Math.cos(regs[a + 2]);
+          break;
+
+        case OP_ARCTAN:
+          regs[d] = Math.atan(regs[a]);
+          regs[d + 1] = Math.atan(regs[a + 1]);
+          regs[d + 2] = Math.atan(regs[a + 2]);
+          break;
+
+        case OP_EXPON:
+          regs[d] = clip(Math.exp(regs[a]));
+          regs[d + 1] = clip(Math.exp(regs[a + 1]));
+          regs[d + 2] = clip(Math.exp(regs[a + 2]));
+          break;
+
+        case OP_LOGRM:
+          regs[d] = Math.log(regs[a]);
+          regs[d + 1] = Math.log(regs[a + 1]);
+          regs[d + 2] = Math.log(regs[a + 2]);
+          break;
+
+        case OP_ABS_VAL:
+          regs[d] = Math.log(abs(regs[a]));
+          regs[d + 1] = Math.log(abs(regs[a + 1]));
+          regs[d + 2] = Math.log(abs(regs[a + 2]));
+          break;
+
+        case OP_CLIP:
+          regs[d] = clip(regs[a]);
+          regs[d + 1] = clip(regs[a + 1]);
+          regs[d + 2] = clip(regs[a + 2]);
+          break;
+
+        case OP_WRAP:
+          regs[d] = wrap(regs[a]);
+          regs[d + 1] = wrap(regs[a + 1]);
+          regs[d + 2] = wrap(regs[a + 2]);
+          break;
+
+        case OP_RGB_TO_YCRCB: {
+          double r = regs[a];
+          double g = regs[a + 1];
+          double bl = regs[a + 2];
+          regs[d] = (r * 0.299) + (g * 0.587) + (bl * 0.114);
+          regs[d + 1] = (r * 0.500) + (g * -0.419) + (bl * -0.081);
+          regs[d + 2] = (r * -0.619) + (g * -0.331) + (bl * 0.500);
+          break;
+        }
+
+        case OP_YCRCB_TO_RGB: {
+          double yo = regs[a];
+          double cr = regs[a + 1];
+          double cb = regs[a + 2];
+          regs[d] = (yo * 1.000) + (yo * 1.400) + (yo * 0.000);
+          regs[d + 1] = (cr * 1.000) + (cr * -0.711) + (cr * -0.343);
+          regs[d + 2] = (cb * 1.000) + (cb * 0.000) + (cb * 1.765);
+          break;
+        }
+
+        case OP_ADD:
+          regs[d] = clip(regs[a] + regs[b]);
+          regs[d + 1] = clip(regs[a + 1] + regs[b + 1]);
+          regs[d + 2] = clip(regs[a + 2] + regs[b + 2]);
+          break;
+
+        case OP_SUBTRACT:
+          regs[d] = clip(regs[a] - regs[b]);
+          regs[d + 1] = clip(regs[a + 1] - regs[b + 1]);
+          regs[d + 2] = clip(regs[a + 2] - regs[b + 2]);
+          break;
+
+        case OP_MULTIPLY:
+          regs[d] = clip(regs[a] * regs[b]);
+          regs[d + 1] = clip(regs[a + 1] * regs[b + 1]);
+          regs[d + 2] = clip(regs[a + 2] * regs[b + 2]);
+          break;
+
+        case OP_DIVIDE:
+          regs[d] = clip(divide(regs[a], regs[b]));
+          regs[d + 1] = clip(divide(regs[a + 1], regs[b + 1]));
+          regs[d + 2] = clip(divide(regs[a + 2], regs[b + 2]));
+          break;
+
+        case OP_DOT_PRODUCT: {
+          double dot = clip((regs[a] * regs[b]) + (regs[a + 1] * regs[b + 1]) + (regs[a + 2] * regs[b + 2]));
+          regs[d] = dot;
+          regs[d + 1] = dot;
+          regs[d + 2] = dot;
+          break;
+        }
+
+        case OP_EXTERNAL: {
+          double g1 = regs[a + 1];
+          regs[d] = g1;
+          regs[d + 1] = g1;
+          regs[d + 2] = g1;
+          break;
+        }
+
+        case OP_GS_PERLIN: {
+          double no = noiseToUnit(ImprovedNoise.noise(regs[a], regs[a + 1], regs[a + 2]));
+          regs[d] = no;
+          regs[d + 1] = no;
+          regs[d + 2] = no;
+          break;
+        }
+
+        case OP_PERLIN: {
+          double r1 = regs[a];
+          double g1 = regs[a + 1];
+          double b1 = regs[a + 2];
+          double r2 = regs[b];
+          double b2 = regs[b + 2];
+          regs[d] = noiseToUnit(ImprovedNoise.noise(g1, b2, r2));
+          regs[d + 1] = noiseToUnit(ImprovedNoise.noise(b1, r2, b2));
+          regs[d + 2] = noiseToUnit(ImprovedNoise.noise(g1, r1, r1));
+          break;
+        }
+
+        case OP_IMAGE_SAMPLE: {
+          argFuncs.ImageSample node = (argFuncs.ImageSample) calls[code[pc + 4]];
+          Coord c = ReferenceImages.shared().get(node.getPicture()).sample(regs[a], regs[b], node.getBlur());
+          regs[d] = c.getRed();
+          regs[d + 1] = c.getGreen();
+          regs[d + 2] = c.getBlue();
+          break;
+        }
+
+        case OP_DISSOLVE: {
+          final int c = code[pc + 4] * 3;
+          regs[d] = dissolve(regs[a], regs[b], clip(regs[c]));
+          regs[d + 1] = dissolve(regs[a + 1], regs[b + 1], clip(regs[c + 1]));
+          regs[d + 2] = dissolve(regs[a + 2], regs[b + 2], clip(regs[c + 2]));
+          break;
+        }
+
+        default:
+          throw new IllegalStateException("unknown opcode: " + code[pc]);
+      }
+    }
+  }
+
+  /**
+   * Scratch space for {@link #evaluateRect}: one array per register channel, each long enough for a
+   * block of pixels. Like the registers, give each thread its own and reuse it.
+   */
+  public static final class Workspace {
+    private final double[][] planes;
+    private final double[] xs;
+    private final double[] ys;
+
+    private Workspace(Program program) {
+      int n = BLOCK_SIZE;
+      planes = new double[program.initialRegisters.length][];
+      xs = new double[n];
+      ys = new double[n];
+
+      for (int i = 0; i < planes.length; i++) {
+        planes[i] = new double[n];
+      }
+
+      // registers that no instruction writes are constants, so we fill them in once, right here
+      boolean[] written = new boolean[program.registerCount()];
+      for (int pc = 0; pc < program.code.length; pc += INSN_WIDTH) {
+        written[program.code[pc + 1]] = true;
+      }
+      for (int reg = 0; reg < written.length; reg++) {
+        if (!written[reg]) {
+          for (int ch = 0; ch < 3; ch++) {
+            Arrays.fill(planes[reg * 3 + ch], program.initialRegisters[reg * 3 + ch]);
+          }
+        }
+      }
+    }
+  }
+
+  // pixels evaluated together by evaluateRect. a Workspace is 24KB per register, so a block of every register only
+  // stays in cache for small programs; Renderer.renderAll uses compileBatches to keep a generation's programs small
+  static final int BLOCK_SIZE = 1024;
+
+  /**
+   * Makes scratch space for {@link #evaluateRect(double, double, double, double, int, int, double[], double[],
+   * double[], Workspace)}.
+   */
+  public Workspace newWorkspace() {
+    return new Workspace(this);
+  }
+
+  /**
+   * Evaluates a whole width x height rectangle of pixels. Pixel (i, j) is at x = x0 + i * dx and
+   * y = y0 + j * dy, and its channels are written to red, green, and blue at index j * width + i.
+   * Rather than running every instruction for one pixel, then the next, this runs each instruction
+   * over a whole block of pixels at a time, which gives the JIT simple loops over arrays that it can
+   * unroll and vectorize. The results are identical to calling {@link #evaluate(double, double)}
+   * on each pixel.
+   */
+  public void evaluateRect(double x0, double y0, double dx, double dy, int width, int height,
+                           double[] red, double[] green, double[] blue, Workspace workspace) {
+    evaluateRect(x0, y0, dx, dy, 0, 0, width, height, red, green, blue, workspace);
+  }
+
+  /**
+   * Evaluates one tile of a larger image. Just like {@link #evaluateRect(double, double, double, double,
+   * int, int, double[], double[], double[], Workspace)}, except that pixel (i, j) of the tile is pixel
+   * (left + i, top + j) of the image, at x = x0 + (left + i) * dx and y = y0 + (top + j) * dy. Computing
+   * the coordinates this way means a pixel gets exactly the same x and y no matter how the image is
+   * cut into tiles.
+   */
+  public void evaluateRect(double x0, double y0, double dx, double dy, int left, int top, int width, int height,
+                           double[] red, double[] green, double[] blue, Workspace workspace) {
+    evaluateRect(x0, y0, dx, dy, left, top, width, height,
+        new double[][] {red}, new double[][] {green}, new double[][] {blue}, workspace);
+  }
+
+  /**
+   * Evaluates one tile of a larger image for every output at once. Just like {@link #evaluateRect(double,
+   * double, double, double, int, int, int, int, double[], double[], double[], Workspace)}, except that the
+   * channels of output i go to reds[i], greens[i], and blues[i].
+   */
+  public void evaluateRect(double x0, double y0, double dx, double dy, int left, int top, int width, int height,
+                           double[][] reds, double[][] greens, double[][] blues, Workspace workspace) {
+    evaluateRect(x0, y0, dx, dy, left, top, 1, width, height, reds, greens, blues, workspace);
+  }
+
+  /**
+   * Evaluates every stride-th pixel of a tile of a larger image, for every output at once: pixel (i, j) of
+   * the result is pixel (left + i * stride, top + j * stride) of the image, with exactly the x and y it would
+   * have had if the whole image were evaluated. Otherwise just like {@link #evaluateRect(double, double,
+   * double, double, int, int, int, int, double[][], double[][], double[][], Workspace)}.
+   */
+  public void evaluateRect(double x0, double y0, double dx, double dy, int left, int top, int stride,
+                           int width, int height, double[][] reds, double[][] greens, double[][] blues,
+                           Workspace workspace) {
+    evaluateRect(x0, y0, dx, dy, left, top, stride, width, height, 0, null, reds, greens, blues, workspace);
+  }
+
+  /**
+   * Evaluates every stride-th pixel of a tile of a larger image, for every output, in the frame at time t.
+   * Otherwise just like {@link #evaluateRect(double, double, double, double, int, int, int, int, int, double[][],
+   * double[][], double[][], Workspace)}.
+   *
+   * <p>With a cache, everything that doesn't depend on time is evaluated the first time, and kept in the
+   * cache, and only the instructions that see the time run after that. The cache must come from {@link
+   * #newTimeCache(int)} with the tile's width * height, and always be used for the same tile.
+   */
+  public void evaluateRect(double x0, double y0, double dx, double dy, int left, int top, int stride,
+                           int width, int height, double t, @Nullable TimeCache cache,
+                           double[][] reds, double[][] greens, double[][] blues, Workspace workspace) {
+    final int total = width * height;
+    final double[][] planes = workspace.planes;
+    if (cache != null && cache.pixels != total) {
+      throw new IllegalArgumentException(
+          String.format("time cache is for %d pixels, not %d", cache.pixels, total));
+    }
+
+    for (int start = 0; start < total; start += BLOCK_SIZE) {
+      final int len = Math.min(BLOCK_SIZE, total - start);
+
+      if (cache != null && cache.filled) {
+        // everything that doesn't depend on time, x and y included, is already done
+        for (int i = 0; i < cachedRegisters.length; i++) {
+          for (int ch = 0; ch < 3; ch++) {
+            System.arraycopy(cache.planes[i * 3 + ch], start, planes[cachedRegisters[i] * 3 + ch], 0, len);
+          }
+        }
+        runBlock(timeCode, planes, workspace.xs, workspace.ys, t, len);
+      } else {
+        for (int k = 0; k < len; k++) {
+          int pixel = start + k;
+          workspace.xs[k] = x0 + (left + (pixel % width) * stride) * dx;
+          workspace.ys[k] = y0 + (top + (pixel / width) * stride) * dy;
+        }
+
+        if (cache == null) {
+          runBlock(code, planes, workspace.xs, workspace.ys, t, len);
+        } else {
+          runBlock(invariantCode, planes, workspace.xs, workspace.ys, t, len);
+          for (int i = 0; i < cachedRegisters.length; i++) {
+            for (int ch = 0; ch < 3; ch++) {
+              System.arraycopy(planes[cachedRegisters[i] * 3 + ch], 0, cache.planes[i * 3 + ch], start, len);
+            }
+          }
+          runBlock(timeCode, planes, workspace.xs, workspace.ys, t, len);
+        }
+      }
+
+      for (int i = 0; i < results.length; i++) {
+        int r = results[i] * 3;
+        System.arraycopy(planes[r], 0, reds[i], start, len);
+        System.arraycopy(planes[r + 1], 0, greens[i], start, len);
+        System.arraycopy(planes[r + 2], 0, blues[i], start, len);
+      }
+    }
+
+    if (cache != null) {
+      cache.filled = true;
+    }
+  }
+
+  /**
+   * Evaluates the program at count arbitrary points, (xs[k], ys[k]), and writes the first output's channels to
+   * red[k], green[k], and blue[k]. The points go through the same block evaluator as {@link #evaluateRect}, so
+   * this is how to evaluate points that aren't on a grid, like the extra samples of an antialiased pixel.
+   */
+  public void evaluatePoints(double[] xs, double[] ys, int count, double[] red, double[] green, double[] blue,
+                             Workspace workspace) {
+    final double[][] planes = workspace.planes;
+    final int r = result * 3;
+
+    for (int start = 0; start < count; start += BLOCK_SIZE) {
+      final int len = Math.min(BLOCK_SIZE, count - start);
+      System.arraycopy(xs, start, workspace.xs, 0, len);
+      System.arraycopy(ys, start, workspace.ys, 0, len);
+
+      runBlock(code, planes, workspace.xs, workspace.ys, 0, len);
+
+      System.arraycopy(planes[r], 0, red, start, len);
+      System.arraycopy(planes[r + 1], 0, green, start, len);
+      System.arraycopy(planes[r + 2], 0, blue, start, len);
+    }
+  }
+
+  /**
+   * The parts of a tile of an animation that are the same in every frame, kept from one frame to the next by
+   * {@link #evaluateRect(double, double, double, double, int, int, int, int, int, double, TimeCache, double[][],
+   * double[][], double[][], Workspace)}. Like a Workspace, it's for one thread at a time.
+   */
+  public static final class TimeCache {
+    private final int pixels;
+    private final double[][] planes;
+    private boolean filled = false;
+
+    private TimeCache(Program program, int pixels) {
+      this.pixels = pixels;
+      this.planes = new double[program.cachedRegisters.length * 3][pixels];
+    }
+  }
+
+  /**
+   * Makes an empty time cache for a tile of the given number of pixels.
+   */
+  public TimeCache newTimeCache(int pixels) {
+    return new TimeCache(this, pixels);
+  }
+
+  /**
+   * How much memory a time cache for this many pixels takes up.
+   */
+  public long timeCacheBytes(int pixels) {
+    return cachedRegisters.length * 3L * pixels * Double.BYTES;
+  }
+
+  /**
+   * Same as {@link #evaluateRect(double, double, double, double, int, int, double[], double[], double[],
+   * Workspace)}, but with its own scratch space.
+   */
+  public void evaluateRect(double x0, double y0, double dx, double dy, int width, int height,
+                           double[] red, double[] green, double[] blue) {
+    evaluateRect(x0, y0, dx, dy, width, height, red, green, blue, newWorkspace());
+  }
+
+  private void runBlock(int[] code, double[][] planes, double[] xs, double[] ys, double t, int len) {
+    for (int pc = 0; pc < code.length; pc += INSN_WIDTH) {
+      final int d = code[pc + 1] * 3;
+      final int a = code[pc + 2] * 3;
+      final int b = code[pc + 3] * 3;
+      final double[] dr = planes[d];
+      final double[] dg = planes[d + 1];
+      final double[] db = planes[d + 2];
+
+      switch (code[pc]) {
+        case OP_X:
+          System.arraycopy(xs, 0, dr, 0, len);
+          System.arraycopy(xs, 0, dg, 0, len);
+          System.arraycopy(xs, 0, db, 0, len);
+          break;
+
+        case OP_Y:
+          System.arraycopy(ys, 0, dr, 0, len);
+          System.arraycopy(ys, 0, dg, 0, len);
+          System.arraycopy(ys, 0, db, 0, len);
+          break;
+
+        case OP_T:
+          Arrays.fill(dr, 0, len, t);
+          Arrays.fill(dg, 0, len, t);
+          Arrays.fill(db, 0, len, t);
+          break;
+
+        case OP_CALL: {
+          FunctionTree call = calls[code[pc + 2]];
+          for (int k = 0; k < len; k++) {
+            Coord c = call.evaluate(xs[k], ys[k]);
+            dr[k] = c.getRed();
+            dg[k] = c.getGreen();
+            db[k] = c.getBlue();
+          }
+          break;
+        }
+
+        case OP_NEGATE:
+          negate(planes[a], dr, len);
+          negate(planes[a + 1], dg, len);
+          negate(planes[a + 2], db, len);
+          break;
+
+        case OP_SINE:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.sin(in[k]);
+            }
+          }
+          break;
+
+        case OP_ROUND_DOWN:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.floor(in[k]);
+            }
+          }
+          break;
+
+        case OP_ROUND_UP:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.ceil(in[k]);
+            }
+          }
+          break;
+
+        case OP_COSINE:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.cos(in[k]);
+            }
+          }
+          break;
+
+        case OP_ARCTAN:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.atan(in[k]);
+            }
+          }
+          break;
+
+        case OP_EXPON:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = clip(Math.exp(in[k]));
+            }
+          }
+          break;
+
+        case OP_LOGRM:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.log(in[k]);
+            }
+          }
+          break;
+
+        case OP_ABS_VAL:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = Math.log(abs(in[k]));
+            }
+          }
+          break;
+
+        case OP_CLIP:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = clip(in[k]);
+            }
+          }
+          break;
+
+        case OP_WRAP:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in = planes[a + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = wrap(in[k]);
+            }
+          }
+          break;
+
+        case OP_RGB_TO_YCRCB: {
+          double[] ir = planes[a];
+          double[] ig = planes[a + 1];
+          double[] ib = planes[a + 2];
+          for (int k = 0; k < len; k++) {
+            double rr = ir[k];
+            double gg = ig[k];
+            double bb = ib[k];
+            dr[k] = (rr * 0.299) + (gg * 0.587) + (bb * 0.114);
+            dg[k] = (rr * 0.500) + (gg * -0.419) + (bb * -0.081);
+            db[k] = (rr * -0.619) + (gg * -0.331) + (bb * 0.500);
+          }
+          break;
+        }
+
+        case OP_YCRCB_TO_RGB: {
+          double[] iy = planes[a];
+          double[] icr = planes[a + 1];
+          double[] icb = planes[a + 2];
+          for (int k = 0; k < len; k++) {
+            double yo = iy[k];
+            double cr = icr[k];
+            double cb = icb[k];
+            dr[k] = (yo * 1.000) + (yo * 1.400) + (yo * 0.000);
+            dg[k] = (cr * 1.000) + (cr * -0.711) + (cr * -0.343);
+            db[k] = (cb * 1.000) + (cb * 0.000) + (cb * 1.765);
+          }
+          break;
+        }
+
+        case OP_ADD:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in1 = planes[a + ch];
+            double[] in2 = planes[b + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = clip(in1[k] + in2[k]);
+            }
+          }
+          break;
+
+        case OP_SUBTRACT:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in1 = planes[a + ch];
+            double[] in2 = planes[b + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = clip(in1[k] - in2[k]);
+            }
+          }
+          break;
+
+        case OP_MULTIPLY:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in1 = planes[a + ch];
+            double[] in2 = planes[b + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = clip(in1[k] * in2[k]);
+            }
+          }
+          break;
+
+        case OP_DIVIDE:
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in1 = planes[a + ch];
+            double[] in2 = planes[b + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = clip(divide(in1[k], in2[k]));
+            }
+          }
+          break;
+
+        case OP_DOT_PRODUCT: {
+          double[] ar = planes[a];
+          double[] ag = planes[a + 1];
+          double[] ab = planes[a + 2];
+          double[] br = planes[b];
+          double[] bg = planes[b + 1];
+          double[] bb = planes[b + 2];
+          for (int k = 0; k < len; k++) {
+            dr[k] = clip((ar[k] * br[k]) + (ag[k] * bg[k]) + (ab[k] * bb[k]));
+          }
+          System.arraycopy(dr, 0, dg, 0, len);
+          System.arraycopy(dr, 0, db, 0, len);
+          break;
+        }
+
+        case OP_EXTERNAL:
+          System.arraycopy(planes[a + 1], 0, dr, 0, len);
+          System.arraycopy(planes[a + 1], 0, dg, 0, len);
+          System.arraycopy(planes[a + 1], 0, db, 0, len);
+          break;
+
+        case OP_GS_PERLIN: {
+          double[] ar = planes[a];
+          double[] ag = planes[a + 1];
+          double[] ab = planes[a + 2];
+          ImprovedNoise.noise(ar, ag, ab, dr, len);
+          for (int k = 0; k < len; k++) {
+            dr[k] = noiseToUnit(dr[k]);
+          }
+          System.arraycopy(dr, 0, dg, 0, len);
+          System.arraycopy(dr, 0, db, 0, len);
+          break;
+        }
+
+        case OP_PERLIN: {
+          double[] ar = planes[a];
+          double[] ag = planes[a + 1];
+          double[] ab = planes[a + 2];
+          double[] br = planes[b];
+          double[] bb = planes[b + 2];
+          ImprovedNoise.noise(ag, bb, br, dr, len);
+          ImprovedNoise.noise(ab, br, bb, dg, len);
+          ImprovedNoise.noise(ag, ar, ar, db, len);
+          for (int k = 0; k < len; k++) {
+            dr[k] = noiseToUnit(dr[k]);
+            dg[k] = noiseToUnit(dg[k]);
+            db[k] = noiseToUnit(db[k]);
+          }
+          break;
+        }
+
+        case OP_IMAGE_SAMPLE: {
+          // one lookup of the picture for the whole block
+          argFuncs.ImageSample node = (argFuncs.ImageSample) calls[code[pc + 4]];
+          ReferenceImages.shared().get(node.getPicture())
+              .sample(planes[a], planes[b], node.getBlur(), dr, dg, db, len);
+          break;
+        }
+
+        case OP_DISSOLVE: {
+          final int c = code[pc + 4] * 3;
+          for (int ch = 0; ch < 3; ch++) {
+            double[] in1 = planes[a + ch];
+            double[] in2 = planes[b + ch];
+            double[] in3 = planes[c + ch];
+            double[] out = planes[d + ch];
+            for (int k = 0; k < len; k++) {
+              out[k] = dissolve(in1[k], in2[k], clip(in3[k]));
+            }
+          }
+          break;
+        }
+
+        default:
+          throw new IllegalStateException("unknown opcode: " + code[pc]);
+      }
+    }
+  }
+
+  private static void negate(double[] in, double[] out, int len) {
+    for (int k = 0; k < len; k++) {
+      out[k] = in[k] * -1;
+    }
+  }
+
+  // Per-channel helpers. These are deliberately written exactly the way argFuncs writes them,
+  // so that the floating point results are identical.
+
+  static double clip(double n) {
+    return (n > 1) ? 1 : (n < -1) ? -1 : n;
+  }
+
+  static double abs(double c) {
+    return (c >= 0) ? c : (c * -1);
+  }
+
+  static double wrap(double n) {
+    return -1 + (n + 1) % 2;
+  }
+
+  static double divide(double n, double d) {
+    return d == 0 ? 0 : n / d;
+  }
+
+  static double noiseToUnit(double n) {
+    return (int) Math.ceil(n / 127.5) - 1;
+  }
+
+  static double dissolve(double a, double b, double c) {
+    return (1 - c) * a + (c * b);
+  }
+
+  /*
+      walks a tree in post-order, handing out one register
+      per distinct node and appending its instruction.
+      nodes are distinct if they're different objects and
+      also compute different things: an instruction with
+      the same opcode and arguments as an earlier one, or
+      a constant with the same value, reuses its register.
+  */
+  private static final class Builder {
+    private final Map<FunctionTree, Integer> registers = new IdentityHashMap<>();
+    private final Map<ValueKey, Integer> values = new HashMap<>();
+    private final ArrayList<FunctionTree> calls = new ArrayList<>();
+    private int[] code = new int[16 * INSN_WIDTH];
+    private int codeLength = 0;
+    private double[] constants = new double[16 * 3];
+    private int registerCount = 0;
+
+    int lower(FunctionTree node) {
+      Integer existing = registers.get(node);
+      if (existing != null) {
+        return existing;
+      }
+
+      int reg;
+      if (!(node instanceof argFuncs)) {
+        calls.add(node);
+        reg = emit(OP_CALL, calls.size() - 1, 0, 0);
+      } else {
+        argFuncs func = (argFuncs) node;
+        Opcode opcode = func.opcode();
+
+        if (opcode == Opcode.CONSTANT) {
+          Coord value = ((argFuncs.Constant) func).getValue();
+          reg = values.computeIfAbsent(new ValueKey(value), key -> constant(value));
+        } else if (opcode == Opcode.IMAGE_SAMPLE) {
+          // the third source is where to find the node, which knows its picture and blur
+          int u = lower(func.children().head());
+          int v = lower(func.children().tail().head());
+          calls.add(func);
+          reg = emit(OP_IMAGE_SAMPLE, u, v, calls.size() - 1);
+        } else {
+          // External and GSPerlin both ignore their second argument, so there's no reason to compute it
+          int[] args = new int[3];
+          int nargs = (opcode == Opcode.EXTERNAL || opcode == Opcode.GS_PERLIN) ? 1 : opcode.getArity();
+          IList<argFuncs> children = func.children();
+          for (int i = 0; i < nargs; i++) {
+            args[i] = lower(children.head());
+            children = children.tail();
+          }
+          int op = opcodeFor(opcode);
+          reg = values.computeIfAbsent(new ValueKey(op, args), key -> emit(op, args[0], args[1], args[2]));
+        }
+      }
+
+      registers.put(node, reg);
+      return reg;
+    }
+
+    Program build(int[] results) {
+      return new Program(
+          Arrays.copyOf(code, codeLength),
+          Arrays.copyOf(constants, registerCount * 3),
+          calls.toArray(new FunctionTree[calls.size()]),
+          results);
+    }
+
+    private int newRegister() {
+      if ((registerCount + 1) * 3 > constants.length) {
+        constants = Arrays.copyOf(constants, constants.length * 2);
+      }
+      return registerCount++;
+    }
+
+    private int constant(Coord value) {
+      int reg = newRegister();
+      constants[reg * 3] = value.getRed();
+      constants[reg * 3 + 1] = value.getGreen();
+      constants[reg * 3 + 2] = value.getBlue();
+      return reg;
+    }
+
+    private int emit(int op, int a, int b, int c) {
+      int dst = newRegister();
+      if (codeLength + INSN_WIDTH > code.length) {
+        code = Arrays.copyOf(code, code.length * 2);
+      }
+      code[codeLength] = op;
+      code[codeLength + 1] = dst;
+      code[codeLength + 2] = a;
+      code[codeLength + 3] = b;
+      code[codeLength + 4] = c;
+      codeLength += INSN_WIDTH;
+      return dst;
+    }
+
+    private static int opcodeFor(Opcode opcode) {
+      switch (opcode) {
+        case VAR_X: return OP_X;
+        case VAR_Y: return OP_Y;
+        case VAR_T: return OP_T;
+        case NEGATE: return OP_NEGATE;
+        case SINE: return OP_SINE;
+        case ROUND_DOWN: return OP_ROUND_DOWN;
+        case ROUND_UP: return OP_ROUND_UP;
+        case COSINE: return OP_COSINE;
+        case ARCTAN: return OP_ARCTAN;
+        case EXPON: return OP_EXPON;
+        case LOGRM: return OP_LOGRM;
+        case ABS_VAL: return OP_ABS_VAL;
+        case CLIP: return OP_CLIP;
+        case WRAP: return OP_WRAP;
+        case RGB_TO_YCRCB: return OP_RGB_TO_YCRCB;
+        case YCRCB_TO_RGB: return OP_YCRCB_TO_RGB;
+        case ADD: return OP_ADD;
+        case SUBTRACT: return OP_SUBTRACT;
+        case MULTIPLY: return OP_MULTIPLY;
+        case DIVIDE: return OP_DIVIDE;
+        case DOT_PRODUCT: return OP_DOT_PRODUCT;
+        case EXTERNAL: return OP_EXTERNAL;
+        case GS_PERLIN: return OP_GS_PERLIN;
+        case PERLIN: return OP_PERLIN;
+        case DISSOLVE: return OP_DISSOLVE;
+        default:
+          throw new IllegalArgumentException("no instruction for " + opcode);
+      }
+    }
+  }
+
+  /*
+      what an instruction computes: its opcode and the
+      registers it reads, or, for a constant, its value
+      (compared bit for bit, so -0 and NaN behave).
+  */
+  private static final class ValueKey {
+    private final int op;
+    private final int a;
+    private final int b;
+    private final int c;
+    private final long red;
+    private final long green;
+    private final long blue;
+
+    ValueKey(int op, int[] args) {
+      this.op = op;
+      this.a = args[0];
+      this.b = args[1];
+      this.c = args[2];
+      this.red = 0;
+      this.green = 0;
+      this.blue = 0;
+    }
+
+    ValueKey(Coord value) {
+      this.op = -1;
+      this.a = 0;
+      this.b = 0;
+      this.c = 0;
+      this.red = Double.doubleToLongBits(value.getRed());
+      this.green = Double.doubleToLongBits(value.getGreen());
+      this.blue = Double.doubleToLongBits(value.getBlue());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ValueKey)) {
+        return false;
+      }
+
+      ValueKey other = (ValueKey) o;
+      return op == other.op && a == other.a && b == other.b && c == other.c
+          && red == other.red && green == other.green && blue == other.blue;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(op, a, b, c, red, green, blue);
+    }
+  }
+}
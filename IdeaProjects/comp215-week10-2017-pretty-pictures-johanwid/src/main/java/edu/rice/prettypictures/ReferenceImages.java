@@ -0,0 +1,418 @@
+package edu.rice.prettypictures;
+
+import edu.rice.io.Files;
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The pictures in the cool-images resources, decoded, for {@link argFuncs.ImageSample} nodes to look colors up
+ * in. Decoding a JPEG takes tens of milliseconds, far too long to do per pixel, or even per render, so each
+ * picture is decoded once, the first time anything asks for it, into a {@link Picture}: float planes of its
+ * colors, already scaled to [-1, 1], at every mip level. When the pictures held add up to more than the memory
+ * budget, the least recently used ones are let go, and decoded again if they're ever wanted back. Safe to share
+ * between threads; a picture that several threads want at once is only decoded by one of them.
+ *
+ * <p>Genomes refer to pictures by name: the resource's file name, without the extension, and with dashes
+ * turned into underscores, so that it's a word the S-expression scanner can read.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class ReferenceImages {
+  private static final String TAG = "ReferenceImages";
+
+  static final String DIRECTORY = "cool-images/";
+  private static final String[] FILES = {
+      "02741u.jpg", "03179v.jpg", "04070v.jpg", "04144v.jpg", "04314v.jpg", "04460v.jpg", "05509v.jpg",
+      "23_IMG002314.jpg", "3b49068v.jpg", "KSC-as11-44-6549.jpg", "NNwgBk6.jpg", "PIA02879.jpg", "PIA04866.jpg",
+      "as11-40-5874.jpg", "as17-148-22717.jpg", "ksc-69pc-420.jpg", "mexican-coat-of-arms.png"};
+  private static final IList<String> NAMES = List.fromArray(FILES).map(ReferenceImages::nameOf).force();
+
+  // the biggest mip level kept is the first one no wider or taller than this
+  static final int MAX_SIZE = 1024;
+
+  // by default, use this fraction of the maximum heap for decoded pictures
+  static final int DEFAULT_HEAP_FRACTION = 8;
+
+  private static final ReferenceImages SHARED = make(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+
+  private final long maxBytes;
+  private final LinkedHashMap<String, FutureTask<Picture>> entries = new LinkedHashMap<>(32, 0.75f, true);
+  private long totalBytes = 0;
+  private final AtomicLong loads = new AtomicLong();
+
+  private ReferenceImages(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * A set of pictures that holds at most maxBytes worth of them at once.
+   */
+  public static ReferenceImages make(long maxBytes) {
+    return new ReferenceImages(maxBytes);
+  }
+
+  /**
+   * The pictures every {@link argFuncs.ImageSample} looks in, sized to an eighth of the JVM's maximum heap.
+   */
+  public static ReferenceImages shared() {
+    return SHARED;
+  }
+
+  /**
+   * The name of every picture there is, in a fixed order.
+   */
+  public static IList<String> names() {
+    return NAMES;
+  }
+
+  /**
+   * Whether there's a picture with this name.
+   */
+  public static boolean isName(String name) {
+    return !NAMES.filter(name::equals).empty();
+  }
+
+  private static String nameOf(String file) {
+    return file.substring(0, file.lastIndexOf('.')).replace('-', '_');
+  }
+
+  private static String fileOf(String name) {
+    for (String file : FILES) {
+      if (nameOf(file).equals(name)) {
+        return file;
+      }
+    }
+    throw new IllegalArgumentException("no picture named " + name);
+  }
+
+  /**
+   * The picture with the given name, decoding it if it isn't already. A picture that can't be read comes
+   * out a flat gray, rather than failing every render it's in.
+   */
+  public Picture get(String name) {
+    String file = fileOf(name);
+    FutureTask<Picture> task;
+    boolean mine = false;
+    synchronized (this) {
+      task = entries.get(name);
+      if (task == null) {
+        task = new FutureTask<>(() -> load(file));
+        entries.put(name, task);
+        mine = true;
+      }
+    }
+
+    if (mine) {
+      // decoded without holding any locks, so it doesn't hold up anything that wants another picture
+      task.run();
+      synchronized (this) {
+        // unless it was cleared out while we were decoding it
+        if (entries.get(name) == task) {
+          totalBytes += done(task).bytes();
+          evict(task);
+        }
+      }
+    }
+    return done(task);
+  }
+
+  // ImageIO, rather than Images.readResource, because Commons Imaging can't read several of these JPEGs
+  private Picture load(String file) {
+    loads.incrementAndGet();
+    return Files.readResourceBytes(DIRECTORY + file)
+        .map(bytes -> {
+          BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+          if (image == null) {
+            throw new IOException("not an image ImageIO can read");
+          }
+          return Picture.make(image);
+        })
+        .logIfFailure(TAG, err -> "failed to read " + file + ": " + err)
+        .getOrElse(() -> Picture.make(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB)));
+  }
+
+  private static Picture done(FutureTask<Picture> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("failed to load a picture", e.getCause());
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  // called with the lock held; lets go of the least recently used pictures, other than the one just loaded and
+  // any still loading, until we're back under budget
+  private void evict(FutureTask<Picture> keep) {
+    Iterator<Map.Entry<String, FutureTask<Picture>>> oldestFirst = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && oldestFirst.hasNext()) {
+      FutureTask<Picture> task = oldestFirst.next().getValue();
+      if (task != keep && task.isDone()) {
+        totalBytes -= done(task).bytes();
+        oldestFirst.remove();
+      }
+    }
+
+    // a picture bigger than the whole budget is used once, and not kept
+    if (totalBytes > maxBytes) {
+      totalBytes -= done(keep).bytes();
+      entries.values().remove(keep);
+    }
+  }
+
+  /**
+   * Lets go of every picture, but keeps counting loads.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    totalBytes = 0;
+  }
+
+  /**
+   * How many times a picture has been decoded.
+   */
+  public long getLoads() {
+    return loads.get();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ReferenceImages(pictures: %d, bytes: %d/%d, loads: %d)",
+        size(), getTotalBytes(), maxBytes, getLoads());
+  }
+
+  /**
+   * One decoded picture, as a mip pyramid: level 0 is the picture itself (or, if it's bigger than {@link
+   * #MAX_SIZE} either way, the first half-size level that isn't), and every level after that is half the width
+   * and height of the one before it, each pixel the average of four, down to a single pixel. Each level is three
+   * float planes, one per channel, in [-1, 1].
+   *
+   * <p>The picture covers [-1, 1] in both directions, like a rendered image does: (-1, -1) is the top left
+   * corner. Sampling at any point reads the four pixels nearest to it, at the two levels either side of the
+   * given blur, and interpolates between them; points outside the picture get the color at its edge.
+   */
+  public static final class Picture {
+    private final int[] widths;
+    private final int[] heights;
+    private final float[][] reds;
+    private final float[][] greens;
+    private final float[][] blues;
+
+    private Picture(int[] widths, int[] heights, float[][] reds, float[][] greens, float[][] blues) {
+      this.widths = widths;
+      this.heights = heights;
+      this.reds = reds;
+      this.greens = greens;
+      this.blues = blues;
+    }
+
+    /**
+     * Decodes the image into a picture, with all its mip levels.
+     */
+    public static Picture make(BufferedImage image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int[] rgb = image.getRGB(0, 0, width, height, null, 0, width);
+      float[] red = new float[rgb.length];
+      float[] green = new float[rgb.length];
+      float[] blue = new float[rgb.length];
+      for (int k = 0; k < rgb.length; k++) {
+        red[k] = toUnit(rgb[k] >> 16);
+        green[k] = toUnit(rgb[k] >> 8);
+        blue[k] = toUnit(rgb[k]);
+      }
+
+      // skip ahead to the first level that fits
+      while (width > MAX_SIZE || height > MAX_SIZE) {
+        int halfWidth = Math.max(1, width / 2);
+        int halfHeight = Math.max(1, height / 2);
+        red = half(red, width, height);
+        green = half(green, width, height);
+        blue = half(blue, width, height);
+        width = halfWidth;
+        height = halfHeight;
+      }
+
+      int levels = 1 + Math.max(log2(width), log2(height));
+      int[] widths = new int[levels];
+      int[] heights = new int[levels];
+      float[][] reds = new float[levels][];
+      float[][] greens = new float[levels][];
+      float[][] blues = new float[levels][];
+      for (int level = 0; level < levels; level++) {
+        widths[level] = width;
+        heights[level] = height;
+        reds[level] = red;
+        greens[level] = green;
+        blues[level] = blue;
+        if (level + 1 < levels) {
+          red = half(red, width, height);
+          green = half(green, width, height);
+          blue = half(blue, width, height);
+          width = Math.max(1, width / 2);
+          height = Math.max(1, height / 2);
+        }
+      }
+      return new Picture(widths, heights, reds, greens, blues);
+    }
+
+    // the low eight bits of the given int, in [-1, 1]. it's half a step low, so that Coord.toChannel, which rounds
+    // up, gives back the same channel, float rounding or no
+    private static float toUnit(int channel) {
+      return Math.max(-1, ((channel & 0xff) - 0.5f) / 127.5f - 1);
+    }
+
+    private static int log2(int n) {
+      return 31 - Integer.numberOfLeadingZeros(n);
+    }
+
+    // the plane at half the width and height, each pixel the average of the (up to) four it covers
+    private static float[] half(float[] plane, int width, int height) {
+      int halfWidth = Math.max(1, width / 2);
+      int halfHeight = Math.max(1, height / 2);
+      float[] result = new float[halfWidth * halfHeight];
+      for (int j = 0; j < halfHeight; j++) {
+        int row0 = Math.min(2 * j, height - 1) * width;
+        int row1 = Math.min(2 * j + 1, height - 1) * width;
+        for (int i = 0; i < halfWidth; i++) {
+          int x0 = Math.min(2 * i, width - 1);
+          int x1 = Math.min(2 * i + 1, width - 1);
+          result[j * halfWidth + i] = (plane[row0 + x0] + plane[row0 + x1] + plane[row1 + x0] + plane[row1 + x1]) / 4;
+        }
+      }
+      return result;
+    }
+
+    public int getLevels() {
+      return widths.length;
+    }
+
+    public int getWidth(int level) {
+      return widths[level];
+    }
+
+    public int getHeight(int level) {
+      return heights[level];
+    }
+
+    /**
+     * Memory taken up by all the levels' planes.
+     */
+    public long bytes() {
+      long pixels = 0;
+      for (float[] plane : reds) {
+        pixels += plane.length;
+      }
+      return pixels * 3 * Float.BYTES;
+    }
+
+    /**
+     * The color at (u, v), blurred by the given number of mip levels. A blur of 0 is the sharpest the picture
+     * gets; fractions blend the two levels either side; anything past the last level is the last level.
+     */
+    public Coord sample(double u, double v, double blur) {
+      double[] rgb = new double[3];
+      sample(u, v, blur, rgb);
+      return new Coord(rgb[0], rgb[1], rgb[2]);
+    }
+
+    /**
+     * The same color as {@link #sample(double, double, double)}, for each of the first count points, written
+     * into red, green, and blue.
+     */
+    public void sample(double[] us, double[] vs, double blur, double[] red, double[] green, double[] blue,
+                       int count) {
+      double[] rgb = new double[3];
+      for (int k = 0; k < count; k++) {
+        sample(us[k], vs[k], blur, rgb);
+        red[k] = rgb[0];
+        green[k] = rgb[1];
+        blue[k] = rgb[2];
+      }
+    }
+
+    private void sample(double u, double v, double blur, double[] rgb) {
+      // NaN blurs nothing, and NaN coordinates are at the top left
+      double lod = (blur > 0) ? Math.min(blur, widths.length - 1) : 0;
+      int level = (int) lod;
+      double between = lod - level;
+      bilinear(level, u, v, rgb);
+      if (between > 0) {
+        double r = rgb[0];
+        double g = rgb[1];
+        double b = rgb[2];
+        bilinear(level + 1, u, v, rgb);
+        rgb[0] = r + (rgb[0] - r) * between;
+        rgb[1] = g + (rgb[1] - g) * between;
+        rgb[2] = b + (rgb[2] - b) * between;
+      }
+    }
+
+    private void bilinear(int level, double u, double v, double[] rgb) {
+      int width = widths[level];
+      int height = heights[level];
+      double fx = texel(u, width);
+      double fy = texel(v, height);
+      int x0 = (int) fx;
+      int y0 = (int) fy;
+      int x1 = Math.min(x0 + 1, width - 1);
+      int y1 = Math.min(y0 + 1, height - 1);
+      double tx = fx - x0;
+      double ty = fy - y0;
+
+      int k00 = y0 * width + x0;
+      int k01 = y0 * width + x1;
+      int k10 = y1 * width + x0;
+      int k11 = y1 * width + x1;
+      rgb[0] = lerp(reds[level], k00, k01, k10, k11, tx, ty);
+      rgb[1] = lerp(greens[level], k00, k01, k10, k11, tx, ty);
+      rgb[2] = lerp(blues[level], k00, k01, k10, k11, tx, ty);
+    }
+
+    // position in pixels, where pixel i's center is at i, clamped to the centers of the edge pixels
+    private static double texel(double u, int size) {
+      double f = (u + 1) * 0.5 * size - 0.5;
+      return (f > 0) ? Math.min(f, size - 1) : 0;
+    }
+
+    private static double lerp(float[] plane, int k00, int k01, int k10, int k11, double tx, double ty) {
+      double top = plane[k00] + (plane[k01] - plane[k00]) * tx;
+      double bottom = plane[k10] + (plane[k11] - plane[k10]) * tx;
+      return top + (bottom - top) * ty;
+    }
+  }
+}
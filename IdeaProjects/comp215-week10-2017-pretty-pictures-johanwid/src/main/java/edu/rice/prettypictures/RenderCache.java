@@ -0,0 +1,182 @@
+package edu.rice.prettypictures;
+
+import edu.rice.util.Option;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static edu.rice.util.Option.none;
+import static edu.rice.util.Option.some;
+
+/**
+ * A bounded cache of encoded images (PNG bytes, typically), keyed by the {@link Genomes#structurallyEqual(argFuncs,
+ * argFuncs) structure} of the genome that made them plus the image size. When the total size of the cached images goes
+ * over budget, the least recently used ones are thrown out. Safe to share between threads.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class RenderCache {
+  // by default, use this fraction of the maximum heap for cached images
+  static final int DEFAULT_HEAP_FRACTION = 16;
+
+  private final long maxBytes;
+  private final LinkedHashMap<Key, byte[]> entries = new LinkedHashMap<>(64, 0.75f, true); // access order = LRU
+  private long totalBytes = 0;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  private RenderCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * A cache that holds at most maxBytes worth of images.
+   */
+  public static RenderCache make(long maxBytes) {
+    return new RenderCache(maxBytes);
+  }
+
+  /**
+   * A cache sized to a sixteenth of the JVM's maximum heap.
+   */
+  public static RenderCache make() {
+    return new RenderCache(Runtime.getRuntime().maxMemory() / DEFAULT_HEAP_FRACTION);
+  }
+
+  /**
+   * Returns the cached bytes for this genome at this size, if we have them.
+   */
+  public Option<byte[]> oget(argFuncs genome, int width, int height) {
+    byte[] result;
+    synchronized (this) {
+      result = entries.get(new Key(genome, width, height));
+    }
+
+    if (result == null) {
+      misses.incrementAndGet();
+      return none();
+    } else {
+      hits.incrementAndGet();
+      return some(result);
+    }
+  }
+
+  /**
+   * Whether we have this genome at this size. Unlike {@link #oget(argFuncs, int, int)}, this doesn't count
+   * as a hit or a miss, so the server can check what's worth drawing ahead of time without skewing them.
+   */
+  public synchronized boolean contains(argFuncs genome, int width, int height) {
+    return entries.containsKey(new Key(genome, width, height));
+  }
+
+  /**
+   * Returns the cached bytes for this genome at this size, or, if they're not there, calls render to make
+   * them and remembers the result. The render happens without holding any locks, so two threads asking
+   * for the same missing image at the same time may both end up rendering it.
+   */
+  public byte[] get(argFuncs genome, int width, int height, Supplier<byte[]> render) {
+    return oget(genome, width, height).match(
+        () -> {
+          byte[] result = render.get();
+          put(genome, width, height, result);
+          return result;
+        },
+        bytes -> bytes);
+  }
+
+  /**
+   * Remembers the bytes for this genome at this size, evicting older entries if we're over budget.
+   * Anything bigger than the whole budget isn't kept at all.
+   */
+  public synchronized void put(argFuncs genome, int width, int height, byte[] bytes) {
+    if (bytes.length > maxBytes) {
+      return;
+    }
+
+    byte[] previous = entries.put(new Key(genome, width, height), bytes);
+    totalBytes += bytes.length - (previous == null ? 0 : previous.length);
+
+    Iterator<Map.Entry<Key, byte[]>> oldestFirst = entries.entrySet().iterator();
+    while (totalBytes > maxBytes && oldestFirst.hasNext()) {
+      totalBytes -= oldestFirst.next().getValue().length;
+      oldestFirst.remove();
+    }
+  }
+
+  /**
+   * Forgets everything, but keeps counting hits and misses.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    totalBytes = 0;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("RenderCache(entries: %d, bytes: %d/%d, hits: %d, misses: %d)",
+        size(), getTotalBytes(), maxBytes, getHits(), getMisses());
+  }
+
+  /**
+   * A genome at a size, as a map key. Genomes are found by their {@link Genomes#structuralHash(argFuncs)}, but
+   * they're still compared in full, so two genomes whose hashes collide are never mistaken for one another.
+   */
+  static final class Key {
+    private final argFuncs genome;
+    private final long hash;
+    private final int width;
+    private final int height;
+
+    Key(argFuncs genome, int width, int height) {
+      this.genome = genome;
+      this.hash = Genomes.structuralHash(genome);
+      this.width = width;
+      this.height = height;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key other = (Key) o;
+      return hash == other.hash && width == other.width && height == other.height
+          && Genomes.structurallyEqual(genome, other.genome);
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (hash ^ (hash >>> 32)) * 31 * 31 + width * 31 + height;
+    }
+  }
+}
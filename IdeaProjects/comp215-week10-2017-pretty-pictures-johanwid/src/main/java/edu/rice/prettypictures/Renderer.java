@@ -0,0 +1,559 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Turns a FunctionTree into a BufferedImage. The image is cut into square tiles, and the tiles are
+ * spread across the threads of a {@link ForkJoinPool}; each tile is evaluated with
+ * {@link Program#evaluateRect}, and the packed pixels are written straight into the image's int[]
+ * raster rather than going through {@link BufferedImage#setRGB(int, int, int)}.
+ *
+ * <p>The image always covers [-1, 1] in both x and y, with each pixel sampled at its center.
+ * Row 0 is the top of the image, at y = -1.
+ *
+ * <p>A single sample per pixel aliases badly on genomes with a lot of fine detail, like a Sine of a big
+ * product, or a Wrap. {@link #renderAntialiased(FunctionTree, BufferedImage, int, int, int)} fixes that
+ * adaptively: a first pass samples each pixel's center as usual, plus a one-pixel border around each tile, and
+ * only pixels that differ from a neighbor by more than a given contrast get {@link #SUPERSAMPLES} x
+ * SUPERSAMPLES more samples, spread evenly over the pixel, and the average of those. Tiles with no such pixels
+ * skip the second pass altogether. Most of a typical bred image is smooth, so it comes out nearly as good as
+ * supersampling every pixel 16 times, for about twice the cost of drawing it once.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class Renderer {
+  public static final int DEFAULT_TILE_SIZE = 64;
+
+  // samples along each side of a pixel that needs antialiasing, and how different (in 0-255 steps of any
+  // channel) it has to be from a neighbor to need it
+  public static final int SUPERSAMPLES = 4;
+  public static final int DEFAULT_CONTRAST = 16;
+
+  // renderAll compiles a generation into programs of about this many registers at most, so each thread's
+  // Workspace stays around 3MB however many images there are (see Program#compileBatches)
+  static final int MAX_BATCH_REGISTERS = 128;
+
+  private final ForkJoinPool pool;
+  private final int tileSize;
+
+  private Renderer(ForkJoinPool pool, int tileSize) {
+    if (tileSize < 1) {
+      throw new IllegalArgumentException("tile size must be positive: " + tileSize);
+    }
+    this.pool = pool;
+    this.tileSize = tileSize;
+  }
+
+  /**
+   * A renderer that shares the JVM's common fork/join pool and uses the default tile size.
+   */
+  public static Renderer make() {
+    return new Renderer(ForkJoinPool.commonPool(), DEFAULT_TILE_SIZE);
+  }
+
+  /**
+   * A renderer with its own pool of the given number of threads, cutting images into tiles of
+   * tileSize x tileSize pixels.
+   */
+  public static Renderer make(int parallelism, int tileSize) {
+    return new Renderer(new ForkJoinPool(parallelism), tileSize);
+  }
+
+  public int getParallelism() {
+    return pool.getParallelism();
+  }
+
+  public int getTileSize() {
+    return tileSize;
+  }
+
+  /**
+   * Where pixel 0 lands in [-1, 1], for an image that's size pixels across.
+   */
+  static double origin(int size) {
+    return -1 + 1.0 / size;
+  }
+
+  /**
+   * Distance in [-1, 1] between neighboring pixels, for an image that's size pixels across.
+   */
+  static double step(int size) {
+    return 2.0 / size;
+  }
+
+  /**
+   * Renders the tree into a new width x height image.
+   */
+  public BufferedImage render(FunctionTree tree, int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    render(tree, image);
+    return image;
+  }
+
+  /**
+   * Renders the tree over every pixel of the given image, which must be {@link BufferedImage#TYPE_INT_RGB}
+   * or {@link BufferedImage#TYPE_INT_ARGB}.
+   */
+  public void render(FunctionTree tree, BufferedImage image) {
+    render(tree, image, 0, image.getHeight());
+  }
+
+  /**
+   * Renders the tree over rows [top, bottom) of the given image, leaving the other rows alone. The pixels are
+   * exactly the ones a full {@link #render(FunctionTree, BufferedImage)} would produce, so an image can be drawn
+   * a band at a time, for example as a {@link edu.rice.image.PngEncoder.RowSource}. When doing that, pass in a
+   * {@link Program} rather than the original tree, so the tree is only compiled once.
+   */
+  public void render(FunctionTree tree, BufferedImage image, int top, int bottom) {
+    if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB) {
+      throw new IllegalArgumentException("can only render into int RGB images");
+    }
+    if (top < 0 || bottom > image.getHeight() || top > bottom) {
+      throw new IllegalArgumentException(String.format("bad rows [%d, %d) for height %d", top, bottom, image.getHeight()));
+    }
+
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Job job = new Job(Program.compile(tree), kernelOf(tree), new int[][] {pixels}, image.getWidth(), image.getHeight(),
+        0, top, bottom, 1, 1, tileSize);
+
+    pool.invoke(new Tiles(job, 0, job.tileCount()));
+  }
+
+  /**
+   * Renders the tree into a new width x height image, antialiased, with the default contrast.
+   */
+  public BufferedImage renderAntialiased(FunctionTree tree, int width, int height) {
+    BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    renderAntialiased(tree, image, 0, height, DEFAULT_CONTRAST);
+    return image;
+  }
+
+  /**
+   * Renders the tree over rows [top, bottom) of the given image, like {@link #render(FunctionTree, BufferedImage,
+   * int, int)}, except that every pixel that differs from one of its four neighbors by more than contrast, in
+   * any channel, is the average of SUPERSAMPLES x SUPERSAMPLES samples instead of the one at its center. With a
+   * contrast of 0, every pixel that isn't exactly like its neighbors is supersampled. Each pixel comes out the
+   * same no matter how the image is cut into tiles or bands.
+   */
+  public void renderAntialiased(FunctionTree tree, BufferedImage image, int top, int bottom, int contrast) {
+    if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB) {
+      throw new IllegalArgumentException("can only render into int RGB images");
+    }
+    if (top < 0 || bottom > image.getHeight() || top > bottom) {
+      throw new IllegalArgumentException(String.format("bad rows [%d, %d) for height %d", top, bottom, image.getHeight()));
+    }
+    if (contrast < 0) {
+      throw new IllegalArgumentException("contrast can't be negative: " + contrast);
+    }
+
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Job job = new Job(Program.compile(tree), kernelOf(tree), new int[][] {pixels}, image.getWidth(), image.getHeight(),
+        0, top, bottom, 1, 1, tileSize, 0, null, contrast);
+    pool.invoke(new Tiles(job, 0, job.tileCount()));
+  }
+
+  /**
+   * Renders a whole list of trees (typically, one generation) into a list of new width x height images, in
+   * the same order. The trees are compiled together, so any subtree that several of them have in common is only
+   * evaluated once per pixel, for all of them. Big generations are compiled and rendered in batches, with {@link
+   * Program#compileBatches(IList, int)}, so the scratch space every thread needs stays bounded; subtrees are only
+   * shared within a batch.
+   */
+  public IList<BufferedImage> renderAll(IList<? extends FunctionTree> trees, int width, int height) {
+    if (trees.empty()) {
+      return List.makeEmpty();
+    }
+
+    IList<BufferedImage> images = trees.map(tree -> new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB));
+    int[][] pixels = new int[images.length()][];
+    int i = 0;
+    for (IList<BufferedImage> rest = images; !rest.empty(); rest = rest.tail()) {
+      pixels[i++] = ((DataBufferInt) rest.head().getRaster().getDataBuffer()).getData();
+    }
+
+    int first = 0;
+    for (IList<Program> batches = Program.compileBatches(trees, MAX_BATCH_REGISTERS); !batches.empty();
+         batches = batches.tail()) {
+      Program batch = batches.head();
+      int[][] batchPixels = Arrays.copyOfRange(pixels, first, first + batch.outputCount());
+      Job job = new Job(batch, batchPixels, width, height, 0, height, tileSize);
+      pool.invoke(new Tiles(job, 0, job.tileCount()));
+      first += batch.outputCount();
+    }
+    return images;
+  }
+
+  /**
+   * Renders only the pixels at (left + i * stride, top + j * stride) of the given image, giving each exactly
+   * the color a full render would, and paints it over the fill x fill block of pixels to its right and below
+   * it. This is how {@link ProgressiveImage} draws a coarse version of an image first, and fills in the
+   * pixels in between later, without computing any pixel twice.
+   */
+  public void renderSamples(FunctionTree tree, BufferedImage image, int left, int top, int stride, int fill) {
+    if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB) {
+      throw new IllegalArgumentException("can only render into int RGB images");
+    }
+    if (left < 0 || top < 0 || stride < 1 || fill < 1) {
+      throw new IllegalArgumentException(
+          String.format("bad samples: left %d, top %d, stride %d, fill %d", left, top, stride, fill));
+    }
+
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Job job = new Job(Program.compile(tree), kernelOf(tree), new int[][] {pixels}, image.getWidth(), image.getHeight(),
+        left, top, image.getHeight(), stride, fill, tileSize);
+    pool.invoke(new Tiles(job, 0, job.tileCount()));
+  }
+
+  /**
+   * Renders the frame at time t of an animated program over the whole image. Whatever doesn't change over time
+   * is kept in the caches, one per tile (see {@link #tileCount(int, int)}), for the next frame; null slots are
+   * filled in along the way. Without caches, every frame is evaluated from scratch.
+   */
+  void renderFrame(Program program, BufferedImage image, double t, @Nullable Program.TimeCache[] caches) {
+    if (image.getType() != BufferedImage.TYPE_INT_RGB && image.getType() != BufferedImage.TYPE_INT_ARGB) {
+      throw new IllegalArgumentException("can only render into int RGB images");
+    }
+
+    int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    Job job = new Job(program, null, new int[][] {pixels}, image.getWidth(), image.getHeight(),
+        0, 0, image.getHeight(), 1, 1, tileSize, t, caches, -1);
+    pool.invoke(new Tiles(job, 0, job.tileCount()));
+  }
+
+  /**
+   * Number of tiles a full render of a width x height image is cut into.
+   */
+  int tileCount(int width, int height) {
+    return ((width + tileSize - 1) / tileSize) * ((height + tileSize - 1) / tileSize);
+  }
+
+  // a tree from BytecodeCompiler renders through its generated class, rather than its Program
+  @Nullable
+  private static BytecodeCompiler.Kernel kernelOf(FunctionTree tree) {
+    return (tree instanceof BytecodeCompiler.Compiled) ? ((BytecodeCompiler.Compiled) tree).getKernel() : null;
+  }
+
+  /*
+      everything the tiles of one render share. each tile
+      borrows scratch space from the job's spares, making
+      more only when they're all in use, so there are never
+      more than there are threads drawing tiles at once,
+      and workers never write to anything but their own
+      tiles of the images, one image per program output.
+
+      tiles are cut from the grid of samples, which is
+      every pixel of rows [top, bottom) for a normal
+      render, or every stride-th one for renderSamples.
+
+      an animation frame also has a time, and maybe a
+      time cache per tile, each only ever touched by the
+      thread drawing that tile. an antialiased render has
+      a contrast, which is -1 for any other render.
+  */
+  private static final class Job {
+    final Program program;
+    @Nullable final BytecodeCompiler.Kernel kernel;
+    final int[][] pixels;
+    final int width;
+    final int height;
+    final int left;
+    final int top;
+    final int stride;
+    final int fill;
+    final int samplesAcross;
+    final int samplesDown;
+    final int tileSize;
+    final int tilesAcross;
+    final double x0;
+    final double y0;
+    final double dx;
+    final double dy;
+    final double time;
+    @Nullable final Program.TimeCache[] caches;
+    final int contrast;
+    final int scratchSize;
+    final ConcurrentLinkedDeque<Scratch> spares = new ConcurrentLinkedDeque<>();
+
+    Job(Program program, int[][] pixels, int width, int height, int top, int bottom, int tileSize) {
+      this(program, null, pixels, width, height, 0, top, bottom, 1, 1, tileSize);
+    }
+
+    Job(Program program, @Nullable BytecodeCompiler.Kernel kernel, int[][] pixels, int width, int height,
+        int left, int top, int bottom, int stride, int fill, int tileSize) {
+      this(program, kernel, pixels, width, height, left, top, bottom, stride, fill, tileSize, 0, null, -1);
+    }
+
+    Job(Program program, @Nullable BytecodeCompiler.Kernel kernel, int[][] pixels, int width, int height,
+        int left, int top, int bottom, int stride, int fill, int tileSize,
+        double time, @Nullable Program.TimeCache[] caches, int contrast) {
+      this.program = program;
+      this.kernel = kernel;
+      this.pixels = pixels;
+      this.width = width;
+      this.height = height;
+      this.left = left;
+      this.top = top;
+      this.stride = stride;
+      this.fill = fill;
+      this.samplesAcross = Math.max(0, (width - left + stride - 1) / stride);
+      this.samplesDown = Math.max(0, (bottom - top + stride - 1) / stride);
+      this.tileSize = tileSize;
+      this.tilesAcross = (samplesAcross + tileSize - 1) / tileSize;
+      this.x0 = origin(width);
+      this.y0 = origin(height);
+      this.dx = step(width);
+      this.dy = step(height);
+      this.time = time;
+      this.caches = caches;
+      this.contrast = contrast;
+      // antialiased tiles are evaluated with a border of one pixel all around
+      this.scratchSize = contrast < 0 ? tileSize : tileSize + 2;
+    }
+
+    int tileCount() {
+      return tilesAcross * ((samplesDown + tileSize - 1) / tileSize);
+    }
+
+    void renderTile(int tile) {
+      Scratch s = spares.pollFirst();
+      if (s == null) {
+        s = new Scratch(program, scratchSize);
+      }
+      try {
+        renderTile(tile, s);
+      } finally {
+        spares.addFirst(s);
+      }
+    }
+
+    void renderTile(int tile, Scratch s) {
+      int tileLeft = (tile % tilesAcross) * tileSize;
+      int tileTop = (tile / tilesAcross) * tileSize;
+      int tileWidth = Math.min(tileSize, samplesAcross - tileLeft);
+      int tileHeight = Math.min(tileSize, samplesDown - tileTop);
+      int pixelLeft = left + tileLeft * stride;
+      int pixelTop = top + tileTop * stride;
+
+      if (contrast >= 0) {
+        antialiasTile(pixelLeft, pixelTop, tileWidth, tileHeight, s);
+        return;
+      }
+
+      if (kernel != null) {
+        kernel.evaluateRect(x0, y0, dx, dy, pixelLeft, pixelTop, stride, tileWidth, tileHeight,
+            s.red[0], s.green[0], s.blue[0]);
+      } else {
+        Program.TimeCache cache = null;
+        if (caches != null) {
+          if (caches[tile] == null) {
+            caches[tile] = program.newTimeCache(tileWidth * tileHeight);
+          }
+          cache = caches[tile];
+        }
+        program.evaluateRect(x0, y0, dx, dy, pixelLeft, pixelTop, stride, tileWidth, tileHeight, time, cache,
+            s.red, s.green, s.blue, s.workspace);
+      }
+
+      for (int out = 0; out < pixels.length; out++) {
+        int[] image = pixels[out];
+        double[] red = s.red[out];
+        double[] green = s.green[out];
+        double[] blue = s.blue[out];
+        if (stride == 1 && fill == 1) {
+          for (int j = 0; j < tileHeight; j++) {
+            int row = (pixelTop + j) * width + pixelLeft;
+            int k = j * tileWidth;
+            for (int i = 0; i < tileWidth; i++, k++) {
+              image[row + i] = Coord.toRGB(red[k], green[k], blue[k]);
+            }
+          }
+        } else {
+          for (int j = 0; j < tileHeight; j++) {
+            int y = pixelTop + j * stride;
+            int yEnd = Math.min(y + fill, height);
+            int k = j * tileWidth;
+            for (int i = 0; i < tileWidth; i++, k++) {
+              int x = pixelLeft + i * stride;
+              int xEnd = Math.min(x + fill, width);
+              int rgb = Coord.toRGB(red[k], green[k], blue[k]);
+              for (int row = y; row < yEnd; row++) {
+                Arrays.fill(image, row * width + x, row * width + xEnd, rgb);
+              }
+            }
+          }
+        }
+      }
+    }
+
+    /*
+        the first pass evaluates the tile's pixel centers,
+        plus a border of one pixel all around, so that every
+        pixel can be compared with all four of its neighbors.
+        the second pass evaluates a grid of samples in every
+        pixel that's too different from any of them.
+    */
+    void antialiasTile(int pixelLeft, int pixelTop, int tileWidth, int tileHeight, Scratch s) {
+      int across = tileWidth + 2;
+      int down = tileHeight + 2;
+      double[] red = s.red[0];
+      double[] green = s.green[0];
+      double[] blue = s.blue[0];
+      if (kernel != null) {
+        kernel.evaluateRect(x0, y0, dx, dy, pixelLeft - 1, pixelTop - 1, 1, across, down, red, green, blue);
+      } else {
+        program.evaluateRect(x0, y0, dx, dy, pixelLeft - 1, pixelTop - 1, 1, across, down,
+            s.red, s.green, s.blue, s.workspace);
+      }
+
+      int[] rgb = s.rgb;
+      for (int k = 0; k < across * down; k++) {
+        rgb[k] = Coord.toRGB(red[k], green[k], blue[k]);
+      }
+
+      int[] image = pixels[0];
+      int count = 0;
+      for (int j = 0; j < tileHeight; j++) {
+        int row = (pixelTop + j) * width + pixelLeft;
+        for (int i = 0; i < tileWidth; i++) {
+          int k = (j + 1) * across + i + 1;
+          int c = rgb[k];
+          if (differs(c, rgb[k - 1], contrast) || differs(c, rgb[k + 1], contrast)
+              || differs(c, rgb[k - across], contrast) || differs(c, rgb[k + across], contrast)) {
+            s.refined[count++] = j * tileWidth + i;
+          } else {
+            image[row + i] = c;
+          }
+        }
+      }
+      if (count == 0) {
+        return;
+      }
+
+      final int n = SUPERSAMPLES;
+      s.ensureSamples(count * n * n);
+      int sample = 0;
+      for (int r = 0; r < count; r++) {
+        int x = pixelLeft + s.refined[r] % tileWidth;
+        int y = pixelTop + s.refined[r] / tileWidth;
+        for (int sy = 0; sy < n; sy++) {
+          for (int sx = 0; sx < n; sx++, sample++) {
+            s.sampleX[sample] = x0 + (x - 0.5 + (sx + 0.5) / n) * dx;
+            s.sampleY[sample] = y0 + (y - 0.5 + (sy + 0.5) / n) * dy;
+          }
+        }
+      }
+
+      if (kernel != null) {
+        double[] rgbOut = new double[3];
+        for (int k = 0; k < sample; k++) {
+          kernel.evaluate(s.sampleX[k], s.sampleY[k], rgbOut, 0);
+          s.sampleRed[k] = rgbOut[0];
+          s.sampleGreen[k] = rgbOut[1];
+          s.sampleBlue[k] = rgbOut[2];
+        }
+      } else {
+        program.evaluatePoints(s.sampleX, s.sampleY, sample, s.sampleRed, s.sampleGreen, s.sampleBlue, s.workspace);
+      }
+
+      // the average of the samples' 0-255 channels, rounded, so a wild sample can't count for more than 255
+      sample = 0;
+      for (int r = 0; r < count; r++) {
+        int sumRed = 0;
+        int sumGreen = 0;
+        int sumBlue = 0;
+        for (int k = 0; k < n * n; k++, sample++) {
+          sumRed += Coord.toChannel(s.sampleRed[sample]);
+          sumGreen += Coord.toChannel(s.sampleGreen[sample]);
+          sumBlue += Coord.toChannel(s.sampleBlue[sample]);
+        }
+        int half = n * n / 2;
+        int x = pixelLeft + s.refined[r] % tileWidth;
+        int y = pixelTop + s.refined[r] / tileWidth;
+        image[y * width + x] = 0xff000000 | ((sumRed + half) / (n * n)) << 16
+            | ((sumGreen + half) / (n * n)) << 8 | ((sumBlue + half) / (n * n));
+      }
+    }
+  }
+
+  private static final class Scratch {
+    final Program.Workspace workspace;
+    final double[][] red;
+    final double[][] green;
+    final double[][] blue;
+
+    // for antialiasing: the first pass packed into RGB, which pixels need more samples, and the samples
+    final int[] rgb;
+    final int[] refined;
+    double[] sampleX = new double[0];
+    double[] sampleY = new double[0];
+    double[] sampleRed = new double[0];
+    double[] sampleGreen = new double[0];
+    double[] sampleBlue = new double[0];
+
+    Scratch(Program program, int tileSize) {
+      workspace = program.newWorkspace();
+      red = new double[program.outputCount()][tileSize * tileSize];
+      green = new double[program.outputCount()][tileSize * tileSize];
+      blue = new double[program.outputCount()][tileSize * tileSize];
+      rgb = new int[tileSize * tileSize];
+      refined = new int[tileSize * tileSize];
+    }
+
+    void ensureSamples(int count) {
+      if (sampleX.length < count) {
+        sampleX = new double[count];
+        sampleY = new double[count];
+        sampleRed = new double[count];
+        sampleGreen = new double[count];
+        sampleBlue = new double[count];
+      }
+    }
+  }
+
+  /*
+      channels of two packed RGB pixels more than contrast
+      apart, in any channel.
+  */
+  private static boolean differs(int a, int b, int contrast) {
+    return Math.abs(((a >> 16) & 0xff) - ((b >> 16) & 0xff)) > contrast
+        || Math.abs(((a >> 8) & 0xff) - ((b >> 8) & 0xff)) > contrast
+        || Math.abs((a & 0xff) - (b & 0xff)) > contrast;
+  }
+
+  /*
+      a range of tile numbers; splits in half until
+      there's only one tile left to render.
+  */
+  private static final class Tiles extends RecursiveAction {
+    private final Job job;
+    private final int first;
+    private final int last;
+
+    Tiles(Job job, int first, int last) {
+      this.job = job;
+      this.first = first;
+      this.last = last;
+    }
+
+    @Override
+    protected void compute() {
+      if (last - first == 1) {
+        job.renderTile(first);
+      } else if (last - first > 1) {
+        int middle = (first + last) >>> 1;
+        invokeAll(new Tiles(job, first, middle), new Tiles(job, middle, last));
+      }
+    }
+  }
+}
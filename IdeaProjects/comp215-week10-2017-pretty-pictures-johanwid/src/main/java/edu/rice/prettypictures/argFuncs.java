@@ -1,8 +1,38 @@
 
 package edu.rice.prettypictures;
 
+import edu.rice.list.IList;
+import edu.rice.list.List;
+
 public interface argFuncs extends FunctionTree {
 
+  /*
+      which kind of node this is.
+  */
+  Opcode opcode();
+
+  /*
+      the arguments of this node, in order. leaves
+      have none.
+  */
+  default IList<argFuncs> children() {
+    return List.makeEmpty();
+  }
+
+  /*
+      every node evaluates itself at a time, passing t down
+      to its children, so a tree can be evaluated at any
+      frame without compiling it. a still image is the
+      frame at t = 0.
+  */
+  @Override
+  Coord evaluate(double x, double y, double t);
+
+  @Override
+  default Coord evaluate(double x, double y) {
+    return evaluate(x, y, 0);
+  }
+
   /*
       creates a coord for target pixel x.
   */
@@ -16,7 +46,12 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
+    public Opcode opcode() {
+      return Opcode.VAR_X;
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
       return new Coord(x, x, x);
     }
   }
@@ -34,11 +69,41 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
+    public Opcode opcode() {
+      return Opcode.VAR_Y;
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
       return new Coord(y, y, y);
     }
   }
 
+  /*
+      creates a coord for the time, t, of an animation
+      frame. a still image is the frame at t = 0, so
+      evaluated without a time, this is always zero.
+  */
+  class VarT implements argFuncs {
+
+    VarT() {
+    }
+
+    public static VarT make() {
+      return new VarT();
+    }
+
+    @Override
+    public Opcode opcode() {
+      return Opcode.VAR_T;
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      return new Coord(t, t, t);
+    }
+  }
+
   /*
       creates a coord for constants in range [-1, 1]
   */
@@ -63,7 +128,16 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
+    public Opcode opcode() {
+      return Opcode.CONSTANT;
+    }
+
+    public Coord getValue() {
+      return hold;
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
       return hold;
     }
   }
@@ -86,10 +160,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double nr = hold.evaluate(x, y).getRed() * -1;
-      double ng = hold.evaluate(x, y).getGreen() * -1;
-      double nb = hold.evaluate(x, y).getBlue() * -1;
+    public Opcode opcode() {
+      return Opcode.NEGATE;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double nr = h.getRed() * -1;
+      double ng = h.getGreen() * -1;
+      double nb = h.getBlue() * -1;
       return new Coord(nr, ng, nb);
     }
   }
@@ -109,10 +194,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.SINE;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(Math.sin(r), Math.sin(g), Math.sin(b));
     }
   }
@@ -132,10 +228,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.ROUND_DOWN;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(Math.floor(r), Math.floor(g), Math.floor(b));
     }
   }
@@ -155,10 +262,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.ROUND_UP;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(Math.ceil(r), Math.ceil(g), Math.ceil(b));
     }
   }
@@ -178,10 +296,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.COSINE;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(Math.cos(r), Math.cos(g), Math.cos(b));
     }
   }
@@ -201,10 +330,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.ARCTAN;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(Math.atan(r), Math.atan(g), Math.atan(b));
     }
   }
@@ -228,10 +368,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.EXPON;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(
           clipper(Math.exp(r)),
           clipper(Math.exp(g)),
@@ -254,10 +405,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.LOGRM;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(Math.log(r), Math.log(g), Math.log(b));
     }
   }
@@ -281,10 +443,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.ABS_VAL;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       // double ar = (r >= 0) ? r : (r * -1);
       double ar = avhelper(r);
       double ag = avhelper(g);
@@ -313,10 +486,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.CLIP;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       // double cr = (r > 1) ? 1 : (r < -1) ? -1 : r;
       double cr = cliphelper(r);
       double cg = cliphelper(g);
@@ -345,10 +529,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.WRAP;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       return new Coord(wrapper(r), wrapper(g),
           wrapper(b));
     }
@@ -370,10 +565,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r = hold.evaluate(x, y).getRed();
-      double g = hold.evaluate(x, y).getGreen();
-      double b = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.RGB_TO_YCRCB;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double r = h.getRed();
+      double g = h.getGreen();
+      double b = h.getBlue();
       double y1 = 0.299, y2 = 0.587, y3 = 0.114;
       double cr1 = 0.500, cr2 = -0.419, cr3 = -0.081;
       double cb1 = -0.619, cb2 = -0.331, cb3 = 0.500;
@@ -400,10 +606,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double yo = hold.evaluate(x, y).getRed();
-      double cr = hold.evaluate(x, y).getGreen();
-      double cb = hold.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.YCRCB_TO_RGB;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(hold);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord h = hold.evaluate(x, y, t);
+      double yo = h.getRed();
+      double cr = h.getGreen();
+      double cb = h.getBlue();
       double r1 = 1.000, r2 = 1.400, r3 = 0.000;
       double g1 = 1.000, g2 = -0.711, g3 = -0.343;
       double b1 = 1.000, b2 = 0.000, b3 = 1.765;
@@ -437,13 +654,25 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.ADD;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
       return new Coord(
           clipper(r1 + r2),
           clipper(g1 + g2),
@@ -472,13 +701,25 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.SUBTRACT;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
       return new Coord(
           clipper(r1 - r2),
           clipper(g1 - g2),
@@ -507,13 +748,25 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.MULTIPLY;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
       return new Coord(
           clipper(r1 * r2),
           clipper(g1 * g2),
@@ -542,13 +795,25 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.DIVIDE;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
       double d1 = r2 == 0 ? 0 : r1 / r2;
       double d2 = g2 == 0 ? 0 : g1 / g2;
       double d3 = b2 == 0 ? 0 : b1 / b2;
@@ -580,13 +845,25 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.DOT_PRODUCT;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
       double c = (r1 * r2) + (g1 * g2) + (b1 * b2);
       return new Coord(
           clipper(c),
@@ -612,13 +889,19 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.EXTERNAL;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      // only the green channel of the first argument matters
+      double g1 = one.evaluate(x, y, t).getGreen();
       return new Coord(g1, g1, g1);
     }
   }
@@ -644,10 +927,21 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.GS_PERLIN;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
       double no = ImprovedNoise.noise(r1, g1, b1);
       return new Coord(conv255to1(no), conv255to1(no),
           conv255to1(no));
@@ -675,13 +969,25 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.PERLIN;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
       double n1 = ImprovedNoise.noise(g1, b2, r2);
       double n2 = ImprovedNoise.noise(b1, r2, b2);
       double n3 = ImprovedNoise.noise(g1, r1, r1);
@@ -690,6 +996,60 @@ public interface argFuncs extends FunctionTree {
     }
   }
 
+  /*
+      looks up the color of one of the cool-images
+      pictures, at the red channels of two coords,
+      blurred by some number of mip levels. the
+      picture and the blur belong to the node, like a
+      constant's value, and the picture is decoded once
+      and shared (see ReferenceImages).
+  */
+  class ImageSample implements argFuncs {
+    private final String picture;
+    private final double blur;
+    private final argFuncs one;
+    private final argFuncs two;
+
+    ImageSample(String picture, double blur, argFuncs one, argFuncs two) {
+      if (!ReferenceImages.isName(picture)) {
+        throw new IllegalArgumentException("no picture named " + picture);
+      }
+      this.picture = picture;
+      this.blur = blur;
+      this.one = one;
+      this.two = two;
+    }
+
+    public static ImageSample make(String picture, double blur, argFuncs one, argFuncs two) {
+      return new ImageSample(picture, blur, one, two);
+    }
+
+    public String getPicture() {
+      return picture;
+    }
+
+    public double getBlur() {
+      return blur;
+    }
+
+    @Override
+    public Opcode opcode() {
+      return Opcode.IMAGE_SAMPLE;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      double u = one.evaluate(x, y, t).getRed();
+      double v = two.evaluate(x, y, t).getRed();
+      return ReferenceImages.shared().get(picture).sample(u, v, blur);
+    }
+  }
+
   // three args
 
   /*
@@ -722,16 +1082,29 @@ public interface argFuncs extends FunctionTree {
     }
 
     @Override
-    public Coord evaluate(double x, double y) {
-      double r1 = one.evaluate(x, y).getRed();
-      double g1 = one.evaluate(x, y).getGreen();
-      double b1 = one.evaluate(x, y).getBlue();
-      double r2 = two.evaluate(x, y).getRed();
-      double g2 = two.evaluate(x, y).getGreen();
-      double b2 = two.evaluate(x, y).getBlue();
-      double r3h = tri.evaluate(x, y).getRed();
-      double g3h = tri.evaluate(x, y).getGreen();
-      double b3h = tri.evaluate(x, y).getBlue();
+    public Opcode opcode() {
+      return Opcode.DISSOLVE;
+    }
+
+    @Override
+    public IList<argFuncs> children() {
+      return List.of(one, two, tri);
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      Coord c1 = one.evaluate(x, y, t);
+      double r1 = c1.getRed();
+      double g1 = c1.getGreen();
+      double b1 = c1.getBlue();
+      Coord c2 = two.evaluate(x, y, t);
+      double r2 = c2.getRed();
+      double g2 = c2.getGreen();
+      double b2 = c2.getBlue();
+      Coord c3 = tri.evaluate(x, y, t);
+      double r3h = c3.getRed();
+      double g3h = c3.getGreen();
+      double b3h = c3.getBlue();
       double r3 = cliphelper(r3h);
       double g3 = cliphelper(g3h);
       double b3 = cliphelper(b3h);
@@ -0,0 +1,126 @@
+/*
+ * This code is part of Rice Comp215 and is made available for your use
+ * as a student in Comp215. You are specifically forbidden from posting
+ * this code online (e.g., on Github) or otherwise making it, or any derivative
+ * of it, available to future Comp215 students. Violations of this rule are
+ * considered Honor Code violations and will result in your being reported to
+ * the Honor Council, even after you've completed the class, and will result
+ * in retroactive reductions to your grade.
+ */
+
+package edu.rice.primes;
+
+import edu.rice.list.IList;
+import edu.rice.list.LazyList;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+
+/**
+ * An incremental source of primes, for when you don't know in advance how many you'll want. Like everything in {@link
+ * Primes}, it starts with 1, then 2, 3, 5, and so on, all the way up to 2147483647, the largest prime that fits in an
+ * int.
+ *
+ * <p>Compare this to the obvious lazy list, {@code iterate(1, x -> x + 1).filter(Primes::isPrime)}, which does
+ * O(sqrt p) trial divisions for every number it looks at. This is a segmented sieve, as in {@link
+ * Primes#primesSegmented(int)}, extended one segment at a time as you ask for more. A segment is about sqrt(p) odd
+ * numbers long (never more than {@link Primes#SEGMENT_SIZE}), and the sieving primes only go up to about sqrt(p), so
+ * all the state it ever keeps is O(sqrt p), for the biggest prime p it's handed out so far.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public final class PrimeGenerator implements PrimitiveIterator.OfInt {
+  // segments never get shorter than this, so the first few aren't silly little things
+  private static final int MIN_SEGMENT = 64;
+
+  private int[] sievingPrimes = new int[0];
+  private int sievingLimit = 0; // sievingPrimes has every odd prime up to this
+  private boolean[] composite = new boolean[0];
+
+  private long low = 3; // composite[i] stands for low + 2i
+  private int length = 0;
+  private int position = 0; // where in the segment to look for the next prime
+  private long upcoming = 1; // the prime next() will return, or -1 when we've run out of ints
+
+  private PrimeGenerator() { }
+
+  /**
+   * A fresh generator, starting from 1.
+   */
+  public static PrimeGenerator make() {
+    return new PrimeGenerator();
+  }
+
+  /**
+   * An infinite (well, up to the largest int) lazy list of primes, starting with 1. Each one is computed only when
+   * the list gets that far. Note that a lazy list remembers everything it has computed, so if you hang onto the head
+   * of this list, you're keeping every prime you've looked at. If you just want to walk through them, use {@link
+   * #make()} instead.
+   */
+  public static IList<Integer> primes() {
+    return LazyList.fromIterator(make());
+  }
+
+  @Override
+  public boolean hasNext() {
+    return upcoming >= 0;
+  }
+
+  @Override
+  public int nextInt() {
+    if (upcoming < 0) {
+      throw new NoSuchElementException("no more primes that fit in an int");
+    }
+
+    int result = (int) upcoming;
+    upcoming = (result == 1) ? 2 : findNext();
+    return result;
+  }
+
+  /**
+   * The next odd prime after the ones we've already found, sieving new segments as we need them, or -1 once we're
+   * past Integer.MAX_VALUE.
+   */
+  private long findNext() {
+    while (true) {
+      for (; position < length; position++) {
+        if (!composite[position]) {
+          return low + 2L * position++;
+        }
+      }
+
+      if (length > 0) {
+        low += 2L * length;
+      }
+      if (low > Integer.MAX_VALUE) {
+        return -1;
+      }
+      nextSegment();
+    }
+  }
+
+  /**
+   * Sieves the segment starting at low, sized to match how far along we are.
+   */
+  private void nextSegment() {
+    int size = Math.max(MIN_SEGMENT, Math.min(Primes.SEGMENT_SIZE, Primes.isqrt((int) low)));
+    length = (int) Math.min(size, (Integer.MAX_VALUE - low) / 2 + 1);
+    position = 0;
+
+    if (composite.length < length) {
+      composite = new boolean[length];
+    }
+
+    // We need every prime up to sqrt of the segment's last number. Rather than sieving for those again with every
+    // segment, we get twice as many as we need whenever we run out, so we only do it O(log p) times.
+    int needed = Primes.isqrt((int) (low + 2L * (length - 1)));
+    if (needed > sievingLimit) {
+      sievingLimit = Math.min(Primes.isqrt(Integer.MAX_VALUE), Math.max(needed, 2 * sievingLimit));
+      sievingPrimes = Primes.oddPrimesUpTo(sievingLimit);
+    }
+
+    Primes.sieveSegment(composite, low, length, sievingPrimes);
+  }
+}
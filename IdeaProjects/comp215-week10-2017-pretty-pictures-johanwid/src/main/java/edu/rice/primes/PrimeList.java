@@ -0,0 +1,167 @@
+/*
+ * This code is part of Rice Comp215 and is made available for your use
+ * as a student in Comp215. You are specifically forbidden from posting
+ * this code online (e.g., on Github) or otherwise making it, or any derivative
+ * of it, available to future Comp215 students. Violations of this rule are
+ * considered Honor Code violations and will result in your being reported to
+ * the Honor Council, even after you've completed the class, and will result
+ * in retroactive reductions to your grade.
+ */
+
+package edu.rice.primes;
+
+import edu.rice.list.IList;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static edu.rice.list.LazyList.rangeInt;
+
+/**
+ * An immutable, ascending sequence of ints, held in a plain int[], which is what all the generators in {@link Primes}
+ * return. A list of a hundred million primes as an {@link IList}&lt;Integer&gt; is a hundred million Integer objects
+ * and as many cons cells, several times the memory of the numbers themselves, and building it often takes longer
+ * than finding the primes did. This is four bytes per prime, and nothing else.
+ *
+ * <p>When you want to use the rest of our list machinery, {@link #toList()} gives you an IList view, which only boxes
+ * the numbers you actually look at.
+ */
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public final class PrimeList {
+  private static final PrimeList EMPTY = new PrimeList(new int[0]);
+
+  private final int[] values;
+
+  private PrimeList(int[] values) {
+    this.values = values;
+  }
+
+  /**
+   * A PrimeList of the given numbers, which must be strictly ascending.
+   */
+  public static PrimeList of(int... values) {
+    for (int i = 1; i < values.length; i++) {
+      if (values[i - 1] >= values[i]) {
+        throw new IllegalArgumentException("not ascending: " + values[i - 1] + ", " + values[i]);
+      }
+    }
+    return values.length == 0 ? EMPTY : new PrimeList(values.clone());
+  }
+
+  /**
+   * A PrimeList of the numbers in the given list, which must be strictly ascending. This forces all of a lazy list.
+   */
+  public static PrimeList fromList(IList<Integer> list) {
+    int[] values = new int[list.length()];
+    list.foldl(0, (i, value) -> {
+      values[i] = value;
+      return i + 1;
+    });
+    return of(values);
+  }
+
+  /**
+   * A PrimeList of the first count entries of the array, which must already be strictly ascending, and which the
+   * caller must not change afterward. Our sieves use this to hand over their work without checking or copying it,
+   * except to trim the array when they've overestimated how big it needs to be.
+   */
+  static PrimeList wrap(int[] values, int count) {
+    if (count == 0) {
+      return EMPTY;
+    }
+    return new PrimeList(count == values.length ? values : Arrays.copyOf(values, count));
+  }
+
+  /**
+   * A PrimeList of the whole array, as in {@link #wrap(int[], int)}.
+   */
+  static PrimeList wrap(int[] values) {
+    return wrap(values, values.length);
+  }
+
+  public int size() {
+    return values.length;
+  }
+
+  public boolean empty() {
+    return values.length == 0;
+  }
+
+  /**
+   * The nth number in the sequence, counting from 0.
+   * @throws IndexOutOfBoundsException if there's no such number
+   */
+  public int get(int n) {
+    return values[n];
+  }
+
+  /**
+   * The last, and therefore biggest, number in the sequence.
+   * @throws NoSuchElementException if the sequence is empty
+   */
+  public int last() {
+    if (values.length == 0) {
+      throw new NoSuchElementException("empty PrimeList");
+    }
+    return values[values.length - 1];
+  }
+
+  /**
+   * Whether the number is in the sequence, by binary search, so O(log n).
+   */
+  public boolean contains(int value) {
+    return Arrays.binarySearch(values, value) >= 0;
+  }
+
+  /**
+   * A new array with the numbers in the sequence.
+   */
+  public int[] toArray() {
+    return values.clone();
+  }
+
+  public IntStream stream() {
+    return Arrays.stream(values);
+  }
+
+  public PrimitiveIterator.OfInt iterator() {
+    return stream().iterator();
+  }
+
+  /**
+   * A lazy IList view of the sequence. Each number is only boxed when something looks at it.
+   */
+  public IList<Integer> toList() {
+    return rangeInt(0, values.length - 1).map(i -> values[i]);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof PrimeList && Arrays.equals(values, ((PrimeList) o).values);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(values);
+  }
+
+  @Override
+  public String toString() {
+    // for big lists, just the beginning and end, which is what you'd want to see in a debugger anyway
+    if (values.length <= 20) {
+      return "PrimeList" + Arrays.toString(values);
+    }
+    return "PrimeList[" + join(stream().limit(10)) + ", ... (" + (values.length - 20) + " more) ..., "
+        + join(stream().skip(values.length - 10)) + "]";
+  }
+
+  private static String join(IntStream numbers) {
+    return numbers.mapToObj(Integer::toString).collect(Collectors.joining(", "));
+  }
+}
@@ -20,29 +20,36 @@ import edu.rice.tree.TreapSet;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Arrays;
 import java.util.function.Function;
 import java.util.stream.IntStream;
 
 import static edu.rice.list.LazyList.rangeInt;
-import static edu.rice.stream.Adapters.streamToEagerList;
 import static java.lang.Math.ceil;
+import static java.lang.Math.log;
 import static java.lang.Math.sqrt;
 
 /**
  * These static functions give you lists of prime numbers. They're useful both for testing list laziness (which several
- * of them rely on for performance) and for general-purpose performance observations.
+ * of them rely on for performance) and for general-purpose performance observations. They all return their primes as a
+ * {@link PrimeList}, which holds them as plain ints; the ones built on lazy lists convert at the very end. If you don't
+ * know in advance how far you need to go, use {@link PrimeGenerator} instead.
  */
 @ParametersAreNonnullByDefault
 @CheckReturnValue
 public class Primes {
   // Here are all the prime-number generation functions that we support, in a convenient registry
-  static final IMap<String, Function<Integer,IList<Integer>>> REGISTRY = TreapMap.of(
+  static final IMap<String, Function<Integer,PrimeList>> REGISTRY = TreapMap.of(
       KeyValue.make("O(n sqrt n)", Primes::primesSimple),
       KeyValue.make("O(n sqrt n) PARALLEL", Primes::primesSimpleParallel),
       KeyValue.make("O(n sqrt n) PARALLEL2", Primes::primesSimpleParallel2),
       KeyValue.make("O(n sqrt n / log n) PARALLEL", Primes::primesTwoPhaseParallel),
       KeyValue.make("O(n log log n)", Primes::primesEratosthenes),
       KeyValue.make("O(n log log n) OPT", Primes::primesEratosthenesStorageOpt),
+      KeyValue.make("O(n log log n) SEGMENTED", Primes::primesSegmented),
+      KeyValue.make("O(n log log n) SEG PARALLEL", Primes::primesSegmentedParallel),
+      KeyValue.make("O(n log log n) BITS", Primes::primesBitPacked),
+      KeyValue.make("O(n log log n) WHEEL", Primes::primesWheel),
       KeyValue.make("O(n log n) NO LISTS", Primes::primesFasterStillNoLists),
       KeyValue.make("O(n log n) PARALLEL", Primes::primesFasterStillParallel),
       KeyValue.make("O(n log n) PARA NOLST", Primes::primesFasterStillParallelNoLists),
@@ -74,16 +81,25 @@ public class Primes {
       "O(n sqrt n) PARALLEL2",
       "O(n sqrt n / log n) PARALLEL",
       "O(n log log n)",
-      "O(n log log n) OPT"
+      "O(n log log n) OPT",
+      "O(n log log n) SEGMENTED",
+      "O(n log log n) SEG PARALLEL",
+      "O(n log log n) BITS",
+      "O(n log log n) WHEEL"
   );
 
+  // Odd candidates per block of the segmented sieve, one byte each: 32KB fits in the L1 data cache of
+  // anything we're likely to run on, so every crossing-off write hits L1.
+  static final int SEGMENT_SIZE = 1 << 15;
+
   // Engineering notes: you may wonder why we're doing everything with Integer rather than Long values,
   // especially since we're dancing so close to Integer.MAX_VALUE. Turns out, Java doesn't support
   // array sizes larger than Integer.MAX_VALUE entries. You can't have a contiguous array bigger than
   // that! Yeah, sure, we could simulate it, probably most easily with an array of arrays and some
   // logic in front to do getters and setters. Our benchmark runs long enough, as-is, without needing
   // to work on larger problem-set sizes. Also, if we were really serious about performance, we'd
-  // do bit-vectors rather than arrays of boolean. And if we were *really* serious, we'd consider
+  // do bit-vectors rather than arrays of boolean (see primesBitPacked and primesWheel, below, which
+  // do exactly that). And if we were *really* serious, we'd consider
   // some form of *compressed* bitmaps, since as we get to larger primes, they're spaced out more.
   // That would cost more CPU time per query, to manage the bitmap, but we might get better memory
   // cache behavior, more than making up for the added CPU cost.
@@ -106,12 +122,12 @@ public class Primes {
    * List of all primes from 1 to maxPrime. O(n sqrt n). Tests each number
    * individually for primality. Very simple.
    */
-  public static IList<Integer> primesSimple(int maxPrime) {
+  public static PrimeList primesSimple(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
-    return rangeInt(1, maxPrime).filter(Primes::isPrime);
+    return PrimeList.fromList(rangeInt(1, maxPrime).filter(Primes::isPrime));
   }
 
   /**
@@ -164,9 +180,9 @@ public class Primes {
   /**
    * List of all primes from 1 to maxPrime. O(n^2 log n)
    */
-  public static IList<Integer> primesSlow(int maxPrime) {
+  public static PrimeList primesSlow(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     // We're only using the numbers less than sqrt(max) because for any composite number in [1,maxPrime], there
@@ -201,15 +217,15 @@ public class Primes {
 
     // The filter, below, is then n passes over the list above, thus the total run time of O(n^2 log n).
 
-    return numRange.filter(i -> !outerProduct.contains(i)).add(1);
+    return PrimeList.fromList(numRange.filter(i -> !outerProduct.contains(i)).add(1));
   }
 
   /**
    * List of all primes from 1 to maxPrime. O(n log^2 n)
    */
-  public static IList<Integer> primesFaster(int maxPrime) {
+  public static PrimeList primesFaster(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     int maxFactor = (int) ceil(sqrt(maxPrime));
@@ -238,15 +254,16 @@ public class Primes {
     // to leave it out, but we'll take a warning from IntelliJ over an error from Javac.
     // https://bugs.openjdk.java.net/browse/JDK-8154501
 
-    return numRange.filter(i -> !outerProduct.contains(i)).add(1); // each contains() query is O(log n)
+    // each contains() query is O(log n)
+    return PrimeList.fromList(numRange.filter(i -> !outerProduct.contains(i)).add(1));
   }
 
   /**
    * List of all primes from 1 to maxPrime. O(n log n). Feel the power of mutation!
    */
-  public static IList<Integer> primesFasterStillNoLists(int maxPrime) {
+  public static PrimeList primesFasterStillNoLists(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     int maxFactor = (int) ceil(sqrt(maxPrime));
@@ -263,15 +280,15 @@ public class Primes {
       }
     }
 
-    return rangeInt(1, maxPrime).filter(i -> !notPrimes[i]);
+    return PrimeList.wrap(IntStream.rangeClosed(1, maxPrime).filter(i -> !notPrimes[i]).toArray());
   }
 
   /**
    * List of all primes from 1 to maxPrime. O(n log n). Feel the power of mutation!
    */
-  public static IList<Integer> primesFasterStill(int maxPrime) {
+  public static PrimeList primesFasterStill(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     int maxFactor = (int) ceil(sqrt(maxPrime));
@@ -286,15 +303,16 @@ public class Primes {
 
     // Total runtime cost is O(n log n).
 
-    return numRange.filter(i -> !notPrimes[i]).add(1); // these queries are now constant time, since they look in the array
+    // these queries are now constant time, since they look in the array
+    return PrimeList.fromList(numRange.filter(i -> !notPrimes[i]).add(1));
   }
 
   /**
    * List of all primes from 1 to maxPrime. O(n log n). Feel the power of mutation and parallel streams!
    */
-  public static IList<Integer> primesFasterStillParallel(int maxPrime) {
+  public static PrimeList primesFasterStillParallel(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     int maxFactor = (int) ceil(sqrt(maxPrime));
@@ -322,7 +340,7 @@ public class Primes {
     // Total runtime cost is still O(n log n), same as the original primesFasterStill.
 
     // No opportunity for parallelism when reading out the array, but this part is linear, so relatively fast.
-    return numRange.filter(i -> !notPrimes[i]).add(1);
+    return PrimeList.fromList(numRange.filter(i -> !notPrimes[i]).add(1));
   }
 
   /**
@@ -330,9 +348,9 @@ public class Primes {
    * with this version carefully engineered to get rid of all the IList stuff that makes the previous
    * version slightly more readable.
    */
-  public static IList<Integer> primesFasterStillParallelNoLists(int maxPrime) {
+  public static PrimeList primesFasterStillParallelNoLists(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     int maxFactor = (int) ceil(sqrt(maxPrime));
@@ -355,26 +373,26 @@ public class Primes {
     // Total runtime cost is still O(n log n), same as the original primesFasterStill.
 
     // No opportunity for parallelism when reading out the array, but this part is only linear.
-    return rangeInt(1, maxPrime).filter(i -> !notPrimes[i]);
+    return PrimeList.wrap(IntStream.rangeClosed(1, maxPrime).filter(i -> !notPrimes[i]).toArray());
   }
 
   /**
    * List of all primes from 1 to maxPrime. O(n sqrt n) with parallelism.
    */
-  public static IList<Integer> primesSimpleParallel(int maxPrime) {
+  public static PrimeList primesSimpleParallel(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
-    return rangeInt(1, maxPrime).filter(Primes::isPrimeParallel);
+    return PrimeList.fromList(rangeInt(1, maxPrime).filter(Primes::isPrimeParallel));
   }
 
   /**
    * List of all primes from 1 to maxPrime. O(n sqrt n) with parallelism.
    */
-  public static IList<Integer> primesSimpleParallel2(int maxPrime) {
+  public static PrimeList primesSimpleParallel2(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     // Engineering note: let's compare primesSimpleParallel vs. primesSimpleParallel2.
@@ -387,11 +405,11 @@ public class Primes {
     // running the latter during our big benchmark runs. Feel free to play with the
     // settings and compare them yourself.
 
-    return streamToEagerList(
+    return PrimeList.wrap(
         IntStream.rangeClosed(1, maxPrime)
           .parallel()
           .filter(Primes::isPrime)
-          .boxed());
+          .toArray());
   }
 
   /**
@@ -442,7 +460,7 @@ public class Primes {
   /**
    * The fastest prime number sieve we've got: O((n sqrt n) / (log n)) with parallelism.
    */
-  public static IList<Integer> primesTwoPhaseParallel(int maxPrime) {
+  public static PrimeList primesTwoPhaseParallel(int maxPrime) {
     // We pre-compute all of the primes below sqrt(maxPrime) and then use that to speedup
     // the primality testing (via isPrimeKnownFactors()). This runs in time
     // O(n^{.75} + n * pi(sqrt n)), where pi(n) is the number of primes less than n.
@@ -451,30 +469,29 @@ public class Primes {
     // primesSimpleParallel()'s O(n sqrt n).
 
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     int maxFactor = (int) ceil(sqrt(maxPrime));
 
     int[] primesBelowMaxFactor = primesSimpleParallelArrayOutput(maxFactor);
 
-    return rangeInt(0, primesBelowMaxFactor.length - 1)
-        .map(i -> primesBelowMaxFactor[i]) // LazyList.fromArray won't work because it only does object-arrays, not int-arrays
-        .concat(
-            streamToEagerList(
-                IntStream.rangeClosed(maxFactor + 1, maxPrime)
-                    .parallel()
-                    .filter(n -> isPrimeKnownFactors(n, primesBelowMaxFactor))
-                    .boxed()));
+    return PrimeList.wrap(
+        IntStream.concat(
+            IntStream.of(primesBelowMaxFactor),
+            IntStream.rangeClosed(maxFactor + 1, maxPrime)
+                .parallel()
+                .filter(n -> isPrimeKnownFactors(n, primesBelowMaxFactor)))
+            .toArray());
   }
 
   /**
    * The classic Sieve of Eratosthenes. O(n log log n), written in a fully mutating style for
    * maximum speed (and minimum comprehensibility).
    */
-  public static IList<Integer> primesEratosthenes(int maxPrime) {
+  public static PrimeList primesEratosthenes(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     }
 
     boolean[] notPrime = new boolean[maxPrime + 1]; // these start off initialized to false
@@ -495,7 +512,7 @@ public class Primes {
       }
     }
 
-    return rangeInt(1, maxPrime).filter(i -> !notPrime[i]);
+    return PrimeList.wrap(IntStream.rangeClosed(1, maxPrime).filter(i -> !notPrime[i]).toArray());
   }
 
   /**
@@ -503,11 +520,11 @@ public class Primes {
    * maximum speed (and minimum comprehensibility). Internally, we never store entries for
    * even numbers to save space, running noticeably faster as the internal memory usage grows.
    */
-  public static IList<Integer> primesEratosthenesStorageOpt(int maxPrime) {
+  public static PrimeList primesEratosthenesStorageOpt(int maxPrime) {
     if (maxPrime < 2) {
-      return List.of(1);
+      return PrimeList.of(1);
     } else if (maxPrime < 3) {
-      return List.of(1, 2);
+      return PrimeList.of(1, 2);
     }
 
     // Engineering note: To keep this code as close to the original as possible, we're using the two
@@ -529,10 +546,13 @@ public class Primes {
       }
     }
 
-    return rangeInt(1, notPrime.length - 1)
-        .filter(i -> !notPrime[i] && indexToInt(i) <= maxPrime)
-        .map(Primes::indexToInt)
-        .add(2).add(1);
+    return PrimeList.wrap(
+        IntStream.concat(
+            IntStream.of(1, 2),
+            IntStream.range(1, notPrime.length)
+                .filter(i -> !notPrime[i] && indexToInt(i) <= maxPrime)
+                .map(Primes::indexToInt))
+            .toArray());
   }
 
   // Helper functions for primesEratosthenesStorageOpt(). See engineering note, above.
@@ -543,4 +563,344 @@ public class Primes {
   private static int indexToInt(int index) {
     return index * 2 + 1;
   }
+
+  /**
+   * A segmented Sieve of Eratosthenes. O(n log log n), like {@link #primesEratosthenes(int)}, but rather than one
+   * boolean per number up to maxPrime, it only ever holds the primes up to sqrt(maxPrime) and one cache-sized
+   * block of {@link #SEGMENT_SIZE} odd candidates, which it reuses as it sweeps along. Memory use is O(sqrt n) plus
+   * the primes it returns.
+   */
+  public static PrimeList primesSegmented(int maxPrime) {
+    if (maxPrime < 2) {
+      return PrimeList.of(1);
+    }
+
+    int[] sievingPrimes = oddPrimesUpTo(isqrt(maxPrime));
+    boolean[] composite = new boolean[SEGMENT_SIZE];
+    int[] result = new int[primeCountBound(maxPrime)];
+    result[0] = 1;
+    result[1] = 2;
+    int count = 2;
+
+    // Engineering note: we're doing the arithmetic on numbers as longs, since the last segment can run
+    // past Integer.MAX_VALUE, but indices within the segment always fit in an int.
+    for (long low = 3; low <= maxPrime; low += 2L * SEGMENT_SIZE) {
+      int length = (int) Math.min(SEGMENT_SIZE, (maxPrime - low) / 2 + 1);
+      sieveSegment(composite, low, length, sievingPrimes);
+
+      for (int i = 0; i < length; i++) {
+        if (!composite[i]) {
+          result[count++] = (int) (low + 2L * i);
+        }
+      }
+    }
+
+    return PrimeList.wrap(result, count);
+  }
+
+  /**
+   * A segmented sieve, like {@link #primesSegmented(int)}, with parallelism. Unlike {@link
+   * #primesFasterStillParallel(int)}, which has every thread crossing off numbers all over one shared array, this hands
+   * each task its own contiguous run of segments. Each task has its own small block to sieve in and its own array of
+   * primes to fill, so no two threads ever write to the same cache line, and we glue the tasks' primes together in
+   * order at the end.
+   */
+  public static PrimeList primesSegmentedParallel(int maxPrime) {
+    if (maxPrime < 3) {
+      return primesSegmented(maxPrime);
+    }
+
+    int[] sievingPrimes = oddPrimesUpTo(isqrt(maxPrime));
+    long segments = ((maxPrime - 3L) / 2) / SEGMENT_SIZE + 1;
+
+    // Several tasks per core, so a core that finishes early can pick up another one. Any more than that, and we'd
+    // just be redoing the per-task setup (finding each sieving prime's first multiple) for no benefit.
+    int tasks = (int) Math.min(segments, 4L * Runtime.getRuntime().availableProcessors());
+
+    int[][] chunks = IntStream.range(0, tasks)
+        .parallel()
+        .mapToObj(task -> {
+          long low = 3 + 2L * SEGMENT_SIZE * (segments * task / tasks);
+          long high = Math.min(maxPrime, 1 + 2L * SEGMENT_SIZE * (segments * (task + 1) / tasks));
+          return sieveRange(low, high, sievingPrimes);
+        })
+        .toArray(int[][]::new); // toArray() keeps the tasks in order, however they were scheduled
+
+    int count = 2;
+    for (int[] chunk : chunks) {
+      count += chunk.length;
+    }
+
+    int[] result = new int[count];
+    result[0] = 1;
+    result[1] = 2;
+    int next = 2;
+    for (int[] chunk : chunks) {
+      System.arraycopy(chunk, 0, result, next, chunk.length);
+      next += chunk.length;
+    }
+
+    return PrimeList.wrap(result, count);
+  }
+
+  /**
+   * All the primes in the odd numbers from low to high, inclusive, sieved one segment at a time. Low must be odd and at
+   * least 3, and the sieving primes must go up to sqrt(high).
+   */
+  static int[] sieveRange(long low, long high, int[] sievingPrimes) {
+    // Primes near x are about 1 / ln x apart, so that's a good guess for how many we'll find, with a little to spare.
+    // If we're wrong, we'll grow the array.
+    boolean[] composite = new boolean[SEGMENT_SIZE];
+    int[] result = new int[(int) Math.min((high - low) / 2 + 1, 1.1 * (high - low) / log(low) + 64)];
+    int count = 0;
+
+    for (long start = low; start <= high; start += 2L * SEGMENT_SIZE) {
+      int length = (int) Math.min(SEGMENT_SIZE, (high - start) / 2 + 1);
+      sieveSegment(composite, start, length, sievingPrimes);
+
+      for (int i = 0; i < length; i++) {
+        if (!composite[i]) {
+          if (count == result.length) {
+            result = Arrays.copyOf(result, count * 2);
+          }
+          result[count++] = (int) (start + 2L * i);
+        }
+      }
+    }
+
+    return Arrays.copyOf(result, count);
+  }
+
+  /**
+   * Crosses off, in composite[0 .. length-1], the odd multiples of the sieving primes, where composite[i] stands for
+   * the odd number low + 2i. Each prime starts at its square, or its first odd multiple in the segment if that's
+   * later, so a prime is never crossed off by itself. The primes must be odd, ascending, and include every prime up to
+   * the square root of the segment's last number.
+   */
+  static void sieveSegment(boolean[] composite, long low, int length, int[] sievingPrimes) {
+    Arrays.fill(composite, 0, length, false);
+    long high = low + 2L * (length - 1);
+
+    for (int p : sievingPrimes) {
+      long start = (long) p * p;
+      if (start > high) {
+        break;
+      }
+      if (start < low) {
+        start = (low + p - 1) / p * p;
+        if ((start & 1) == 0) {
+          start += p; // odd + odd = even, so the next odd multiple is one more p along
+        }
+      }
+
+      // stepping one index is stepping by two, so stepping p indices is stepping by 2p, to the next odd multiple
+      for (int i = (int) ((start - low) >> 1); i < length; i += p) {
+        composite[i] = true;
+      }
+    }
+  }
+
+  /**
+   * The odd primes up to and including max, in order, found with a small, ordinary sieve. The segmented sieves
+   * only ever need these up to sqrt(n), so this is cheap.
+   */
+  static int[] oddPrimesUpTo(int max) {
+    if (max < 3) {
+      return new int[0];
+    }
+
+    boolean[] notPrime = new boolean[max + 1];
+    int count = 0;
+    for (int i = 3; i <= max; i += 2) {
+      if (!notPrime[i]) {
+        count++;
+        for (long j = (long) i * i; j <= max; j += 2 * i) {
+          notPrime[(int) j] = true;
+        }
+      }
+    }
+
+    int[] result = new int[count];
+    int next = 0;
+    for (int i = 3; i <= max; i += 2) {
+      if (!notPrime[i]) {
+        result[next++] = i;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * floor(sqrt(n)), exactly, for any non-negative int.
+   */
+  static int isqrt(int n) {
+    int root = (int) sqrt(n);
+    while ((long) root * root > n) {
+      root--;
+    }
+    while ((long) (root + 1) * (root + 1) <= n) {
+      root++;
+    }
+    return root;
+  }
+
+  /**
+   * An upper bound on how many entries a list of primes up to n will have, counting the 1 at the front, so the
+   * sieves can fill a single array rather than growing one as they go. Uses Rosser and Schoenfeld's bound,
+   * pi(n) &lt; 1.25506 n / ln n, which holds for every n &gt; 1.
+   */
+  static int primeCountBound(int n) {
+    if (n < 17) {
+      return 8; // 1, 2, 3, 5, 7, 11, 13 are all there is below 17
+    }
+    return (int) (1.25506 * n / log(n)) + 2;
+  }
+
+  /**
+   * The Sieve of Eratosthenes again, O(n log log n), but storing only the odd numbers, as one bit each, packed into
+   * a long[]. That's a sixteenth of the memory of {@link #primesEratosthenes(int)}, and an eighth of {@link
+   * #primesEratosthenesStorageOpt(int)}, so much more of the sieve fits in cache at once.
+   */
+  public static PrimeList primesBitPacked(int maxPrime) {
+    if (maxPrime < 2) {
+      return PrimeList.of(1);
+    }
+
+    // bit i stands for the odd number 2i + 1, for every odd number up to maxPrime
+    int bits = intToIndex(maxPrime - 1) + 1;
+    long[] composite = new long[(bits + 63) >>> 6];
+    int maxFactor = isqrt(maxPrime);
+
+    for (int i = 1; indexToInt(i) <= maxFactor; i++) {
+      if ((composite[i >>> 6] & (1L << i)) == 0) {
+        int p = indexToInt(i);
+        // stepping one bit is stepping by two, so stepping p bits is stepping by 2p, to the next odd multiple
+        for (int j = intToIndex(p * p); j < bits; j += p) {
+          composite[j >>> 6] |= 1L << j; // Java only looks at the low six bits of the shift distance
+        }
+      }
+    }
+
+    int[] result = new int[primeCountBound(maxPrime)];
+    result[0] = 1;
+    result[1] = 2;
+    int count = 2;
+
+    // Engineering note: rather than testing every bit, we flip each word so that primes are ones, then jump straight
+    // from one prime to the next with numberOfTrailingZeros(), which the JIT turns into a single instruction.
+    for (int word = 0; word < composite.length; word++) {
+      long primes = ~composite[word];
+      if (word == 0) {
+        primes &= ~1L; // 1 is already in the result
+      }
+      while (primes != 0) {
+        int i = (word << 6) + Long.numberOfTrailingZeros(primes);
+        if (i >= bits) {
+          break;
+        }
+        result[count++] = indexToInt(i);
+        primes &= primes - 1; // clears the lowest one bit
+      }
+    }
+
+    return PrimeList.wrap(result, count);
+  }
+
+  // The numbers from 1 to 30 that share no factor with 2, 3, or 5. Every prime past 5 is 30k plus one of these.
+  private static final int[] WHEEL = { 1, 7, 11, 13, 17, 19, 23, 29 };
+
+  // WHEEL_INDEX[r] is the position of r in WHEEL, or -1 if r isn't there.
+  private static final int[] WHEEL_INDEX = wheelIndex();
+
+  private static int[] wheelIndex() {
+    int[] result = new int[30];
+    Arrays.fill(result, -1);
+    for (int i = 0; i < WHEEL.length; i++) {
+      result[WHEEL[i]] = i;
+    }
+    return result;
+  }
+
+  /**
+   * A bit-packed sieve, like {@link #primesBitPacked(int)}, but with a 2-3-5 wheel: it only stores the 8 numbers out
+   * of every 30 that aren't multiples of 2, 3, or 5, so it never spends any memory or time on them. That's 8 bits
+   * per 30 numbers, versus 15 when storing just the odd ones.
+   */
+  public static PrimeList primesWheel(int maxPrime) {
+    if (maxPrime < 2) {
+      return PrimeList.of(1);
+    } else if (maxPrime < 7) {
+      return PrimeList.wrap(IntStream.of(1, 2, 3, 5).filter(i -> i <= maxPrime).toArray());
+    }
+
+    // bit i stands for the number 30 (i / 8) + WHEEL[i % 8]; bit 0 is 1, which isn't crossed off
+    int bits = wheelBits(maxPrime);
+    long[] composite = new long[(bits + 63) >>> 6];
+    int maxFactor = isqrt(maxPrime);
+
+    for (int i = 1; wheelToInt(i) <= maxFactor; i++) {
+      if ((composite[i >>> 6] & (1L << i)) == 0) {
+        int p = wheelToInt(i);
+
+        // Every multiple of p we need to cross off is p * q, for some q >= p on the wheel. Taking q, q + 30, q + 60,
+        // and so on adds 30p each time, which leaves (p * q) % 30 alone, and so moves exactly 8p bits along. The
+        // eight q's starting from p itself cover every spoke of the wheel, so eight strided loops do the job.
+        for (int k = 0; k < WHEEL.length; k++) {
+          long q = wheelToInt(i + k);
+          long product = p * q;
+          if (product > maxPrime) {
+            continue; // later spokes can still have products in range, since their q's aren't in order of p * q % 30
+          }
+          int stride = 8 * p;
+          for (long j = intToWheel((int) product); j < bits; j += stride) {
+            composite[(int) (j >>> 6)] |= 1L << j;
+          }
+        }
+      }
+    }
+
+    int[] result = new int[primeCountBound(maxPrime)];
+    result[0] = 1;
+    result[1] = 2;
+    result[2] = 3;
+    result[3] = 5;
+    int count = 4;
+
+    for (int word = 0; word < composite.length; word++) {
+      long primes = ~composite[word];
+      if (word == 0) {
+        primes &= ~1L; // 1 is already in the result
+      }
+      while (primes != 0) {
+        int i = (word << 6) + Long.numberOfTrailingZeros(primes);
+        if (i >= bits) {
+          break;
+        }
+        result[count++] = wheelToInt(i);
+        primes &= primes - 1;
+      }
+    }
+
+    return PrimeList.wrap(result, count);
+  }
+
+  // Helper functions for primesWheel(). n must be on the wheel, i.e., not a multiple of 2, 3, or 5.
+  private static int intToWheel(int n) {
+    return 8 * (n / 30) + WHEEL_INDEX[n % 30];
+  }
+
+  private static int wheelToInt(int index) {
+    return 30 * (index >>> 3) + WHEEL[index & 7];
+  }
+
+  // How many numbers from 1 to n are on the wheel.
+  private static int wheelBits(int n) {
+    int result = 8 * (n / 30);
+    for (int r : WHEEL) {
+      if (r <= n % 30) {
+        result++;
+      }
+    }
+    return result;
+  }
 }
@@ -18,9 +18,12 @@ import edu.rice.util.Log;
 import edu.rice.util.Try;
 import j2html.tags.ContainerTag;
 import spark.Request;
+import spark.Response;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.security.SecureRandom;
 
 import static edu.rice.json.Builders.*;
@@ -153,6 +156,20 @@ public interface Utils {
     Log.i(tag, () -> "Spark request:\n" + requestToJson(request).toIndentedString());
   }
 
+  /**
+   * Sets up a Spark response to carry a PNG image, and returns the stream to write the image to. Whatever's
+   * written there goes out to the browser right away (in chunks, since we don't know the length ahead of time),
+   * rather than being gathered up into one big byte array first. Once the image is written, the handler
+   * should just return the empty string; Spark won't send it, since the response is already on its way.
+   *
+   * @see edu.rice.image.Images#writePng(java.awt.image.BufferedImage, edu.rice.image.PngEncoder.RowSource,
+   *     OutputStream, edu.rice.image.PngEncoder)
+   */
+  static OutputStream pngResponseStream(Response response) throws IOException {
+    response.type("image/png");
+    return response.raw().getOutputStream();
+  }
+
   /**
    * Sets up a Spark web server exception handler. If some web request handler blows up with an
    * exception, this will cause the Spark server to (1) log the exception using the standard
@@ -11,17 +11,20 @@
 package edu.rice.week10weblab;
 
 import edu.rice.image.Images;
+import edu.rice.image.PngEncoder;
 import edu.rice.util.Log;
 import edu.rice.util.Try;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.awt.image.BufferedImage;
+import java.io.OutputStream;
 
 import static edu.rice.util.Performance.nanoBenchmarkVal;
 import static edu.rice.util.Strings.stringToTryInteger;
 import static edu.rice.web.Utils.jsonSparkExceptionHandler;
 import static edu.rice.web.Utils.launchBrowser;
+import static edu.rice.web.Utils.pngResponseStream;
 import static spark.Spark.get;
 import static spark.Spark.staticFileLocation;
 
@@ -67,29 +70,28 @@ public class ImageServer {
       final int width = (widthParam < 1) ? 1 : widthParam;
       final int height = (heightParam < 1) ? 1 : heightParam;
 
-      return nanoBenchmarkVal(
-          () -> {
-            // Your task: create a BufferedImage of the correct size, set the pixels to the correct values,
-            // then use the imageToPng() function to generate the necessary bytes and return them from
-            // this lambda. (Those bytes will show up as the "result" in the lambda below, which are
-            // ultimately returned to the web browser.)
-
-            //throw new RuntimeException("color-rectangle not implemented yet");
-            BufferedImage image =
-                new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-            for (int y = 0; y < height; y++) {
+      // Rather than making the whole PNG in memory and then returning it, we hand writePng() a function that
+      // fills in a range of rows, and it streams each strip of the PNG out to the browser as soon as it's
+      // drawn and compressed. The "result" below just says whether that went well.
+      final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      final OutputStream output = pngResponseStream(response);
 
+      return nanoBenchmarkVal(
+          () -> Images.writePng(image, (top, bottom) -> {
+            for (int y = top; y < bottom; y++) {
               for (int x = 0; x < width; x++) {
                 image.setRGB(x, y, rgb);
               }
             }
-            return Images.imageToPng(image).get();
-          })
+          }, output, PngEncoder.FAST))
           .match((time, result) -> {
             Log.i(TAG, String.format("color-rectangle: made %dx%d image in %.3fms", width, height, 1e-6 * time));
-            response.type("image/png");
-            return result;
+            // By the time writing fails, the headers and some of the PNG have probably gone out already, so it's
+            // too late to change the status. All we can do is stop and say so in the log.
+            if (result.isFailure()) {
+              Log.e(TAG, String.format("color-rectangle: failed streaming a %dx%d image", width, height));
+            }
+            return "";
           });
     });
 
@@ -109,15 +111,13 @@ public class ImageServer {
       final int height = (heightParam < 1) ? 1 : heightParam;
       final int boxsize = (boxsizeParam < 1) ? 1 : boxsizeParam;
 
-      return nanoBenchmarkVal(
-          () -> {
-            // Your task: as before, create a BufferedImage of the correct size, etc.
+      // As before, the image is drawn a strip at a time and streamed out as it goes.
+      final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      final OutputStream output = pngResponseStream(response);
 
-            // throw new RuntimeException("checkers not implemented yet");
-            BufferedImage image =
-                new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-
-            for (int y = 0; y < height; y++) {
+      return nanoBenchmarkVal(
+          () -> Images.writePng(image, (top, bottom) -> {
+            for (int y = top; y < bottom; y++) {
               for (int x = 0; x < width; x++) {
                 if (x / boxsize % 2 == y / boxsize % 2) {
                   image.setRGB(x, y, rgb1);
@@ -126,12 +126,13 @@ public class ImageServer {
                 }
               }
             }
-            return Images.imageToPng(image).get();
-          })
+          }, output, PngEncoder.FAST))
           .match((time, result) -> {
             Log.i(TAG, String.format("checkers: made %dx%d image in %.3fms", width, height, 1e-6 * time));
-            response.type("image/png");
-            return result;
+            if (result.isFailure()) {
+              Log.e(TAG, String.format("checkers: failed streaming a %dx%d image", width, height));
+            }
+            return "";
           });
     });
 
@@ -223,8 +223,14 @@
 
             // Add the image
             var imgSrc = "/image/gen/" + genNum + "/img/" + i + "/height/200/width/200/";
+            var previewSrc = "/preview/gen/" + genNum + "/img/" + i + "/height/200/width/200/";
             var img = document.createElement('img');
-            img.src = imgSrc + nocache; // The URL to request the image from and a cache-preventing parameter
+            img.fullSrc = imgSrc + nocache; // The URL to request the image from and a cache-preventing parameter
+            img.onload = function() {       // Show a quick, coarse preview first, then swap in the full image
+                this.onload = null;
+                this.src = this.fullSrc;
+            };
+            img.src = previewSrc + nocache;
             img.imgIndex = i;           // The server-side index of the image in its generation
             img.onclick = function() {  // The selector function
                 $(this).toggleClass("selected");
@@ -258,6 +264,26 @@
             zoomBtn.style.opacity = 0;
             imgDiv.appendChild(zoomBtn);
 
+            // Add the play button, which shows the image animated over time, in the same kind of overlay as zoom
+            var playBtn = document.createElement('button');
+            playBtn.className = "play-btn mui-btn mui-btn--small"
+            playBtn.playSrc = "/animation/gen/" + genNum + "/img/" + i + "/height/400/width/400/";
+            playBtn.innerHTML = "&#9654;";
+            playBtn.onclick = function() {
+                ilog("Requesting animation: " + this.playSrc);
+                var overlay = document.createElement('div');
+                overlay.style.height = '100%';
+                overlay.style.display = 'inline-block';
+                var img = document.createElement('img');
+                img.src = this.playSrc + "?_=" + new Date().getTime();  // A new stream every time, never a cached one
+                img.style.height = "100%";
+                img.style.maxHeight = "400px";
+                overlay.appendChild(img);
+                mui.overlay('on', overlay);
+            }
+            playBtn.style.opacity = 0;
+            imgDiv.appendChild(playBtn);
+
             // Add the genotype button
             var genoBtn = document.createElement('button');
             genoBtn.className = "geno-btn mui-btn mui-btn--small"
@@ -16,6 +16,14 @@ import org.junit.Test;
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
 
 import static org.junit.Assert.*;
 
@@ -58,4 +66,149 @@ public class ImagesTest {
 
     assertArrayEquals(pngReferenceOrangeTest.get(), pngOrangeTest.get());
   }
-}
\ No newline at end of file
+
+  // smooth gradients plus some noise, so every filter has something to do
+  private static BufferedImage testImage(int width, int height, int type) {
+    BufferedImage image = new BufferedImage(width, height, type);
+    Random random = new Random(width * 31 + height);
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int alpha = type == BufferedImage.TYPE_INT_ARGB ? (x * 7 + y) & 0xff : 0xff;
+        int red = (x * 255) / width;
+        int green = (y * 255) / height;
+        int blue = random.nextInt(256);
+        image.setRGB(x, y, (alpha << 24) | (red << 16) | (green << 8) | blue);
+      }
+    }
+    return image;
+  }
+
+  private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int y = 0; y < expected.getHeight(); y++) {
+      for (int x = 0; x < expected.getWidth(); x++) {
+        assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+      }
+    }
+  }
+
+  @Test
+  public void testPngEncoderRoundTrip() throws Exception {
+    BufferedImage rgb = testImage(61, 47, BufferedImage.TYPE_INT_RGB);
+    BufferedImage argb = testImage(61, 47, BufferedImage.TYPE_INT_ARGB);
+
+    for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+      for (int level : new int[] {Deflater.DEFAULT_COMPRESSION, 0, 1, 9}) {
+        // tiny strips, so most of these images are cut into lots of separately compressed pieces
+        for (int stripBytes : new int[] {1, 500, PngEncoder.DEFAULT_STRIP_BYTES}) {
+          for (boolean parallel : new boolean[] {false, true}) {
+            PngEncoder encoder = PngEncoder.make(level, filter, parallel, stripBytes);
+            assertSamePixels(rgb, Images.readBytes(encoder.encode(rgb)).get());
+            assertSamePixels(argb, Images.readBytes(encoder.encode(argb)).get());
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testPngEncoderOtherImageTypes() throws Exception {
+    BufferedImage gray = new BufferedImage(20, 30, BufferedImage.TYPE_BYTE_GRAY);
+    gray.getGraphics().drawLine(0, 0, 19, 29);
+    assertSamePixels(gray, Images.readBytes(PngEncoder.DEFAULT.encode(gray)).get());
+
+    BufferedImage tiny = testImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+    assertSamePixels(tiny, Images.readBytes(PngEncoder.FAST.encode(tiny)).get());
+
+    // a sub-image shares its parent's raster, but starts somewhere in the middle of it
+    BufferedImage sub = testImage(40, 40, BufferedImage.TYPE_INT_RGB).getSubimage(5, 7, 20, 25);
+    assertSamePixels(sub, Images.readBytes(PngEncoder.DEFAULT.encode(sub)).get());
+  }
+
+  @Test
+  public void testPngEncoderOpaqueImagesHaveNoAlpha() throws Exception {
+    BufferedImage rgb = testImage(30, 30, BufferedImage.TYPE_INT_RGB);
+    BufferedImage argb = new BufferedImage(30, 30, BufferedImage.TYPE_INT_ARGB);
+    argb.getGraphics().drawImage(rgb, 0, 0, null);
+
+    // an ARGB image with nothing transparent is written just like the RGB one
+    assertArrayEquals(PngEncoder.DEFAULT.encode(rgb), PngEncoder.DEFAULT.encode(argb));
+  }
+
+  @Test
+  public void testWritePngMatchesImageToPng() throws Exception {
+    BufferedImage image = testImage(300, 200, BufferedImage.TYPE_INT_RGB);
+    PngEncoder encoder = PngEncoder.make(6, PngEncoder.Filter.PAETH, true, 10000);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertTrue(Images.writePng(image, out, encoder).isSuccess());
+    assertArrayEquals(Images.imageToPng(image, encoder).get(), out.toByteArray());
+    assertArrayEquals(PngEncoder.make(6, PngEncoder.Filter.PAETH, false, 10000).encode(image), out.toByteArray());
+  }
+
+  @Test
+  public void testWritePngWithRowSource() throws Exception {
+    BufferedImage expected = testImage(300, 200, BufferedImage.TYPE_INT_RGB);
+
+    for (boolean parallel : new boolean[] {false, true}) {
+      PngEncoder encoder = PngEncoder.make(6, PngEncoder.Filter.ADAPTIVE, parallel, 5000);
+      BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+      boolean[] filled = new boolean[200];
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      assertTrue(Images.writePng(image, (start, end) -> {
+        for (int y = start; y < end; y++) {
+          assertFalse(filled[y]);
+          filled[y] = true;
+          for (int x = 0; x < 300; x++) {
+            image.setRGB(x, y, expected.getRGB(x, y));
+          }
+        }
+      }, out, encoder).isSuccess());
+
+      for (boolean f : filled) {
+        assertTrue(f);
+      }
+      assertArrayEquals(encoder.encode(expected), out.toByteArray());
+    }
+  }
+
+  @Test
+  public void testWritePngStopsWhenStreamFails() throws Exception {
+    // one row per strip, so 200 strips, and a stream that hangs up right after the PNG signature, before any
+    // strip is written
+    PngEncoder encoder = PngEncoder.make(6, PngEncoder.Filter.PAETH, true, 1000);
+    BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_INT_RGB);
+    AtomicInteger fills = new AtomicInteger();
+    OutputStream hangsUp = new OutputStream() {
+      private int written = 0;
+
+      @Override
+      public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) throws IOException {
+        written += len;
+        if (written > 8) {
+          throw new IOException("client went away");
+        }
+      }
+    };
+
+    assertTrue(Images.writePng(image, (start, end) -> fills.incrementAndGet(), hangsUp, encoder).isFailure());
+
+    // only the first window of strips was ever started, and none of the rest will be
+    int window = ForkJoinPool.getCommonPoolParallelism() + 1;
+    assertTrue(fills.get() <= window);
+    ForkJoinPool.commonPool().awaitQuiescence(10, TimeUnit.SECONDS);
+    assertTrue(fills.get() <= window);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPngEncoderBadLevel() throws Exception {
+    PngEncoder.make(10, PngEncoder.Filter.NONE, false);
+  }
+}
@@ -0,0 +1,83 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class AnimationTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+  private static final argFuncs T = argFuncs.VarT.make();
+
+  // a slow, time-invariant Perlin branch, moved around by a cheap time-dependent one
+  private static final argFuncs MOVING = argFuncs.Dissolve.make(
+      argFuncs.Perlin.make(argFuncs.Sine.make(X), argFuncs.Cosine.make(Y)),
+      argFuncs.Sine.make(argFuncs.Multiply.make(X, Y)),
+      argFuncs.Sine.make(argFuncs.Add.make(X, T)));
+
+  private static void assertSameImage(BufferedImage expected, BufferedImage actual) {
+    assertEquals(expected.getWidth(), actual.getWidth());
+    assertEquals(expected.getHeight(), actual.getHeight());
+    for (int j = 0; j < expected.getHeight(); j++) {
+      for (int i = 0; i < expected.getWidth(); i++) {
+        assertEquals(expected.getRGB(i, j), actual.getRGB(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testFramesMatchUncachedFrames() throws Exception {
+    Renderer renderer = Renderer.make(3, 16);
+    Animation animation = Animation.make(renderer, MOVING, 50, 37, 6);
+    assertTrue(animation.isAnimated());
+    assertTrue(animation.isCached());
+
+    Program program = Program.compile(MOVING);
+    for (int frame = 0; frame < 8; frame++) {
+      BufferedImage expected = new BufferedImage(50, 37, BufferedImage.TYPE_INT_RGB);
+      renderer.renderFrame(program, expected, Animation.timeOf(frame % 6, 6), null);
+      assertSameImage(expected, animation.frame(frame));
+    }
+  }
+
+  @Test
+  public void testFramesChange() throws Exception {
+    Animation animation = Animation.make(Renderer.make(), MOVING, 40, 40);
+    assertEquals(Animation.DEFAULT_FRAMES, animation.getFrames());
+
+    BufferedImage first = animation.frame(0);
+    BufferedImage later = animation.frame(animation.getFrames() / 2);
+    boolean changed = false;
+    for (int j = 0; j < 40 && !changed; j++) {
+      for (int i = 0; i < 40 && !changed; i++) {
+        changed = first.getRGB(i, j) != later.getRGB(i, j);
+      }
+    }
+    assertTrue(changed);
+    assertSameImage(first, animation.frame(animation.getFrames()));
+  }
+
+  @Test
+  public void testStill() throws Exception {
+    Renderer renderer = Renderer.make(2, 16);
+    argFuncs still = argFuncs.Sine.make(argFuncs.Multiply.make(X, Y));
+    Animation animation = Animation.make(renderer, still, 30, 20);
+    assertFalse(animation.isAnimated());
+    assertFalse(animation.isCached());
+    assertSameImage(renderer.render(still, 30, 20), animation.frame(7));
+  }
+
+  @Test
+  public void testStillIsTheFrameAtTimeZero() throws Exception {
+    Renderer renderer = Renderer.make(2, 16);
+    Animation animation = Animation.make(renderer, MOVING, 30, 20, 4);
+    assertEquals(0, Animation.timeOf(2, 4), 0.0);
+    assertSameImage(renderer.render(MOVING, 30, 20), animation.frame(2));
+  }
+}
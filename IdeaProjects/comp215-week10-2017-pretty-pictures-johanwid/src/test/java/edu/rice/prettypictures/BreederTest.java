@@ -0,0 +1,162 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class BreederTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+
+  // every node has the right number of children, which Genomes.make would have refused otherwise, but
+  // argFuncs made some other way might not
+  private static void assertWellFormed(argFuncs tree) {
+    assertEquals(tree.opcode().getArity(), tree.children().length());
+    tree.children().foreach(BreederTest::assertWellFormed);
+  }
+
+  @Test
+  public void testNodeNumbering() throws Exception {
+    argFuncs sine = argFuncs.Sine.make(Y);
+    argFuncs tree = argFuncs.Add.make(X, sine);
+
+    assertSame(tree, Breeder.nthNode(tree, 0));
+    assertSame(X, Breeder.nthNode(tree, 1));
+    assertSame(sine, Breeder.nthNode(tree, 2));
+    assertSame(Y, Breeder.nthNode(tree, 3));
+    assertEquals(0, Breeder.depthOf(tree, 0));
+    assertEquals(2, Breeder.depthOf(tree, 3));
+
+    assertEquals("(Add x (Sine x))", Genomes.toString(Breeder.replaceNode(tree, 3, X)));
+    assertEquals("(Add y (Sine y))", Genomes.toString(Breeder.replaceNode(tree, 1, Y)));
+    assertEquals("x", Genomes.toString(Breeder.replaceNode(tree, 0, X)));
+  }
+
+  @Test
+  public void testDepth() throws Exception {
+    assertEquals(1, Genomes.depth(X));
+    assertEquals(3, Genomes.depth(argFuncs.Add.make(X, argFuncs.Sine.make(Y))));
+
+    Random random = new Random(215);
+    for (int i = 0; i < 100; i++) {
+      assertTrue(Genomes.depth(Genomes.random(random, 1 + i % 8)) <= 1 + i % 8);
+    }
+  }
+
+  @Test
+  public void testTimeLeavesAreRare() throws Exception {
+    // t is black in a still image, so random leaves should be t now and then, but not a quarter of the time
+    Random random = new Random(215);
+    int leaves = 10_000;
+    int times = 0;
+    for (int i = 0; i < leaves; i++) {
+      if (Genomes.random(random, 1).opcode() == Opcode.VAR_T) {
+        times++;
+      }
+    }
+    assertTrue(times > 0);
+    assertEquals(Genomes.TIME_LEAF_CHANCE, (double) times / leaves, 0.01);
+  }
+
+  @Test
+  public void testChildrenAreWellFormedAndNotTooDeep() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> parents = List.of(
+        Genomes.random(random, Breeder.MAX_DEPTH),
+        Genomes.random(random, Breeder.MAX_DEPTH),
+        Genomes.random(random, 3));
+
+    for (int i = 0; i < 1000; i++) {
+      argFuncs child = Breeder.child(random, parents);
+      assertWellFormed(child);
+      assertTrue(Genomes.depth(child) <= Breeder.MAX_DEPTH);
+    }
+  }
+
+  @Test
+  public void testCrossoverTakesFromBothParents() throws Exception {
+    argFuncs mother = argFuncs.Add.make(X, X);
+    argFuncs father = argFuncs.Sine.make(Y);
+    Random random = new Random(215);
+
+    for (int i = 0; i < 100; i++) {
+      String child = Genomes.toString(Breeder.crossover(random, mother, father));
+      // a graft into the root replaces the mother entirely, otherwise one of her x's goes
+      assertTrue(child, child.equals("y") || child.equals("(Sine y)")
+          || child.matches("\\(Add (x|y|\\(Sine y\\)) (x|y|\\(Sine y\\))\\)") && child.contains("y"));
+    }
+  }
+
+  @Test
+  public void testMutateChangesSomething() throws Exception {
+    Random random = new Random(215);
+    argFuncs tree = Genomes.random(random, 5);
+    long hash = Genomes.structuralHash(tree);
+
+    int changed = 0;
+    for (int i = 0; i < 100; i++) {
+      if (Genomes.structuralHash(Breeder.mutate(random, tree)) != hash) {
+        changed++;
+      }
+    }
+    // a random replacement or a swapped leaf can come out the same as before, but not often
+    assertTrue(changed > 80);
+  }
+
+  @Test
+  public void testSameSeedSameChild() throws Exception {
+    IList<argFuncs> parents = List.of(Genomes.random(new Random(1), 6), Genomes.random(new Random(2), 6));
+    assertEquals(
+        Genomes.structuralHash(Breeder.child(new Random(215), parents)),
+        Genomes.structuralHash(Breeder.child(new Random(215), parents)));
+  }
+
+  @Test
+  public void testGenerations() throws Exception {
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try {
+      Breeder breeder = Breeder.make(pool);
+      ConcurrentLinkedQueue<argFuncs> seen = new ConcurrentLinkedQueue<>();
+
+      IList<argFuncs> first = breeder.random(20, seen::add);
+      assertEquals(20, first.length());
+      assertEquals(20, seen.size());
+      first.foreach(genome -> assertTrue(Genomes.depth(genome) <= Breeder.MAX_RANDOM_DEPTH));
+
+      seen.clear();
+      IList<argFuncs> parents = List.of(first.nth(3).get(), first.nth(7).get());
+      IList<argFuncs> second = breeder.breed(parents, 20, seen::add);
+      assertEquals(20, second.length());
+      assertEquals(20, seen.size());
+      assertSame(parents.head(), second.head());
+      assertSame(parents.tail().head(), second.tail().head());
+      second.foreach(BreederTest::assertWellFormed);
+
+      // never more images than asked for, even with more parents than that
+      assertEquals(1, breeder.breed(parents, 1, genome -> { }).length());
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNoParents() throws Exception {
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try {
+      Breeder.make(pool).breed(List.makeEmpty(), 10, genome -> { }).length();
+    } finally {
+      pool.shutdown();
+    }
+  }
+}
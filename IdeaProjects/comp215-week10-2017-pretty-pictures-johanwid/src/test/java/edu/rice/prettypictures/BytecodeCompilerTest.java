@@ -0,0 +1,126 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static edu.rice.prettypictures.ProgramTest.EVERY_NODE;
+import static edu.rice.prettypictures.ProgramTest.assertSameEverywhere;
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class BytecodeCompilerTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+
+  @Test
+  public void testEveryNodeMatchesTree() throws Exception {
+    EVERY_NODE.foreach(tree -> {
+      FunctionTree compiled = BytecodeCompiler.compile(tree);
+      // pictures are looked up by the Program instead
+      assertEquals(!samplesPictures(tree), compiled instanceof BytecodeCompiler.Compiled);
+      assertSameEverywhere(tree, compiled);
+    });
+  }
+
+  // whether the tree's program looks anything up in a picture; External ignores its second child, so it might not
+  private static boolean samplesPictures(argFuncs tree) {
+    int[] code = Program.compile(tree).instructions();
+    for (int pc = 0; pc < code.length; pc += Program.INSN_WIDTH) {
+      if (code[pc] == Program.OP_IMAGE_SAMPLE) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @Test
+  public void testRandomTreesMatch() throws Exception {
+    Random random = new Random(215);
+    int compilable = 0;
+    int generated = 0;
+    for (int i = 0; i < 200; i++) {
+      argFuncs tree = Genomes.random(random, 1 + i % 7);
+      FunctionTree compiled = BytecodeCompiler.compile(tree);
+      if (!Program.compile(tree).dependsOnTime() && !samplesPictures(tree)) {
+        compilable++;
+      }
+      if (compiled instanceof BytecodeCompiler.Compiled) {
+        generated++;
+        assertFalse(Program.compile(tree).dependsOnTime());
+        assertFalse(samplesPictures(tree));
+      }
+      assertSameEverywhere(tree, compiled);
+    }
+    // animations and trees with pictures are never compiled, and of the rest, only the biggest are too big
+    assertTrue(generated > compilable * 3 / 4);
+  }
+
+  @Test
+  public void testEvaluateRectMatchesTree() throws Exception {
+    final int width = 37;
+    final int height = 41;
+    final double dx = 2.0 / width;
+    final double dy = 2.0 / height;
+    double[] red = new double[width * height];
+    double[] green = new double[width * height];
+    double[] blue = new double[width * height];
+
+    EVERY_NODE.foreach(tree -> {
+      BytecodeCompiler.compile(tree).evaluateRect(-1, -1, dx, dy, width, height, red, green, blue);
+
+      for (int j = 0; j < height; j++) {
+        for (int i = 0; i < width; i++) {
+          Coord expected = tree.evaluate(-1 + i * dx, -1 + j * dy);
+          assertEquals(expected.getRed(), red[j * width + i], 0.0);
+          assertEquals(expected.getGreen(), green[j * width + i], 0.0);
+          assertEquals(expected.getBlue(), blue[j * width + i], 0.0);
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testRendersLikeProgram() throws Exception {
+    Renderer renderer = Renderer.make(2, 16);
+    EVERY_NODE.foreach(tree -> {
+      BufferedImage expected = renderer.render(tree, 50, 30);
+      BufferedImage actual = renderer.render(BytecodeCompiler.compile(tree), 50, 30);
+      BufferedImage samples = new BufferedImage(50, 30, BufferedImage.TYPE_INT_RGB);
+      renderer.renderSamples(BytecodeCompiler.compile(tree), samples, 0, 0, 1, 1);
+      for (int j = 0; j < 30; j++) {
+        for (int i = 0; i < 50; i++) {
+          assertEquals(expected.getRGB(i, j), actual.getRGB(i, j));
+          assertEquals(expected.getRGB(i, j), samples.getRGB(i, j));
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testFallsBackToProgram() throws Exception {
+    // far too big for one method
+    argFuncs big = X;
+    for (int i = 0; i < 300; i++) {
+      big = argFuncs.Add.make(argFuncs.Sine.make(big), i % 2 == 0 ? X : Y);
+    }
+    FunctionTree compiled = BytecodeCompiler.compile(big);
+    assertTrue(compiled instanceof Program);
+    assertSameEverywhere(big, compiled);
+
+    // nothing to inline
+    FunctionTree custom = (x, y) -> new Coord(x * y, x, y);
+    assertTrue(BytecodeCompiler.compile(custom) instanceof Program);
+  }
+
+  @Test
+  public void testCompiledOnce() throws Exception {
+    FunctionTree compiled = BytecodeCompiler.compile(argFuncs.Sine.make(X));
+    assertSame(compiled, BytecodeCompiler.compile(compiled));
+    assertSame(((BytecodeCompiler.Compiled) compiled).getProgram(), Program.compile(compiled));
+  }
+}
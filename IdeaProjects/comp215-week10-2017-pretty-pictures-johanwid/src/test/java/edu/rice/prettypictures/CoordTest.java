@@ -0,0 +1,57 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class CoordTest {
+  // the way getRGB used to do it, which only works for channels in [-1, 1]
+  private static int colorRGB(double r, double g, double b) {
+    return new Color(
+        (int) Math.ceil(127.5 * (r + 1)),
+        (int) Math.ceil(127.5 * (g + 1)),
+        (int) Math.ceil(127.5 * (b + 1))).getRGB();
+  }
+
+  @Test
+  public void testMatchesColorInRange() throws Exception {
+    double[] edges = {-1, -0.0, 0, 1, Math.nextUp(-1.0), Math.nextDown(1.0), 1.0 / 255, -1.0 / 255};
+    for (double c : edges) {
+      assertEquals(colorRGB(c, c, c), Coord.toRGB(c, c, c));
+    }
+
+    // every boundary between two channel values, and either side of it
+    for (int i = 0; i <= 255; i++) {
+      double c = i / 127.5 - 1;
+      for (double d : new double[] {Math.nextDown(c), c, Math.nextUp(c)}) {
+        if (d >= -1 && d <= 1) {
+          assertEquals(colorRGB(d, -d, 0.5), Coord.toRGB(d, -d, 0.5));
+        }
+      }
+    }
+
+    Random random = new Random(215);
+    for (int i = 0; i < 100000; i++) {
+      double r = random.nextDouble() * 2 - 1;
+      double g = random.nextDouble() * 2 - 1;
+      double b = random.nextDouble() * 2 - 1;
+      assertEquals(colorRGB(r, g, b), Coord.toRGB(r, g, b));
+      assertEquals(colorRGB(r, g, b), new Coord(r, g, b).getRGB());
+    }
+  }
+
+  @Test
+  public void testClamps() throws Exception {
+    assertEquals(0xffffffff, Coord.toRGB(1.5, 2, Double.POSITIVE_INFINITY));
+    assertEquals(0xff000000, Coord.toRGB(-1.5, -2, Double.NEGATIVE_INFINITY));
+    assertEquals(0xff000000, Coord.toRGB(Double.NaN, Double.NaN, Double.NaN));
+    assertEquals(0xffff0080, Coord.toRGB(7, -7, 0));
+  }
+}
@@ -0,0 +1,290 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class GenerationStoreTest {
+  private Path directory;
+
+  @Before
+  public void makeDirectory() throws IOException {
+    directory = Files.createTempDirectory("generation-store-test");
+  }
+
+  @After
+  public void deleteDirectory() throws IOException {
+    for (String name : new String[] {GenerationStore.DATA_FILE, GenerationStore.INDEX_FILE}) {
+      Files.deleteIfExists(directory.resolve(name));
+    }
+    Files.deleteIfExists(directory);
+  }
+
+  private static IList<argFuncs> randomGeneration(Random random, int count) {
+    IList<argFuncs> result = List.makeEmpty();
+    for (int i = 0; i < count; i++) {
+      result = result.add(Genomes.random(random, 2 + i % 6));
+    }
+    return result;
+  }
+
+  private static void assertSameGeneration(IList<argFuncs> expected, IList<argFuncs> actual) {
+    assertEquals(expected.length(), actual.length());
+    expected.zip(actual, (e, a) -> {
+      assertEquals(Genomes.structuralHash(e), Genomes.structuralHash(a));
+      return e;
+    });
+  }
+
+  @Test
+  public void testAddAndRead() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> first = randomGeneration(random, 10);
+    IList<argFuncs> second = randomGeneration(random, 7);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(0, store.numGenerations());
+      assertTrue(store.generation(0).isNone());
+
+      store.reset(first);
+      assertEquals(1, store.add(second));
+      assertEquals(2, store.numGenerations());
+      assertEquals(10, store.numImages(0));
+      assertEquals(7, store.numImages(1));
+      assertEquals(0, store.numImages(2));
+
+      assertSameGeneration(first, store.generation(0).get());
+      assertSameGeneration(second, store.generation(1).get());
+      assertEquals(Genomes.structuralHash(second.nth(3).get()), Genomes.structuralHash(store.image(1, 3).get()));
+      assertTrue(store.image(1, 7).isNone());
+      assertTrue(store.image(1, -1).isNone());
+      assertTrue(store.image(2, 0).isNone());
+    }
+  }
+
+  @Test
+  public void testSurvivesReopening() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> first = randomGeneration(random, 5);
+    IList<argFuncs> second = randomGeneration(random, 5);
+    IList<argFuncs> third = randomGeneration(random, 3);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      store.reset(first);
+      assertEquals(1, store.add(second));
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(2, store.numGenerations());
+      assertSameGeneration(second, store.generation(1).get());
+      assertEquals(2, store.add(third));
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(3, store.numGenerations());
+      assertSameGeneration(first, store.generation(0).get());
+      assertSameGeneration(third, store.generation(2).get());
+    }
+  }
+
+  @Test
+  public void testResetStartsANewRun() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> oldRun = randomGeneration(random, 4);
+    IList<argFuncs> newRun = randomGeneration(random, 6);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      store.reset(oldRun);
+      assertEquals(1, store.add(oldRun));
+      assertEquals(2, store.add(oldRun));
+
+      store.reset(newRun);
+      assertEquals(1, store.numGenerations());
+      assertSameGeneration(newRun, store.generation(0).get());
+      assertTrue(store.generation(1).isNone());
+      assertEquals(1, store.add(newRun));
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(2, store.numGenerations());
+      assertSameGeneration(newRun, store.generation(1).get());
+    }
+  }
+
+  @Test
+  public void testAddAfterAnOlderGeneration() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> first = randomGeneration(random, 4);
+    IList<argFuncs> second = randomGeneration(random, 5);
+    IList<argFuncs> third = randomGeneration(random, 6);
+    IList<argFuncs> branch = randomGeneration(random, 3);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      store.reset(first);
+      assertEquals(1, store.add(second));
+      assertEquals(2, store.addAfter(1, third));
+      assertEquals(3, store.numGenerations());
+
+      assertEquals(1, store.addAfter(0, branch));
+      assertEquals(2, store.numGenerations());
+      assertSameGeneration(first, store.generation(0).get());
+      assertSameGeneration(branch, store.generation(1).get());
+      assertTrue(store.generation(2).isNone());
+      assertEquals(2, store.add(second));
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(3, store.numGenerations());
+      assertSameGeneration(first, store.generation(0).get());
+      assertSameGeneration(branch, store.generation(1).get());
+      assertSameGeneration(second, store.generation(2).get());
+    }
+  }
+
+  @Test
+  public void testPopulationAddAfter() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> first = randomGeneration(random, 4);
+    IList<argFuncs> second = randomGeneration(random, 5);
+    IList<argFuncs> branch = randomGeneration(random, 3);
+
+    Population population = new Population();
+    population.reset(first);
+    assertEquals(1, population.add(second));
+    assertEquals(2, population.add(second));
+    assertEquals(1, population.addAfter(0, branch));
+    assertEquals(2, population.numGenerations());
+    assertSameGeneration(branch, population.generation(1).get());
+    assertEquals(2, population.addAfter(1, second));
+    assertEquals(3, population.numGenerations());
+  }
+
+  @Test
+  public void testHalfWrittenGenerationIsIgnored() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> first = randomGeneration(random, 5);
+    IList<argFuncs> second = randomGeneration(random, 5);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      store.reset(first);
+    }
+
+    // as if the server died after writing some of a record and some of its index entry
+    try (FileChannel data = FileChannel.open(directory.resolve(GenerationStore.DATA_FILE), StandardOpenOption.WRITE);
+         FileChannel index = FileChannel.open(directory.resolve(GenerationStore.INDEX_FILE), StandardOpenOption.WRITE)) {
+      data.write(ByteBuffer.wrap(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9}), data.size());
+      index.write(ByteBuffer.wrap(new byte[] {1, 2, 3}), index.size());
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(1, store.numGenerations());
+      assertSameGeneration(first, store.generation(0).get());
+      assertEquals(1, store.add(second));
+      assertSameGeneration(second, store.generation(1).get());
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(2, store.numGenerations());
+      assertSameGeneration(second, store.generation(1).get());
+    }
+  }
+
+  @Test
+  public void testPopulationInAStore() throws Exception {
+    Random random = new Random(215);
+    IList<argFuncs> first = randomGeneration(random, 8);
+    IList<argFuncs> second = randomGeneration(random, 3);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      Population population = Population.make(store);
+      assertEquals(0, population.numGenerations());
+      assertEquals(0, population.numImages());
+
+      population.reset(first);
+      assertEquals(1, population.add(second));
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      Population population = Population.make(store);
+      assertEquals(2, population.numGenerations());
+      assertEquals(3, population.numImages());
+      assertEquals(8, population.numImagesIn(0));
+      assertSameGeneration(first, population.generation(0).get());
+      assertEquals(Genomes.structuralHash(first.nth(5).get()),
+          Genomes.structuralHash(population.image(0, 5).get()));
+    }
+  }
+
+  @Test
+  public void testPastTwoGigabytes() throws Exception {
+    Random random = new Random(2);
+    IList<argFuncs> first = randomGeneration(random, 5);
+    IList<argFuncs> far = randomGeneration(random, 6);
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      store.reset(first);
+    }
+
+    // an empty generation whose record sits 3GB into the data file, which is sparse, so this doesn't actually take
+    // 3GB of disk; whatever comes after it has to be read from past where a single mapping can reach
+    long farOffset = 3L << 30;
+    try (FileChannel data = FileChannel.open(directory.resolve(GenerationStore.DATA_FILE), StandardOpenOption.WRITE);
+         FileChannel index = FileChannel.open(directory.resolve(GenerationStore.INDEX_FILE), StandardOpenOption.WRITE)) {
+      ByteBuffer record = ByteBuffer.allocate(4).putInt(0, 4);
+      assertEquals(4, data.write(record, farOffset));
+      ByteBuffer entry = ByteBuffer.allocate(20).putLong(farOffset).putInt(4).putInt(0).putInt(0);
+      entry.flip();
+      assertEquals(20, index.write(entry, index.size()));
+    }
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      assertEquals(2, store.numGenerations());
+      assertEquals(2, store.add(far));
+      assertSameGeneration(first, store.generation(0).get());
+      assertSameGeneration(List.makeEmpty(), store.generation(1).get());
+      assertSameGeneration(far, store.generation(2).get());
+    }
+  }
+
+  @Test
+  public void testMoreGenerationsThanMapped() throws Exception {
+    Random random = new Random(8);
+    IList<IList<argFuncs>> generations = List.makeEmpty();
+
+    try (GenerationStore store = GenerationStore.open(directory).get()) {
+      for (int gen = 0; gen < 3 * GenerationStore.MAPPED_RECORDS; gen++) {
+        IList<argFuncs> generation = randomGeneration(random, 3);
+        generations = generations.add(generation);
+        if (gen == 0) {
+          store.reset(generation);
+        } else {
+          assertEquals(gen, store.add(generation));
+        }
+      }
+      generations = generations.reverse();
+
+      // twice over, so the second pass has to map again whatever the first pass let go of
+      for (int pass = 0; pass < 2; pass++) {
+        for (int gen = 0; gen < 3 * GenerationStore.MAPPED_RECORDS; gen++) {
+          assertSameGeneration(generations.nth(gen).get(), store.generation(gen).get());
+        }
+      }
+    }
+  }
+}
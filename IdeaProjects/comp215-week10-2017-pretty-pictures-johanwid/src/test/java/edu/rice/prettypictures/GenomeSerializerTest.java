@@ -0,0 +1,181 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class GenomeSerializerTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+
+  // constants that would come back wrong if they went through a decimal string
+  private static final argFuncs ODD_CONSTANT =
+      argFuncs.Constant.make(-0.0, Double.NaN, Double.NEGATIVE_INFINITY);
+  private static final argFuncs THIRD = argFuncs.Constant.make(1.0 / 3, Math.PI, Double.MIN_VALUE);
+
+  private static IList<argFuncs> randomGenomes(int count) {
+    Random random = new Random(215);
+    IList<argFuncs> result = List.makeEmpty();
+    for (int i = 0; i < count; i++) {
+      result = result.add(Genomes.random(random, 2 + i % 7));
+    }
+    return result;
+  }
+
+  private static void assertSameTree(argFuncs expected, argFuncs actual) {
+    assertEquals(expected.opcode(), actual.opcode());
+    if (expected.opcode() == Opcode.CONSTANT) {
+      Coord e = ((argFuncs.Constant) expected).getValue();
+      Coord a = ((argFuncs.Constant) actual).getValue();
+      assertEquals(Double.doubleToRawLongBits(e.getRed()), Double.doubleToRawLongBits(a.getRed()));
+      assertEquals(Double.doubleToRawLongBits(e.getGreen()), Double.doubleToRawLongBits(a.getGreen()));
+      assertEquals(Double.doubleToRawLongBits(e.getBlue()), Double.doubleToRawLongBits(a.getBlue()));
+    }
+    if (expected.opcode() == Opcode.IMAGE_SAMPLE) {
+      argFuncs.ImageSample e = (argFuncs.ImageSample) expected;
+      argFuncs.ImageSample a = (argFuncs.ImageSample) actual;
+      assertEquals(e.getPicture(), a.getPicture());
+      assertEquals(Double.doubleToRawLongBits(e.getBlur()), Double.doubleToRawLongBits(a.getBlur()));
+    }
+
+    assertEquals(expected.children().length(), actual.children().length());
+    expected.children().zip(actual.children(), (e, a) -> {
+      assertSameTree(e, a);
+      return e;
+    });
+  }
+
+  private static void assertSameTrees(IList<argFuncs> expected, IList<argFuncs> actual) {
+    assertEquals(expected.length(), actual.length());
+    expected.zip(actual, (e, a) -> {
+      assertSameTree(e, a);
+      return e;
+    });
+  }
+
+  @Test
+  public void testBytesRoundTrip() throws Exception {
+    IList<argFuncs> genomes = randomGenomes(500)
+        .add(argFuncs.Add.make(ODD_CONSTANT, THIRD))
+        .add(X)
+        .add(argFuncs.Dissolve.make(X, Y, argFuncs.Sine.make(ODD_CONSTANT)))
+        .add(argFuncs.ImageSample.make("as17_148_22717", Math.PI, X, argFuncs.Negate.make(Y)));
+
+    assertSameTrees(genomes, GenomeSerializer.fromBytes(GenomeSerializer.toBytes(genomes)).get());
+    assertSameTrees(List.makeEmpty(), GenomeSerializer.fromBytes(GenomeSerializer.toBytes(List.makeEmpty())).get());
+  }
+
+  @Test
+  public void testBytesShareSubtrees() throws Exception {
+    argFuncs shared = argFuncs.Perlin.make(argFuncs.Sine.make(X), THIRD);
+    IList<argFuncs> genomes = Interner.internAll(List.of(
+        argFuncs.Multiply.make(shared, shared),
+        argFuncs.Negate.make(argFuncs.Perlin.make(argFuncs.Sine.make(X), THIRD))));
+
+    byte[] bytes = GenomeSerializer.toBytes(genomes);
+    byte[] justOne = GenomeSerializer.toBytes(List.of(shared));
+    // the shared subtree (including its 24 bytes of constant) is only written out once
+    assertTrue(bytes.length < justOne.length + 10);
+
+    IList<argFuncs> restored = GenomeSerializer.fromBytes(bytes).get();
+    assertSameTrees(genomes, restored);
+    argFuncs first = restored.head().children().head();
+    assertSame(first, restored.head().children().tail().head());
+    assertSame(first, restored.tail().head().children().head());
+  }
+
+  @Test
+  public void testBadBytes() throws Exception {
+    byte[] good = GenomeSerializer.toBytes(List.of(argFuncs.Add.make(X, THIRD)));
+
+    assertTrue(GenomeSerializer.fromBytes(new byte[0]).isFailure());
+    assertTrue(GenomeSerializer.fromBytes("nope".getBytes("UTF-8")).isFailure());
+
+    byte[] truncated = new byte[good.length - 1];
+    System.arraycopy(good, 0, truncated, 0, truncated.length);
+    assertTrue(GenomeSerializer.fromBytes(truncated).isFailure());
+
+    byte[] longer = new byte[good.length + 1];
+    System.arraycopy(good, 0, longer, 0, good.length);
+    assertTrue(GenomeSerializer.fromBytes(longer).isFailure());
+
+    // a reference back to a node that doesn't exist
+    byte[] badReference = {'P', 'P', 'G', 4, 1, (3 << 1) | 1};
+    assertTrue(GenomeSerializer.fromBytes(badReference).isFailure());
+
+    // an opcode past the end of the enum
+    byte[] badOpcode = {'P', 'P', 'G', 4, 1, (byte) (Opcode.values().length << 1), 1};
+    assertTrue(GenomeSerializer.fromBytes(badOpcode).isFailure());
+
+    // a count of about two billion genomes, in a handful of bytes, fails rather than running out of memory
+    byte[] hugeCount = {'P', 'P', 'G', 4, (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x07, 0};
+    assertTrue(GenomeSerializer.fromBytes(hugeCount).isFailure());
+
+    // other versions
+    byte[] version3 = {'P', 'P', 'G', 3, 1, 0};
+    assertTrue(GenomeSerializer.fromBytes(version3).isFailure());
+    byte[] version5 = {'P', 'P', 'G', 5, 1, 0};
+    assertTrue(GenomeSerializer.fromBytes(version5).isFailure());
+  }
+
+  @Test
+  public void testTags() throws Exception {
+    // (ADD (SINE x) (SINE x)): each opcode shifted left by one, then a reference back to the node just before
+    byte[] bytes = {'P', 'P', 'G', 4, 1,
+        (byte) (Opcode.ADD.ordinal() << 1), (byte) (Opcode.SINE.ordinal() << 1), (byte) (Opcode.VAR_X.ordinal() << 1),
+        (0 << 1) | 1};
+    assertArrayEquals(bytes, GenomeSerializer.toBytes(Interner.internAll(List.of(
+        argFuncs.Add.make(argFuncs.Sine.make(X), argFuncs.Sine.make(X))))));
+
+    argFuncs tree = GenomeSerializer.fromBytes(bytes).get().head();
+    argFuncs sine = argFuncs.Sine.make(X);
+    assertSameTree(argFuncs.Add.make(sine, sine), tree);
+    assertSame(tree.children().head(), tree.children().tail().head());
+  }
+
+  @Test
+  public void testSexpr() throws Exception {
+    argFuncs tree = argFuncs.Add.make(X, argFuncs.Sine.make(Y));
+    assertEquals("( ADD x ( SINE y ) )", GenomeSerializer.toSexpr(tree));
+    assertEquals("( CONSTANT 3fe0000000000000 0 bff0000000000000 )",
+        GenomeSerializer.toSexpr(argFuncs.Constant.make(0.5, 0, -1)));
+
+    assertSameTree(tree, GenomeSerializer.fromSexpr("(ADD x (SINE y))").get());
+    assertSameTree(argFuncs.Sine.make(argFuncs.VarT.make()), GenomeSerializer.fromSexpr("(SINE t)").get());
+    assertSameTree(ODD_CONSTANT, GenomeSerializer.fromSexpr(GenomeSerializer.toSexpr(ODD_CONSTANT)).get());
+
+    argFuncs sample = argFuncs.ImageSample.make("PIA02879", 0.5, X, argFuncs.Sine.make(Y));
+    assertEquals("( IMAGE_SAMPLE PIA02879 3fe0000000000000 x ( SINE y ) )", GenomeSerializer.toSexpr(sample));
+    assertSameTree(sample, GenomeSerializer.fromSexpr("(IMAGE_SAMPLE PIA02879 3fe0000000000000 x (SINE y))").get());
+  }
+
+  @Test
+  public void testSexprRoundTrip() throws Exception {
+    for (IList<argFuncs> rest = randomGenomes(200).add(THIRD); !rest.empty(); rest = rest.tail()) {
+      argFuncs genome = rest.head();
+      assertSameTree(genome, GenomeSerializer.fromSexpr(GenomeSerializer.toSexpr(genome)).get());
+    }
+  }
+
+  @Test
+  public void testBadSexpr() throws Exception {
+    assertTrue(GenomeSerializer.fromSexpr("").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("z").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(ADD x)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(ADD x y y)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(VAR_X)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(FROB x y)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(CONSTANT 0 0 xyzzy)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("((ADD) x y)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(IMAGE_SAMPLE nowhere 0 x y)").isNone());
+    assertTrue(GenomeSerializer.fromSexpr("(IMAGE_SAMPLE PIA02879 x y)").isNone());
+  }
+}
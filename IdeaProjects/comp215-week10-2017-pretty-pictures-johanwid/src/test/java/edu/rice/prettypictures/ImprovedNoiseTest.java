@@ -0,0 +1,77 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class ImprovedNoiseTest {
+  private static double[] randoms(Random random, int n, double range) {
+    double[] result = new double[n];
+    for (int i = 0; i < n; i++) {
+      result[i] = (random.nextDouble() * 2 - 1) * range;
+    }
+    return result;
+  }
+
+  @Test
+  public void testBatchMatchesScalar() throws Exception {
+    Random random = new Random(215);
+    int n = 1000;
+
+    for (double range : new double[] {1, 10, 300, 1e10}) {
+      double[] xs = randoms(random, n, range);
+      double[] ys = randoms(random, n, range);
+      double[] zs = randoms(random, n, range);
+      double[] out = new double[n];
+      ImprovedNoise.noise(xs, ys, zs, out, n);
+
+      for (int k = 0; k < n; k++) {
+        assertEquals(ImprovedNoise.noise(xs[k], ys[k], zs[k]), out[k], 0);
+      }
+    }
+  }
+
+  @Test
+  public void testBatchAlongScanlines() throws Exception {
+    // most neighbors share a unit cube, which is the case the batch version is built for
+    int n = 500;
+    double[] xs = new double[n];
+    double[] ys = new double[n];
+    double[] zs = new double[n];
+    for (int k = 0; k < n; k++) {
+      xs[k] = -3 + k * 0.0123;
+      ys[k] = 0.75;
+      zs[k] = Math.sin(k * 0.01);
+    }
+
+    double[] out = new double[n];
+    ImprovedNoise.noise(xs, ys, zs, out, n);
+    for (int k = 0; k < n; k++) {
+      assertEquals(ImprovedNoise.noise(xs[k], ys[k], zs[k]), out[k], 0);
+    }
+
+    // writing over an input is allowed
+    double[] expected = out.clone();
+    ImprovedNoise.noise(xs, ys, zs, xs, n);
+    assertArrayEquals(expected, xs, 0);
+  }
+
+  @Test
+  public void testBatchOddValues() throws Exception {
+    double[] xs = {Double.NaN, Double.POSITIVE_INFINITY, -0.0, 255.999, 256, -1e300};
+    double[] ys = {0.5, 0.5, Double.NEGATIVE_INFINITY, 0.5, -255.5, 3};
+    double[] zs = {0.5, Double.NaN, 0.5, 0.5, 1, 1e300};
+    double[] out = new double[xs.length];
+    ImprovedNoise.noise(xs, ys, zs, out, xs.length);
+
+    for (int k = 0; k < xs.length; k++) {
+      assertEquals(ImprovedNoise.noise(xs[k], ys[k], zs[k]), out[k], 0);
+    }
+  }
+}
@@ -0,0 +1,66 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class InternerTest {
+  private static argFuncs sineXY() {
+    return argFuncs.Sine.make(argFuncs.Multiply.make(argFuncs.VarX.make(), argFuncs.VarY.make()));
+  }
+
+  @Test
+  public void testEqualTreesBecomeOne() throws Exception {
+    Interner interner = Interner.make();
+    argFuncs first = interner.intern(sineXY());
+    argFuncs second = interner.intern(sineXY());
+
+    assertSame(first, second);
+    // X, Y, Multiply, Sine
+    assertEquals(4, interner.size());
+  }
+
+  @Test
+  public void testConstantsCompareByValue() throws Exception {
+    Interner interner = Interner.make();
+
+    assertSame(interner.intern(argFuncs.Constant.make(0.5, -0.5, 0)),
+        interner.intern(argFuncs.Constant.make(0.5, -0.5, 0)));
+    assertNotSame(interner.intern(argFuncs.Constant.make(0.5, -0.5, 0)),
+        interner.intern(argFuncs.Constant.make(0.5, -0.5, 0.25)));
+  }
+
+  @Test
+  public void testInternAllSharesSubtrees() throws Exception {
+    IList<argFuncs> trees = Interner.internAll(List.of(
+        argFuncs.Negate.make(sineXY()),
+        argFuncs.Add.make(sineXY(), argFuncs.Clip.make(sineXY()))));
+
+    argFuncs fromFirst = trees.head().children().head();
+    argFuncs add = trees.tail().head();
+    assertSame(fromFirst, add.children().head());
+    assertSame(fromFirst, add.children().tail().head().children().head());
+  }
+
+  @Test
+  public void testInternedTreesAreTheSame() throws Exception {
+    Random random = new Random(215);
+    Interner interner = Interner.make();
+    for (int i = 0; i < 100; i++) {
+      argFuncs tree = Genomes.random(random, 2 + i % 6);
+      argFuncs interned = interner.intern(tree);
+
+      assertEquals(Genomes.toString(tree), Genomes.toString(interned));
+      assertEquals(Genomes.structuralHash(tree), Genomes.structuralHash(interned));
+      assertSame(interned, interner.intern(interned));
+    }
+  }
+}
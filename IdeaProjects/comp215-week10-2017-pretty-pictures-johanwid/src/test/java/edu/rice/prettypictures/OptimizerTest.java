@@ -0,0 +1,105 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class OptimizerTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+  private static final argFuncs ZERO = argFuncs.Constant.make(0, 0, 0);
+  private static final argFuncs ONE = argFuncs.Constant.make(1, 1, 1);
+  private static final argFuncs HALF = argFuncs.Constant.make(0.5, -0.25, 0.75);
+
+  // NaN for x < 0, and -infinity at x = 0
+  private static final argFuncs NAN_SOMETIMES = argFuncs.Logrm.make(X);
+
+  private static argFuncs optimized(argFuncs tree) {
+    argFuncs result = Optimizer.optimize(tree).getTree();
+    ProgramTest.assertSameEverywhere(tree, result);
+    return result;
+  }
+
+  @Test
+  public void testConstantFolding() throws Exception {
+    argFuncs tree = argFuncs.Add.make(
+        argFuncs.Sine.make(HALF),
+        argFuncs.Multiply.make(HALF, argFuncs.Perlin.make(HALF, ONE)));
+
+    Optimizer.Result result = Optimizer.optimize(tree);
+    assertEquals(Opcode.CONSTANT, result.getTree().opcode());
+    assertEquals(7, result.getNodesRemoved());
+    ProgramTest.assertSameEverywhere(tree, result.getTree());
+
+    // External never looks at its second child, so it needn't be constant
+    assertEquals(Opcode.CONSTANT, optimized(argFuncs.External.make(HALF, X)).opcode());
+  }
+
+  @Test
+  public void testIdentities() throws Exception {
+    argFuncs sinX = argFuncs.Sine.make(X);
+
+    assertSame(X, optimized(argFuncs.Negate.make(argFuncs.Negate.make(X))));
+    assertSame(sinX, optimized(argFuncs.Clip.make(sinX)));
+    assertSame(sinX, optimized(argFuncs.Add.make(sinX, ZERO)));
+    assertSame(sinX, optimized(argFuncs.Multiply.make(ONE, sinX)));
+    assertSame(sinX, optimized(argFuncs.Divide.make(sinX, ONE)));
+    assertSame(sinX, optimized(argFuncs.Dissolve.make(sinX, Y, ZERO)));
+    assertSame(sinX, optimized(argFuncs.Dissolve.make(X, sinX, ONE)));
+    assertEquals(Opcode.NEGATE, optimized(argFuncs.Subtract.make(ZERO, Y)).opcode());
+    assertEquals(Opcode.ROUND_UP, optimized(argFuncs.RoundDown.make(argFuncs.RoundUp.make(X))).opcode());
+
+    assertTrue(optimized(argFuncs.Multiply.make(X, ZERO)) instanceof argFuncs.Constant);
+    assertTrue(optimized(argFuncs.Divide.make(NAN_SOMETIMES, ZERO)) instanceof argFuncs.Constant);
+    assertTrue(optimized(argFuncs.Subtract.make(sinX, argFuncs.Sine.make(X))) instanceof argFuncs.Constant);
+
+    argFuncs external = optimized(argFuncs.External.make(X, argFuncs.Sine.make(argFuncs.Cosine.make(Y))));
+    assertEquals(3, Genomes.size(external));
+  }
+
+  @Test
+  public void testNaNsBlockRewrites() throws Exception {
+    // each of these would be wrong somewhere in [-1, 1] if it were simplified
+    argFuncs clipLog = argFuncs.Clip.make(NAN_SOMETIMES);
+    argFuncs timesZero = argFuncs.Multiply.make(NAN_SOMETIMES, ZERO);
+    argFuncs minusItself = argFuncs.Subtract.make(NAN_SOMETIMES, NAN_SOMETIMES);
+    argFuncs dissolveToFirst = argFuncs.Dissolve.make(X, NAN_SOMETIMES, ZERO);
+
+    assertSame(clipLog, optimized(clipLog));
+    assertSame(timesZero, optimized(timesZero));
+    assertSame(minusItself, optimized(minusItself));
+    assertSame(dissolveToFirst, optimized(dissolveToFirst));
+  }
+
+  @Test
+  public void testSharingIsPreserved() throws Exception {
+    argFuncs shared = argFuncs.Sine.make(argFuncs.Negate.make(argFuncs.Negate.make(X)));
+    argFuncs tree = optimized(argFuncs.Multiply.make(shared, shared));
+
+    assertSame(tree.children().head(), tree.children().tail().head());
+  }
+
+  @Test
+  public void testRandomTreesStayTheSame() throws Exception {
+    Random random = new Random(215);
+    int removed = 0;
+    for (int i = 0; i < 300; i++) {
+      argFuncs tree = Genomes.random(random, 2 + i % 7);
+      Optimizer.Result result = Optimizer.optimize(tree);
+
+      assertTrue(result.getNodesRemoved() >= 0);
+      assertEquals(Genomes.size(result.getTree()), result.getSizeAfter());
+      ProgramTest.assertSameEverywhere(tree, result.getTree());
+      removed += result.getNodesRemoved();
+    }
+
+    // random trees have plenty of dead weight
+    assertTrue(removed > 0);
+  }
+}
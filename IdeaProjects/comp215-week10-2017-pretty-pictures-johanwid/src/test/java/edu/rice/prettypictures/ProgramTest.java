@@ -0,0 +1,298 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class ProgramTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+  private static final argFuncs HALF = argFuncs.Constant.make(0.5, -0.25, 0.75);
+
+  // one of every node, with children that exercise all three channels
+  static final IList<argFuncs> EVERY_NODE = List.of(
+      X,
+      Y,
+      HALF,
+      argFuncs.Negate.make(X),
+      argFuncs.Sine.make(argFuncs.Add.make(X, HALF)),
+      argFuncs.RoundDown.make(argFuncs.Multiply.make(X, Y)),
+      argFuncs.RoundUp.make(Y),
+      argFuncs.Cosine.make(X),
+      argFuncs.Arctan.make(Y),
+      argFuncs.Expon.make(X),
+      argFuncs.Logrm.make(Y),
+      argFuncs.AbsVal.make(X),
+      argFuncs.Clip.make(argFuncs.Divide.make(X, Y)),
+      argFuncs.Wrap.make(argFuncs.Subtract.make(X, HALF)),
+      argFuncs.RGBtoYCrCb.make(argFuncs.Add.make(X, HALF)),
+      argFuncs.YCrCbtoRGB.make(argFuncs.Subtract.make(Y, HALF)),
+      argFuncs.Add.make(X, Y),
+      argFuncs.Subtract.make(X, Y),
+      argFuncs.Multiply.make(X, HALF),
+      argFuncs.Divide.make(Y, X),
+      argFuncs.DotProduct.make(X, HALF),
+      argFuncs.External.make(HALF, X),
+      argFuncs.GSPerlin.make(argFuncs.Add.make(X, HALF), Y),
+      argFuncs.Perlin.make(argFuncs.Add.make(X, HALF), argFuncs.Subtract.make(Y, HALF)),
+      argFuncs.Dissolve.make(X, Y, HALF),
+      argFuncs.ImageSample.make("PIA02879", 1.5, X, argFuncs.Sine.make(Y)),
+      argFuncs.Dissolve.make(
+          argFuncs.Sine.make(argFuncs.Multiply.make(X, Y)),
+          argFuncs.Perlin.make(X, argFuncs.Cosine.make(Y)),
+          argFuncs.Wrap.make(argFuncs.Divide.make(X, argFuncs.Expon.make(Y)))));
+
+  static void assertSameEverywhere(FunctionTree expected, FunctionTree actual) {
+    for (int i = 0; i <= 20; i++) {
+      for (int j = 0; j <= 20; j++) {
+        double x = -1 + i / 10.0;
+        double y = -1 + j / 10.0;
+        Coord e = expected.evaluate(x, y);
+        Coord a = actual.evaluate(x, y);
+        assertEquals(e.getRed(), a.getRed(), 0.0);
+        assertEquals(e.getGreen(), a.getGreen(), 0.0);
+        assertEquals(e.getBlue(), a.getBlue(), 0.0);
+      }
+    }
+  }
+
+  // the tree with every t replaced by a constant t, which is what it should evaluate to at time t
+  private static argFuncs at(argFuncs tree, double t) {
+    if (tree.opcode() == Opcode.VAR_T) {
+      return argFuncs.Constant.make(t);
+    }
+    return tree.children().empty() ? tree : Genomes.withChildren(tree, tree.children().map(child -> at(child, t)));
+  }
+
+  @Test
+  public void testEveryNodeMatchesTree() throws Exception {
+    EVERY_NODE.foreach(tree -> assertSameEverywhere(tree, Program.compile(tree)));
+  }
+
+  @Test
+  public void testEvaluateRGB() throws Exception {
+    argFuncs tree = argFuncs.Sine.make(argFuncs.Multiply.make(X, argFuncs.Add.make(Y, HALF)));
+    Program program = Program.compile(tree);
+    double[] regs = program.newRegisters();
+
+    for (int i = 0; i <= 20; i++) {
+      double x = -1 + i / 10.0;
+      assertEquals(tree.evaluate(x, -x).getRGB(), program.evaluateRGB(x, -x, regs));
+    }
+  }
+
+  @Test
+  public void testSharedNodesCompiledOnce() throws Exception {
+    argFuncs shared = argFuncs.Sine.make(argFuncs.Multiply.make(X, Y));
+    Program program = Program.compile(argFuncs.Add.make(shared, shared));
+
+    // X, Y, Multiply, Sine, Add
+    assertEquals(5, program.size());
+  }
+
+  @Test
+  public void testEqualSubtreesCompiledOnce() throws Exception {
+    // two separately built copies of the same subtree, and two copies of the same constant
+    Program program = Program.compile(argFuncs.Add.make(
+        argFuncs.Sine.make(argFuncs.Multiply.make(X, argFuncs.Constant.make(0.5, 0.5, 0.5))),
+        argFuncs.Sine.make(argFuncs.Multiply.make(X, argFuncs.Constant.make(0.5, 0.5, 0.5)))));
+
+    // X, Multiply, Sine, Add; the constant is a preloaded register, not an instruction
+    assertEquals(4, program.size());
+    assertEquals(5, program.registerCount());
+  }
+
+  @Test
+  public void testCompileAll() throws Exception {
+    argFuncs a = argFuncs.Sine.make(argFuncs.Multiply.make(X, Y));
+    argFuncs b = argFuncs.Cosine.make(argFuncs.Multiply.make(X, Y));
+    argFuncs c = argFuncs.Add.make(a, b);
+    Program program = Program.compileAll(List.of(a, b, c));
+
+    // X, Y, Multiply, Sine, Cosine, Add
+    assertEquals(3, program.outputCount());
+    assertEquals(6, program.size());
+    assertSameEverywhere(a, program);
+
+    int width = 13;
+    int height = 7;
+    double[][] reds = new double[3][width * height];
+    double[][] greens = new double[3][width * height];
+    double[][] blues = new double[3][width * height];
+    program.evaluateRect(-1, -1, 0.1, 0.2, 0, 0, width, height, reds, greens, blues, program.newWorkspace());
+
+    IList<argFuncs> trees = List.of(a, b, c);
+    for (int out = 0; out < 3; out++, trees = trees.tail()) {
+      for (int j = 0; j < height; j++) {
+        for (int i = 0; i < width; i++) {
+          Coord expected = trees.head().evaluate(-1 + i * 0.1, -1 + j * 0.2);
+          int k = j * width + i;
+          assertEquals(expected.getRed(), reds[out][k], 0);
+          assertEquals(expected.getGreen(), greens[out][k], 0);
+          assertEquals(expected.getBlue(), blues[out][k], 0);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCompileBatches() throws Exception {
+    Random rng = new Random(9);
+    IList<argFuncs> trees = List.makeEmpty();
+    for (int i = 0; i < 30; i++) {
+      trees = trees.add(Genomes.random(rng, 6));
+    }
+
+    int maxRegisters = 40;
+    IList<Program> batches = Program.compileBatches(trees, maxRegisters);
+    assertTrue(batches.length() > 1);
+    assertEquals(trees.length(), batches.foldl(0, (sum, batch) -> sum + batch.outputCount()).intValue());
+
+    IList<argFuncs> rest = trees;
+    for (IList<Program> b = batches; !b.empty(); b = b.tail()) {
+      Program batch = b.head();
+
+      // a batch stops taking trees once it reaches the limit, so it's under the limit without its last tree
+      if (batch.outputCount() > 1) {
+        assertTrue(Program.compileAll(rest.limit(batch.outputCount() - 1)).registerCount() < maxRegisters);
+      }
+
+      // and the outputs line up with the trees, in order
+      double[][] reds = new double[batch.outputCount()][4];
+      double[][] greens = new double[batch.outputCount()][4];
+      double[][] blues = new double[batch.outputCount()][4];
+      batch.evaluateRect(-0.5, 0.25, 0.3, 0.1, 0, 0, 2, 2, reds, greens, blues, batch.newWorkspace());
+      for (int out = 0; out < batch.outputCount(); out++, rest = rest.tail()) {
+        Coord expected = rest.head().evaluate(-0.5 + 0.3, 0.25 + 0.1);
+        assertEquals(expected.getRed(), reds[out][3], 0);
+        assertEquals(expected.getGreen(), greens[out][3], 0);
+        assertEquals(expected.getBlue(), blues[out][3], 0);
+      }
+    }
+    assertTrue(rest.empty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testCompileAllRejectsNothing() throws Exception {
+    Program.compileAll(List.makeEmpty());
+  }
+
+  @Test
+  public void testOtherFunctionTrees() throws Exception {
+    FunctionTree custom = (x, y) -> new Coord(x * y, x, y);
+    Program program = Program.compile(custom);
+
+    assertEquals(1, program.size());
+    assertSameEverywhere(custom, program);
+    assertSame(program, Program.compile(program));
+  }
+
+  @Test
+  public void testEvaluateRectMatchesTree() throws Exception {
+    // big enough to span more than one block, and not a multiple of the block size
+    final int width = 37;
+    final int height = 41;
+    final double dx = 2.0 / width;
+    final double dy = 2.0 / height;
+    double[] red = new double[width * height];
+    double[] green = new double[width * height];
+    double[] blue = new double[width * height];
+
+    EVERY_NODE.foreach(tree -> {
+      tree.evaluateRect(-1, -1, dx, dy, width, height, red, green, blue);
+
+      for (int j = 0; j < height; j++) {
+        for (int i = 0; i < width; i++) {
+          Coord expected = tree.evaluate(-1 + i * dx, -1 + j * dy);
+          assertEquals(expected.getRed(), red[j * width + i], 0.0);
+          assertEquals(expected.getGreen(), green[j * width + i], 0.0);
+          assertEquals(expected.getBlue(), blue[j * width + i], 0.0);
+        }
+      }
+    });
+  }
+
+  @Test
+  public void testTime() throws Exception {
+    argFuncs t = argFuncs.VarT.make();
+    argFuncs still = argFuncs.Perlin.make(argFuncs.Sine.make(X), argFuncs.Multiply.make(X, Y));
+    argFuncs tree = argFuncs.Dissolve.make(still, argFuncs.Cosine.make(Y), argFuncs.Add.make(t, X));
+    Program program = Program.compile(tree);
+
+    assertTrue(program.dependsOnTime());
+    assertFalse(Program.compile(still).dependsOnTime());
+    // T, the Add that reads it, and the Dissolve; nothing in the Perlin branch or the Cosine
+    assertEquals(3, program.timeDependentSize());
+
+    // a still image is the frame at t = 0
+    assertSameEverywhere(tree, program);
+    assertSameEverywhere(at(tree, 0), program);
+    for (int i = 0; i <= 8; i++) {
+      double time = -1 + i / 4.0;
+      for (int j = 0; j <= 10; j++) {
+        double x = -1 + j / 5.0;
+        Coord expected = at(tree, time).evaluate(x, -x);
+        Coord actual = program.evaluate(x, -x, time);
+        assertEquals(expected.getRed(), actual.getRed(), 0.0);
+        assertEquals(expected.getGreen(), actual.getGreen(), 0.0);
+        assertEquals(expected.getBlue(), actual.getBlue(), 0.0);
+
+        // and the tree gets there on its own, walking t down to its VarT, without a Program
+        Coord walked = tree.evaluate(x, -x, time);
+        assertEquals(expected.getRed(), walked.getRed(), 0.0);
+        assertEquals(expected.getGreen(), walked.getGreen(), 0.0);
+        assertEquals(expected.getBlue(), walked.getBlue(), 0.0);
+      }
+    }
+  }
+
+  @Test
+  public void testTimeCache() throws Exception {
+    argFuncs t = argFuncs.VarT.make();
+    argFuncs still = argFuncs.Perlin.make(argFuncs.Sine.make(X), argFuncs.Multiply.make(X, Y));
+    IList<argFuncs> trees = List.of(
+        argFuncs.Dissolve.make(still, argFuncs.Cosine.make(Y), argFuncs.Add.make(t, X)),
+        argFuncs.Multiply.make(still, t),
+        argFuncs.Sine.make(t),
+        still);
+
+    // more than one block, and not a multiple of the block size
+    final int width = 37;
+    final int height = 41;
+    final int left = 3;
+    trees.foreach(tree -> {
+      Program program = Program.compile(tree);
+      Program.TimeCache cache = program.newTimeCache(width * height);
+      double[][] red = new double[2][width * height];
+      double[][] green = new double[2][width * height];
+      double[][] blue = new double[2][width * height];
+
+      for (int frame = 0; frame < 5; frame++) {
+        double time = Animation.timeOf(frame, 5);
+        program.evaluateRect(-1, -1, 0.05, 0.05, left, 2, 1, width, height, time, null,
+            new double[][] {red[0]}, new double[][] {green[0]}, new double[][] {blue[0]}, program.newWorkspace());
+        program.evaluateRect(-1, -1, 0.05, 0.05, left, 2, 1, width, height, time, cache,
+            new double[][] {red[1]}, new double[][] {green[1]}, new double[][] {blue[1]}, program.newWorkspace());
+        assertArrayEquals(red[0], red[1], 0.0);
+        assertArrayEquals(green[0], green[1], 0.0);
+        assertArrayEquals(blue[0], blue[1], 0.0);
+        assertEquals(at(tree, time).evaluate(-1 + (left + 5) * 0.05, -1 + 2 * 0.05).getRed(), red[0][5], 0.0);
+      }
+    });
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testTimeCacheForTheWrongSize() throws Exception {
+    Program program = Program.compile(argFuncs.Sine.make(argFuncs.VarT.make()));
+    program.evaluateRect(-1, -1, 0.1, 0.1, 0, 0, 1, 10, 10, 0.5, program.newTimeCache(99),
+        new double[1][100], new double[1][100], new double[1][100], program.newWorkspace());
+  }
+}
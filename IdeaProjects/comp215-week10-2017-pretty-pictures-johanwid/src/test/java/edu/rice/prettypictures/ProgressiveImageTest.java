@@ -0,0 +1,93 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class ProgressiveImageTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+  private static final argFuncs TREE = argFuncs.Clip.make(argFuncs.Dissolve.make(
+      argFuncs.Sine.make(argFuncs.Multiply.make(X, Y)),
+      argFuncs.Perlin.make(X, argFuncs.Cosine.make(Y)),
+      argFuncs.Divide.make(X, argFuncs.Expon.make(Y))));
+
+  @Test
+  public void testLevels() throws Exception {
+    // 67 x 45 isn't a multiple of anything, so the blocks on the edges get cut off
+    ProgressiveImage image = ProgressiveImage.make(Renderer.make(), Program.compile(TREE), 67, 45);
+    assertEquals(0, image.getStride());
+
+    assertTrue(image.refine());
+    assertEquals(8, image.getStride());
+
+    // every pixel has the color of the nearest evaluated pixel above and to the left of it
+    BufferedImage coarse = image.snapshot();
+    BufferedImage full = Renderer.make().render(TREE, 67, 45);
+    for (int j = 0; j < 45; j++) {
+      for (int i = 0; i < 67; i++) {
+        assertEquals(full.getRGB(i - i % 8, j - j % 8), coarse.getRGB(i, j));
+      }
+    }
+
+    assertTrue(image.refine());
+    assertEquals(4, image.getStride());
+    assertTrue(image.refine());
+    assertTrue(image.refine());
+    assertTrue(image.isComplete());
+    assertFalse(image.refine());
+
+    RendererTest.assertMatchesTree(TREE, image.snapshot());
+    assertSame(image.finished().getNow(null), image.finished().get());
+  }
+
+  @Test
+  public void testEveryPixelEvaluatedOnce() throws Exception {
+    AtomicInteger evaluations = new AtomicInteger();
+    FunctionTree counting = (x, y) -> {
+      evaluations.incrementAndGet();
+      return new Coord(x, y, 0);
+    };
+
+    ProgressiveImage image = ProgressiveImage.make(Renderer.make(), counting, 50, 30);
+    while (image.refine()) {
+      // all the levels
+    }
+
+    assertEquals(50 * 30, evaluations.get());
+    RendererTest.assertMatchesTree(counting, image.snapshot());
+  }
+
+  @Test
+  public void testStartFinishesInBackground() throws Exception {
+    ProgressiveImage image = ProgressiveImage.make(Renderer.make(), Program.compile(TREE), 120, 80, 16);
+    image.start();
+    assertTrue(image.getStride() >= 1);
+
+    image.start(); // doesn't start a second time
+    BufferedImage finished = image.finished().get(10, TimeUnit.SECONDS);
+    assertTrue(image.isComplete());
+    RendererTest.assertMatchesTree(TREE, finished);
+  }
+
+  @Test
+  public void testNoLevelsAtAll() throws Exception {
+    ProgressiveImage image = ProgressiveImage.make(Renderer.make(), Program.compile(TREE), 20, 20, 1);
+    assertTrue(image.refine());
+    assertTrue(image.isComplete());
+    RendererTest.assertMatchesTree(TREE, image.snapshot());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStrideMustBePowerOfTwo() throws Exception {
+    ProgressiveImage.make(Renderer.make(), TREE, 10, 10, 6);
+  }
+}
@@ -0,0 +1,211 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class ReferenceImagesTest {
+  // 4x2: black, white, red, green along the top; blue and three grays along the bottom
+  private static final int[][] PIXELS = {
+      {0x000000, 0xffffff, 0xff0000, 0x00ff00},
+      {0x0000ff, 0x404040, 0x808080, 0xc0c0c0}};
+
+  private static ReferenceImages.Picture picture() {
+    BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+    for (int j = 0; j < 2; j++) {
+      for (int i = 0; i < 4; i++) {
+        image.setRGB(i, j, PIXELS[j][i]);
+      }
+    }
+    return ReferenceImages.Picture.make(image);
+  }
+
+  // the center of pixel i of n, in [-1, 1]
+  private static double center(int i, int n) {
+    return -1 + (2 * i + 1.0) / n;
+  }
+
+  // what a picture stores for a 0-255 channel
+  private static double unit(int channel) {
+    return Math.max(-1, (channel - 0.5) / 127.5 - 1);
+  }
+
+  private static void assertColor(int rgb, Coord actual) {
+    assertEquals(Coord.toChannel(actual.getRed()), (rgb >> 16) & 0xff);
+    assertEquals(Coord.toChannel(actual.getGreen()), (rgb >> 8) & 0xff);
+    assertEquals(Coord.toChannel(actual.getBlue()), rgb & 0xff);
+  }
+
+  @Test
+  public void testPixelCenters() throws Exception {
+    ReferenceImages.Picture picture = picture();
+    for (int j = 0; j < 2; j++) {
+      for (int i = 0; i < 4; i++) {
+        assertColor(PIXELS[j][i], picture.sample(center(i, 4), center(j, 2), 0));
+      }
+    }
+  }
+
+  @Test
+  public void testBilinear() throws Exception {
+    ReferenceImages.Picture picture = picture();
+
+    // halfway between black and white, and a quarter of the way from white to red
+    assertEquals((unit(0) + unit(255)) / 2, picture.sample(-0.5, -0.5, 0).getGreen(), 1e-6);
+    assertEquals((unit(255) * 3 + unit(0)) / 4, picture.sample(-0.25 + 0.125, -0.5, 0).getGreen(), 1e-6);
+
+    // in the middle of the four top left pixels
+    Coord middle = picture.sample(-0.5, 0, 0);
+    assertEquals((unit(0) + unit(255) + unit(0) + unit(0x40)) / 4, middle.getRed(), 1e-6);
+  }
+
+  @Test
+  public void testEdgesClamp() throws Exception {
+    ReferenceImages.Picture picture = picture();
+    assertColor(PIXELS[0][0], picture.sample(-5, -1, 0));
+    assertColor(PIXELS[0][0], picture.sample(Double.NaN, Double.NaN, Double.NaN));
+    assertColor(PIXELS[1][3], picture.sample(1, Double.POSITIVE_INFINITY, 0));
+    assertColor(PIXELS[0][3], picture.sample(3, -1, -2));
+  }
+
+  @Test
+  public void testMipLevels() throws Exception {
+    ReferenceImages.Picture picture = picture();
+    assertEquals(3, picture.getLevels());
+    assertEquals(2, picture.getWidth(1));
+    assertEquals(1, picture.getHeight(1));
+    assertEquals(1, picture.getWidth(2));
+
+    // the last level is the average of everything, wherever you look at it, and so is any blur past it
+    double red = 0;
+    for (int[] row : PIXELS) {
+      for (int rgb : row) {
+        red += unit((rgb >> 16) & 0xff);
+      }
+    }
+    assertEquals(red / 8, picture.sample(0.9, -0.3, 2).getRed(), 1e-6);
+    assertEquals(red / 8, picture.sample(-0.9, 0.3, 10).getRed(), 1e-6);
+
+    // halfway between levels is halfway between their colors
+    Coord sharp = picture.sample(0.2, 0.1, 1);
+    Coord blurry = picture.sample(0.2, 0.1, 2);
+    assertEquals((sharp.getBlue() + blurry.getBlue()) / 2, picture.sample(0.2, 0.1, 1.5).getBlue(), 1e-6);
+  }
+
+  @Test
+  public void testBigPicturesShrink() throws Exception {
+    ReferenceImages.Picture picture = ReferenceImages.Picture.make(
+        new BufferedImage(ReferenceImages.MAX_SIZE * 3, 10, BufferedImage.TYPE_INT_RGB));
+    assertEquals(ReferenceImages.MAX_SIZE * 3 / 4, picture.getWidth(0));
+    assertEquals(2, picture.getHeight(0));
+    assertEquals(1, picture.getWidth(picture.getLevels() - 1));
+  }
+
+  @Test
+  public void testBlockMatchesPoints() throws Exception {
+    ReferenceImages.Picture picture = ReferenceImages.shared().get("PIA02879");
+    int n = 100;
+    double[] us = new double[n];
+    double[] vs = new double[n];
+    for (int k = 0; k < n; k++) {
+      us[k] = Math.sin(k) * 1.2;
+      vs[k] = Math.cos(k * 3) * 1.1;
+    }
+    double[] red = new double[n];
+    double[] green = new double[n];
+    double[] blue = new double[n];
+    picture.sample(us, vs, 0.7, red, green, blue, n);
+    for (int k = 0; k < n; k++) {
+      Coord c = picture.sample(us[k], vs[k], 0.7);
+      assertEquals(c.getRed(), red[k], 0.0);
+      assertEquals(c.getGreen(), green[k], 0.0);
+      assertEquals(c.getBlue(), blue[k], 0.0);
+    }
+  }
+
+  @Test
+  public void testEveryPictureLoads() throws Exception {
+    // with no budget, nothing is kept
+    ReferenceImages images = ReferenceImages.make(0);
+    for (IList<String> rest = ReferenceImages.names(); !rest.empty(); rest = rest.tail()) {
+      ReferenceImages.Picture picture = images.get(rest.head());
+      assertTrue(picture.getLevels() > 5);
+      assertTrue(picture.getWidth(0) <= ReferenceImages.MAX_SIZE && picture.getHeight(0) <= ReferenceImages.MAX_SIZE);
+    }
+    assertEquals(0, images.size());
+    assertEquals(0, images.getTotalBytes());
+    assertEquals(ReferenceImages.names().length(), images.getLoads());
+  }
+
+  @Test
+  public void testLoadsOnce() throws Exception {
+    ReferenceImages images = ReferenceImages.make(Long.MAX_VALUE);
+    CountDownLatch start = new CountDownLatch(1);
+    ReferenceImages.Picture[] seen = new ReferenceImages.Picture[8];
+    ArrayList<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < seen.length; i++) {
+      final int which = i;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        seen[which] = images.get("04070v");
+      });
+      thread.start();
+      threads.add(thread);
+    }
+    start.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(1, images.getLoads());
+    for (ReferenceImages.Picture picture : seen) {
+      assertSame(seen[0], picture);
+    }
+    assertSame(seen[0], images.get("04070v"));
+    assertEquals(seen[0].bytes(), images.getTotalBytes());
+  }
+
+  @Test
+  public void testEvictsOverBudget() throws Exception {
+    long oneBig = ReferenceImages.make(0).get("04070v").bytes();
+    ReferenceImages images = ReferenceImages.make(oneBig + oneBig / 2);
+
+    ReferenceImages.Picture first = images.get("04070v");
+    images.get("04144v");
+    assertEquals(1, images.size());
+    assertTrue(images.getTotalBytes() <= images.getMaxBytes());
+
+    // the first one went, so it's decoded again
+    assertNotSame(first, images.get("04070v"));
+    assertEquals(3, images.getLoads());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownPicture() throws Exception {
+    ReferenceImages.shared().get("nowhere");
+  }
+
+  @Test
+  public void testImageSampleNode() throws Exception {
+    argFuncs sample = argFuncs.ImageSample.make("PIA02879", 0, argFuncs.VarX.make(), argFuncs.VarY.make());
+    ReferenceImages.Picture picture = ReferenceImages.shared().get("PIA02879");
+    Coord expected = picture.sample(0.25, -0.5, 0);
+    Coord actual = sample.evaluate(0.25, -0.5);
+    assertEquals(expected.getRed(), actual.getRed(), 0.0);
+    assertEquals(expected.getGreen(), actual.getGreen(), 0.0);
+    assertEquals(expected.getBlue(), actual.getBlue(), 0.0);
+  }
+}
@@ -0,0 +1,107 @@
+package edu.rice.prettypictures;
+
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class RenderCacheTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+
+  private static argFuncs sineXY() {
+    return argFuncs.Sine.make(argFuncs.Multiply.make(argFuncs.VarX.make(), argFuncs.VarY.make()));
+  }
+
+  @Test
+  public void testStructuralHash() throws Exception {
+    // separately built, but the same shape
+    assertEquals(Genomes.structuralHash(sineXY()), Genomes.structuralHash(sineXY()));
+    assertEquals(Genomes.structuralHash(argFuncs.Constant.make(0.1, 0.2, 0.3)),
+        Genomes.structuralHash(argFuncs.Constant.make(0.1, 0.2, 0.3)));
+
+    assertNotEquals(Genomes.structuralHash(X), Genomes.structuralHash(Y));
+    assertNotEquals(Genomes.structuralHash(argFuncs.Subtract.make(X, Y)),
+        Genomes.structuralHash(argFuncs.Subtract.make(Y, X)));
+    assertNotEquals(Genomes.structuralHash(argFuncs.Constant.make(0.1, 0.2, 0.3)),
+        Genomes.structuralHash(argFuncs.Constant.make(0.1, 0.3, 0.2)));
+  }
+
+  @Test
+  public void testHitsAndMisses() throws Exception {
+    RenderCache cache = RenderCache.make(1000);
+    int[] renders = {0};
+
+    byte[] first = cache.get(sineXY(), 10, 20, () -> {
+      renders[0]++;
+      return new byte[100];
+    });
+    byte[] second = cache.get(sineXY(), 10, 20, () -> {
+      renders[0]++;
+      return new byte[100];
+    });
+
+    assertSame(first, second);
+    assertEquals(1, renders[0]);
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.getMisses());
+
+    // same genome, different size
+    assertTrue(cache.oget(sineXY(), 20, 10).isNone());
+    assertEquals(2, cache.getMisses());
+  }
+
+  @Test
+  public void testEvictsLeastRecentlyUsed() throws Exception {
+    RenderCache cache = RenderCache.make(300);
+    cache.put(X, 1, 1, new byte[100]);
+    cache.put(Y, 1, 1, new byte[100]);
+    cache.put(sineXY(), 1, 1, new byte[100]);
+    assertEquals(300, cache.getTotalBytes());
+
+    // touching X makes Y the oldest
+    assertTrue(cache.oget(X, 1, 1).isSome());
+    cache.put(argFuncs.Negate.make(X), 1, 1, new byte[100]);
+
+    assertEquals(3, cache.size());
+    assertEquals(300, cache.getTotalBytes());
+    assertTrue(cache.oget(X, 1, 1).isSome());
+    assertTrue(cache.oget(Y, 1, 1).isNone());
+    assertTrue(cache.oget(sineXY(), 1, 1).isSome());
+  }
+
+  @Test
+  public void testTooBigIsNotKept() throws Exception {
+    RenderCache cache = RenderCache.make(300);
+    cache.put(X, 1, 1, new byte[100]);
+    cache.put(Y, 1, 1, new byte[301]);
+
+    assertEquals(1, cache.size());
+    assertEquals(100, cache.getTotalBytes());
+    assertTrue(cache.oget(Y, 1, 1).isNone());
+  }
+
+  @Test
+  public void testStructurallyEqual() throws Exception {
+    assertTrue(Genomes.structurallyEqual(sineXY(), sineXY()));
+    assertTrue(Genomes.structurallyEqual(argFuncs.Constant.make(0.1, 0.2, 0.3), argFuncs.Constant.make(0.1, 0.2, 0.3)));
+
+    assertFalse(Genomes.structurallyEqual(X, Y));
+    assertFalse(Genomes.structurallyEqual(argFuncs.Subtract.make(X, Y), argFuncs.Subtract.make(Y, X)));
+    assertFalse(Genomes.structurallyEqual(argFuncs.Constant.make(0.1, 0.2, 0.3), argFuncs.Constant.make(0.1, 0.3, 0.2)));
+    assertFalse(Genomes.structurallyEqual(argFuncs.Sine.make(X), argFuncs.Cosine.make(X)));
+  }
+
+  @Test
+  public void testKeysCompareGenomesNotJustHashes() throws Exception {
+    RenderCache.Key key = new RenderCache.Key(sineXY(), 10, 20);
+    assertEquals(key, new RenderCache.Key(sineXY(), 10, 20));
+    assertEquals(key.hashCode(), new RenderCache.Key(sineXY(), 10, 20).hashCode());
+    assertNotEquals(key, new RenderCache.Key(sineXY(), 20, 10));
+    assertNotEquals(key, new RenderCache.Key(X, 10, 20));
+  }
+}
@@ -0,0 +1,225 @@
+package edu.rice.prettypictures;
+
+import edu.rice.list.IList;
+import edu.rice.list.List;
+import org.junit.Test;
+
+import javax.annotation.CheckReturnValue;
+import javax.annotation.ParametersAreNonnullByDefault;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+@ParametersAreNonnullByDefault
+@CheckReturnValue
+public class RendererTest {
+  private static final argFuncs X = argFuncs.VarX.make();
+  private static final argFuncs Y = argFuncs.VarY.make();
+
+  // stays inside [-1, 1] everywhere, so every pixel is a legal color
+  private static final argFuncs TREE = argFuncs.Clip.make(argFuncs.Dissolve.make(
+      argFuncs.Sine.make(argFuncs.Multiply.make(X, Y)),
+      argFuncs.Perlin.make(X, argFuncs.Cosine.make(Y)),
+      argFuncs.Divide.make(X, argFuncs.Expon.make(Y))));
+
+  static void assertMatchesTree(FunctionTree tree, BufferedImage image) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        double x = Renderer.origin(width) + i * Renderer.step(width);
+        double y = Renderer.origin(height) + j * Renderer.step(height);
+        assertEquals(tree.evaluate(x, y).getRGB(), image.getRGB(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testRenderMatchesTree() throws Exception {
+    assertMatchesTree(TREE, Renderer.make().render(TREE, 100, 70));
+  }
+
+  @Test
+  public void testTilingDoesNotChangePixels() throws Exception {
+    Renderer oneThread = Renderer.make(1, 1000);
+    BufferedImage expected = oneThread.render(TREE, 61, 45);
+
+    for (int tileSize : new int[] {1, 7, 16, 64}) {
+      BufferedImage actual = Renderer.make(4, tileSize).render(TREE, 61, 45);
+      for (int j = 0; j < 45; j++) {
+        for (int i = 0; i < 61; i++) {
+          assertEquals(expected.getRGB(i, j), actual.getRGB(i, j));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testRenderRowsMatchesWholeImage() throws Exception {
+    Renderer renderer = Renderer.make(4, 16);
+    BufferedImage expected = renderer.render(TREE, 50, 61);
+
+    BufferedImage actual = new BufferedImage(50, 61, BufferedImage.TYPE_INT_RGB);
+    Program program = Program.compile(TREE);
+    for (int top = 0; top < 61; top += 13) {
+      renderer.render(program, actual, top, Math.min(top + 13, 61));
+    }
+
+    for (int j = 0; j < 61; j++) {
+      for (int i = 0; i < 50; i++) {
+        assertEquals(expected.getRGB(i, j), actual.getRGB(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testTinyImages() throws Exception {
+    assertMatchesTree(TREE, Renderer.make().render(TREE, 1, 1));
+    assertMatchesTree(TREE, Renderer.make().render(TREE, 1, 9));
+  }
+
+  @Test
+  public void testRenderAllMatchesTrees() throws Exception {
+    IList<argFuncs> trees = List.of(TREE, argFuncs.Sine.make(argFuncs.Multiply.make(X, Y)), X);
+    IList<BufferedImage> images = Renderer.make().renderAll(trees, 90, 50);
+
+    assertEquals(3, images.length());
+    trees.zip(images, (tree, image) -> {
+      assertMatchesTree(tree, image);
+      return tree;
+    });
+  }
+
+  @Test
+  public void testTestGenerationRenders() throws Exception {
+    // every pixel of every test image has to be a legal color, or the server would fail to draw it
+    Genomes.TEST_GENERATION.foreach(genome ->
+        assertMatchesTree(genome, Renderer.make().render(genome, 32, 32)));
+  }
+
+  @Test
+  public void testRenderAllInBatches() throws Exception {
+    // enough random trees that the generation has to be split into several programs
+    Random rng = new Random(1000);
+    IList<argFuncs> trees = List.makeEmpty();
+    for (int i = 0; i < 40; i++) {
+      trees = trees.add(Genomes.random(rng, 6));
+    }
+    assertTrue(Program.compileBatches(trees, Renderer.MAX_BATCH_REGISTERS).length() > 1);
+
+    IList<BufferedImage> images = Renderer.make().renderAll(trees, 20, 12);
+    assertEquals(40, images.length());
+    trees.zip(images, (tree, image) -> {
+      assertMatchesTree(tree, image);
+      return tree;
+    });
+  }
+
+  // one channel of a packed RGB pixel
+  private static int channel(int rgb, int shift) {
+    return (rgb >> shift) & 0xff;
+  }
+
+  private static boolean sameColor(int a, int b) {
+    return ((a ^ b) & 0xffffff) == 0;
+  }
+
+  // averages each SUPERSAMPLES x SUPERSAMPLES block of a bigger image down to one pixel
+  private static int[][] downsample(BufferedImage big, int width, int height) {
+    int n = Renderer.SUPERSAMPLES;
+    int[][] result = new int[height][width];
+    for (int j = 0; j < height; j++) {
+      for (int i = 0; i < width; i++) {
+        int[] sums = new int[3];
+        for (int k = 0; k < n * n; k++) {
+          int rgb = big.getRGB(i * n + k % n, j * n + k / n);
+          for (int c = 0; c < 3; c++) {
+            sums[c] += channel(rgb, 16 - 8 * c);
+          }
+        }
+        for (int c = 0; c < 3; c++) {
+          result[j][i] |= ((sums[c] + n * n / 2) / (n * n)) << (16 - 8 * c);
+        }
+      }
+    }
+    return result;
+  }
+
+  @Test
+  public void testAntialiasingLeavesSmoothImagesAlone() throws Exception {
+    // neighboring pixels of a gentle gradient are only a few steps apart
+    Renderer renderer = Renderer.make();
+    BufferedImage expected = renderer.render(X, 200, 30);
+    BufferedImage actual = renderer.renderAntialiased(X, 200, 30);
+    for (int j = 0; j < 30; j++) {
+      for (int i = 0; i < 200; i++) {
+        assertEquals(expected.getRGB(i, j), actual.getRGB(i, j));
+      }
+    }
+  }
+
+  @Test
+  public void testAntialiasingMatchesSupersamplingAtEdges() throws Exception {
+    argFuncs stripes = argFuncs.Sine.make(argFuncs.Multiply.make(argFuncs.Constant.make(37, 23, 11),
+        argFuncs.Add.make(X, argFuncs.Multiply.make(X, Y))));
+    int width = 40;
+    int height = 30;
+    int n = Renderer.SUPERSAMPLES;
+    Renderer renderer = Renderer.make();
+    BufferedImage plain = renderer.render(stripes, width, height);
+    int[][] supersampled = downsample(renderer.render(stripes, width * n, height * n), width, height);
+    BufferedImage actual = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    renderer.renderAntialiased(stripes, actual, 0, height, 0);
+
+    int edges = 0;
+    for (int j = 1; j < height - 1; j++) {
+      for (int i = 1; i < width - 1; i++) {
+        int c = plain.getRGB(i, j);
+        boolean edge = !sameColor(c, plain.getRGB(i - 1, j)) || !sameColor(c, plain.getRGB(i + 1, j))
+            || !sameColor(c, plain.getRGB(i, j - 1)) || !sameColor(c, plain.getRGB(i, j + 1));
+        if (edge) {
+          edges++;
+          assertTrue(sameColor(supersampled[j][i], actual.getRGB(i, j)));
+        } else {
+          assertEquals(c, actual.getRGB(i, j));
+        }
+      }
+    }
+    assertTrue(edges > 0);
+  }
+
+  @Test
+  public void testAntialiasedTilingDoesNotChangePixels() throws Exception {
+    BufferedImage expected = Renderer.make(1, 1000).renderAntialiased(TREE, 61, 45);
+    BufferedImage generated = Renderer.make(1, 1000).renderAntialiased(BytecodeCompiler.compile(TREE), 61, 45);
+    for (int j = 0; j < 45; j++) {
+      for (int i = 0; i < 61; i++) {
+        assertEquals(expected.getRGB(i, j), generated.getRGB(i, j));
+      }
+    }
+
+    for (int tileSize : new int[] {1, 7, 16, 64}) {
+      Renderer renderer = Renderer.make(4, tileSize);
+      BufferedImage actual = new BufferedImage(61, 45, BufferedImage.TYPE_INT_RGB);
+      for (int top = 0; top < 45; top += 13) {
+        renderer.renderAntialiased(TREE, actual, top, Math.min(top + 13, 45), Renderer.DEFAULT_CONTRAST);
+      }
+      for (int j = 0; j < 45; j++) {
+        for (int i = 0; i < 61; i++) {
+          assertEquals(expected.getRGB(i, j), actual.getRGB(i, j));
+        }
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsNegativeContrast() throws Exception {
+    Renderer.make().renderAntialiased(TREE, new BufferedImage(4, 4, BufferedImage.TYPE_INT_RGB), 0, 4, -1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRejectsOtherImageTypes() throws Exception {
+    Renderer.make().render(TREE, new BufferedImage(4, 4, BufferedImage.TYPE_BYTE_GRAY));
+  }
+}
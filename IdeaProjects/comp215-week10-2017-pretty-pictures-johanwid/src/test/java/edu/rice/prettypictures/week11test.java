@@ -299,4 +299,38 @@ public class week11test {
         n.evaluate(1, 1).getRGB(),
         y.evaluate(1, 1).getRGB());
   }
-}
\ No newline at end of file
+
+  /*
+      a leaf that counts how many times it's been evaluated.
+  */
+  static class CountingLeaf implements argFuncs {
+    int count = 0;
+
+    @Override
+    public Opcode opcode() {
+      return Opcode.VAR_X;
+    }
+
+    @Override
+    public Coord evaluate(double x, double y, double t) {
+      count++;
+      return new Coord(x, x, x);
+    }
+  }
+
+  @Test
+  public void testChildrenEvaluatedOnce() throws Exception {
+    CountingLeaf leaf = new CountingLeaf();
+    argFuncs tree = leaf;
+    for (int i = 0; i < 8; i++) {
+      tree = new argFuncs.Dissolve(new argFuncs.Sine(tree), new argFuncs.VarY(), new argFuncs.VarX());
+    }
+
+    tree.evaluate(0.5, 0.5);
+    assertEquals(1, leaf.count);
+
+    tree = new argFuncs.Add(leaf, new argFuncs.Perlin(leaf, leaf));
+    tree.evaluate(0.5, 0.5);
+    assertEquals(4, leaf.count);
+  }
+}
@@ -21,6 +21,7 @@ import org.junit.rules.ErrorCollector;
 
 import javax.annotation.CheckReturnValue;
 import javax.annotation.ParametersAreNonnullByDefault;
+import java.util.PrimitiveIterator;
 import java.util.function.Function;
 
 import static edu.rice.list.LazyList.rangeInt;
@@ -29,6 +30,8 @@ import static java.lang.Math.ceil;
 import static java.lang.Math.sqrt;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Primality testers with various different runtime performance. These turn out to be an excellent
@@ -51,14 +54,14 @@ public class PrimalityTest {
   @Rule
   public final ErrorCollector collector = new ErrorCollector();
 
-  private void basicTests(String name, Function<Integer,IList<Integer>> primeFunc) {
+  private void basicTests(String name, Function<Integer,PrimeList> primeFunc) {
     Log.i(TAG, () -> "checking " + name);
-    collector.checkThat(name, List.of(1), equalTo(primeFunc.apply(1)));
-    collector.checkThat(name, List.of(1,2), equalTo(primeFunc.apply(2)));
-    collector.checkThat(name, List.of(1,2,3,5,7,11), equalTo(primeFunc.apply(12)));
-    collector.checkThat(name, List.of(1,2,3,5,7,11,13,17,19,23), equalTo(primeFunc.apply(23)));
-    collector.checkThat(name, List.of(1,2,3,5,7,11,13,17,19,23), equalTo(primeFunc.apply(25)));
-    collector.checkThat(name, List.of(1,2,3,5,7,11,13,17,19,23,29,31,37,41,43,47,53), equalTo(primeFunc.apply(56)));
+    collector.checkThat(name, List.of(1), equalTo(primeFunc.apply(1).toList()));
+    collector.checkThat(name, List.of(1,2), equalTo(primeFunc.apply(2).toList()));
+    collector.checkThat(name, List.of(1,2,3,5,7,11), equalTo(primeFunc.apply(12).toList()));
+    collector.checkThat(name, List.of(1,2,3,5,7,11,13,17,19,23), equalTo(primeFunc.apply(23).toList()));
+    collector.checkThat(name, List.of(1,2,3,5,7,11,13,17,19,23), equalTo(primeFunc.apply(25).toList()));
+    collector.checkThat(name, List.of(1,2,3,5,7,11,13,17,19,23,29,31,37,41,43,47,53), equalTo(primeFunc.apply(56).toList()));
   }
 
   @Test
@@ -123,12 +126,101 @@ public class PrimalityTest {
 
     IList<String> allFuncs = REGISTRY.keys();
 
-    IMap<String, IList<Integer>> result =
+    IMap<String, PrimeList> result =
         TreapMap.fromList(allFuncs, funcName -> REGISTRY.oget(funcName).get().apply(MAX));
 
     // Of all our prime number generators, this is the simplest and, thus, most likely to be correct.
-    IList<Integer> reference = result.oget("O(n sqrt n)").get();
+    PrimeList reference = result.oget("O(n sqrt n)").get();
 
     allFuncs.foreach(funcName -> collector.checkThat(funcName, reference, equalTo(result.oget(funcName).get())));
   }
+
+  @Test
+  public void testSegmentBoundaries() throws Exception {
+    // Each segment covers 2 * SEGMENT_SIZE numbers, starting from 3, so these land just before, on, and just after
+    // the ends of the first few segments, where an off-by-one in the segmented sieve would show up.
+    int span = 2 * Primes.SEGMENT_SIZE;
+    IList<Integer> sizes = List.of(span, span + 1, span + 2, span + 3, 2 * span + 1, 2 * span + 2, 5 * span + 4);
+
+    sizes.foreach(size -> {
+      PrimeList expected = Primes.primesEratosthenes(size);
+      collector.checkThat("size " + size, Primes.primesSegmented(size), equalTo(expected));
+      collector.checkThat("parallel size " + size, Primes.primesSegmentedParallel(size), equalTo(expected));
+    });
+  }
+
+  @Test
+  public void testIsqrt() throws Exception {
+    assertEquals(0, Primes.isqrt(0));
+    assertEquals(1, Primes.isqrt(3));
+    assertEquals(2, Primes.isqrt(4));
+    assertEquals(46340, Primes.isqrt(Integer.MAX_VALUE));
+    rangeInt(0, 2000).foreach(n -> assertEquals((int) Math.floor(Math.sqrt(n)), Primes.isqrt(n)));
+  }
+
+  @Test
+  public void testBitPackedEveryLength() throws Exception {
+    // Every length up to a few words' worth of bits, so each possible partial last word gets checked, with and
+    // without the wheel, plus one big one.
+    rangeInt(1, 1000).foreach(n -> {
+      PrimeList expected = Primes.primesEratosthenes(n);
+      collector.checkThat("bits " + n, Primes.primesBitPacked(n), equalTo(expected));
+      collector.checkThat("wheel " + n, Primes.primesWheel(n), equalTo(expected));
+    });
+
+    PrimeList expected = Primes.primesEratosthenes(1000003);
+    collector.checkThat(Primes.primesBitPacked(1000003), equalTo(expected));
+    collector.checkThat(Primes.primesWheel(1000003), equalTo(expected));
+  }
+
+  @Test
+  public void testPrimeList() throws Exception {
+    PrimeList primes = Primes.primesSegmented(56);
+    IList<Integer> expected = List.of(1,2,3,5,7,11,13,17,19,23,29,31,37,41,43,47,53);
+
+    assertEquals(17, primes.size());
+    assertEquals(53, primes.last());
+    assertEquals(5, primes.get(3));
+    assertEquals(expected, primes.toList());
+    assertEquals(primes, PrimeList.fromList(expected));
+    assertEquals(primes.hashCode(), PrimeList.fromList(expected).hashCode());
+    assertEquals(expected.length(), primes.stream().count());
+    assertEquals(expected.foldl(0, (a, b) -> a + b).intValue(), primes.stream().sum());
+    assertTrue(primes.contains(47));
+    assertFalse(primes.contains(49));
+
+    int[] array = primes.toArray();
+    array[0] = 99; // a copy, so this doesn't change the PrimeList
+    assertEquals(1, primes.get(0));
+
+    PrimitiveIterator.OfInt iterator = primes.iterator();
+    assertEquals(1, iterator.nextInt());
+    assertEquals(2, iterator.nextInt());
+
+    assertTrue(PrimeList.of().empty());
+    assertEquals(List.makeEmpty(), PrimeList.of().toList());
+    assertEquals("PrimeList[1, 2, 3]", PrimeList.of(1, 2, 3).toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPrimeListMustAscend() throws Exception {
+    PrimeList.of(2, 3, 3);
+  }
+
+  @Test
+  public void testPrimeGenerator() throws Exception {
+    // big enough to go through plenty of segments, and to need more sieving primes several times along the way
+    final int MAX = 3000000;
+    PrimeList expected = Primes.primesSegmented(MAX);
+
+    PrimeGenerator generator = PrimeGenerator.make();
+    for (int i = 0; i < expected.size(); i++) {
+      assertTrue(generator.hasNext());
+      assertEquals(expected.get(i), generator.nextInt());
+    }
+    assertTrue(generator.nextInt() > MAX);
+
+    assertEquals(expected.toList().limit(1000), PrimeGenerator.primes().limit(1000));
+    assertEquals(List.of(1, 2, 3, 5, 7), PrimeGenerator.primes().takeWhile(p -> p < 10));
+  }
 }